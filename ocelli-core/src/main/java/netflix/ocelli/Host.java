@@ -2,6 +2,7 @@ package netflix.ocelli;
 
 import java.util.Map;
 
+import rx.functions.Func1;
 
 /**
  * A class for expressing a host.
@@ -9,6 +10,10 @@ import java.util.Map;
  * @author Nitesh Kant
  */
 public class Host {
+    /**
+     * Attribute holding the availability zone (or other locality) of the host
+     */
+    public static final String ZONE_ATTRIBUTE = "zone";
 
     private String hostName;
     private int port;
@@ -40,6 +45,19 @@ public class Host {
         return defaultValue;
     }
     
+    /**
+     * @return Function extracting an attribute from a host, such as the zone for use with
+     *  {@link netflix.ocelli.loadbalancer.ZoneAwareLoadBalancer}
+     */
+    public static Func1<Host, String> byAttribute(final String key, final String defaultValue) {
+        return new Func1<Host, String>() {
+            @Override
+            public String call(Host host) {
+                return host.getAttributes(key, defaultValue);
+            }
+        };
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -0,0 +1,43 @@
+package netflix.ocelli;
+
+import java.util.List;
+
+/**
+ * Snapshot of the known instances of a client split into the healthy tier, instances that
+ * are up, and the unhealthy tier, instances that are down or quarantined but have not been
+ * removed.
+ * 
+ * @author elandau
+ *
+ * @param <T>
+ */
+public class InstanceTiers<T> {
+    private final List<T> healthy;
+    private final List<T> unhealthy;
+    
+    public InstanceTiers(List<T> healthy, List<T> unhealthy) {
+        this.healthy = healthy;
+        this.unhealthy = unhealthy;
+    }
+    
+    public List<T> getHealthy() {
+        return healthy;
+    }
+    
+    public List<T> getUnhealthy() {
+        return unhealthy;
+    }
+    
+    /**
+     * @return Fraction of known instances that are healthy, or 1 if there are no instances
+     */
+    public double getHealthyFraction() {
+        int total = healthy.size() + unhealthy.size();
+        return total == 0 ? 1.0 : (double)healthy.size() / total;
+    }
+    
+    @Override
+    public String toString() {
+        return "InstanceTiers [healthy=" + healthy + ", unhealthy=" + unhealthy + "]";
+    }
+}
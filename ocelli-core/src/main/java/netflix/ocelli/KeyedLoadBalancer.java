@@ -0,0 +1,34 @@
+package netflix.ocelli;
+
+/**
+ * Base for load balancers that route a request key to a client, such as consistent
+ * hashing, so that the same key consistently goes to the same client.  This is the
+ * basis for request affinity where keeping a key on the same host maximizes the hit
+ * rate of caches on that host.
+ *
+ * Keyless selection via {@link LoadBalancer#next()} picks a client for a random key.
+ *
+ * @author elandau
+ *
+ * @param <K>   Request key type
+ * @param <C>
+ */
+public abstract class KeyedLoadBalancer<K, C> extends LoadBalancer<C> {
+    /**
+     * Synchronously choose the client for a key
+     *
+     * @param key
+     * @return The chosen client
+     * @throws java.util.NoSuchElementException if there are no clients available
+     */
+    public abstract C next(K key);
+
+    /**
+     * Choose the client for a key and hold it for the duration of a request.
+     *
+     * @see LoadBalancer#acquire()
+     */
+    public Lease<C> acquire(K key) {
+        return Lease.from(next(key));
+    }
+}
@@ -0,0 +1,70 @@
+package netflix.ocelli;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A client handed out by {@link LoadBalancer#acquire()} for the duration of a single
+ * request.  The caller must complete the lease exactly once when the request terminates
+ * or is cancelled, which allows load balancers to track the number of requests
+ * outstanding on each client regardless of the transport.  Completing a lease more
+ * than once is a no-op.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public abstract class Lease<C> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Lease> RELEASED = AtomicIntegerFieldUpdater.newUpdater(Lease.class, "released");
+
+    /**
+     * @return Lease that doesn't track anything when completed
+     */
+    public static <C> Lease<C> from(C client) {
+        return new Lease<C>(client) {
+            @Override
+            protected void onRelease(Throwable error) {
+            }
+        };
+    }
+
+    private final C client;
+    private volatile int released;
+
+    protected Lease(C client) {
+        this.client = client;
+    }
+
+    public C getClient() {
+        return client;
+    }
+
+    /**
+     * The request completed successfully or was cancelled
+     */
+    public final void complete() {
+        if (RELEASED.compareAndSet(this, 0, 1)) {
+            onRelease(null);
+        }
+    }
+
+    /**
+     * The request failed
+     * @param error
+     */
+    public final void fail(Throwable error) {
+        if (RELEASED.compareAndSet(this, 0, 1)) {
+            onRelease(error);
+        }
+    }
+
+    /**
+     * Called once when the lease is completed
+     * @param error     The error if the request failed, otherwise null
+     */
+    protected abstract void onRelease(Throwable error);
+
+    public String toString() {
+        return "Lease[" + client + "]";
+    }
+}
@@ -2,23 +2,71 @@ package netflix.ocelli;
 
 import rx.Observable;
 import rx.Observable.OnSubscribe;
+import rx.Subscriber;
+import rx.exceptions.Exceptions;
 
 /**
  * Base for all LoadBalancers will emit a single C based on the load balancing
  * strategy when subscribed to.
- * 
+ *
+ * The selection itself is performed by {@link LoadBalancer#next()} which may
+ * also be called directly on hot paths to avoid the allocations of going through
+ * Observable.create().  The OnSubscribe implementation is a thin wrapper around it.
+ *
  * @author elandau
  *
  * @param <C>
  */
 public abstract class LoadBalancer<C> implements OnSubscribe<C> {
+    /**
+     * Synchronously choose the next client based on the load balancing strategy.
+     * Implementations should not allocate.
+     *
+     * The default implementation subscribes to {@link #call(Subscriber)} and blocks for
+     * the first client so that load balancers written before next() existed, which only
+     * implement call(), keep working.  Subclasses must override at least one of the two.
+     *
+     * @return The chosen client
+     * @throws java.util.NoSuchElementException if there are no clients available
+     */
+    public C next() {
+        return Observable.create(this).toBlocking().first();
+    }
+
+    /**
+     * Choose the next client and hold it for the duration of a request.  The returned
+     * {@link Lease} must be completed when the request terminates.  Load balancers that
+     * track outstanding requests override this, the default simply wraps next().
+     *
+     * @return Lease on the chosen client
+     * @throws java.util.NoSuchElementException if there are no clients available
+     */
+    public Lease<C> acquire() {
+        return Lease.from(next());
+    }
+
+    @Override
+    public void call(Subscriber<? super C> s) {
+        C client;
+        try {
+            client = next();
+        }
+        catch (Throwable t) {
+            Exceptions.throwIfFatal(t);
+            s.onError(t);
+            return;
+        }
+        s.onNext(client);
+        s.onCompleted();
+    }
+
     /**
      * Shut down the load balancer
-     * 
+     *
      * TODO: Re-implement using ConnectableObservable
      */
     public abstract void shutdown();
-    
+
     /**
      * @return  Observable that when subscribed to will emit all currently active
      *          clients in the load balancer
@@ -1,31 +1,232 @@
 package netflix.ocelli;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import netflix.ocelli.loadbalancer.RoundRobinLoadBalancer;
 import rx.Observable;
 import rx.Observer;
-import rx.Subscriber;
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
 import rx.functions.Func1;
 import rx.observables.GroupedObservable;
+import rx.schedulers.Schedulers;
+import rx.subjects.BehaviorSubject;
 
 /**
  * Observer to a partitioned source of Member instances which collects the paritions and creates
  * a matching load balancer for each.
- * 
+ *
+ * Requests are routed by key via {@link #next(Object)} and {@link #acquire(Object)}, such as
+ * from a {@link netflix.ocelli.executor.KeyedExecutor}.  Partitions are looked up in a hash
+ * index and when the partition for a key doesn't exist or has no clients the request falls
+ * back to each of the fallback partitions in order.  Keyless selection via {@link #next()}
+ * only uses the fallback partitions.  Routing to an existing, non-empty partition does not
+ * allocate.
+ *
+ * The load balancer for a partition is only created once a request is routed to it.  When an
+ * eviction timeout is configured the partitions are checked once per timeout and
+ *
+ * 1. A partition that has had no clients for the timeout is shut down and removed.  It is
+ *    created again if clients for the key show up later.
+ * 2. The load balancer of a partition that has not been used for the timeout is shut down
+ *    and created again on the next request.  The partition's clients are still tracked.
+ *
+ * A load balancer that is replaced or deactivated is only shut down once the requests which
+ * are still selecting a client from it are done.
+ *
  * @author elandau
  *
  * @param <K>
  * @param <T>
  */
-public class PartitionedLoadBalancer<K, T> extends LoadBalancer<T> implements Observer<GroupedObservable<K, Instance<T>>> {
-    private ConcurrentMap<K, LoadBalancer<T>> lbs = new ConcurrentHashMap<K, LoadBalancer<T>>();
-    
+public class PartitionedLoadBalancer<K, T> extends KeyedLoadBalancer<K, T> implements Observer<GroupedObservable<K, Instance<T>>> {
+    private static final long NOT_EMPTY = -1;
+
+    /**
+     * Load balancer of a partition along with the number of requests using it
+     */
+    private class ActiveLoadBalancer {
+        private final LoadBalancer<T> lb;
+        // Requests selecting from the load balancer plus one for as long as it is active
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        ActiveLoadBalancer(LoadBalancer<T> lb) {
+            this.lb = lb;
+        }
+
+        /**
+         * @return False if the load balancer has already been shut down
+         */
+        boolean retain() {
+            while (true) {
+                int current = refs.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                lb.shutdown();
+            }
+        }
+    }
+
+    private class Partition {
+        private final K key;
+        private final BehaviorSubject<List<T>> subject = BehaviorSubject.create(Collections.<T>emptyList());
+        private final Subscription s;
+        private volatile List<T> clients = Collections.emptyList();
+        private volatile ActiveLoadBalancer lb;
+        private volatile boolean used;
+        private volatile long emptySince;
+        private long lastUsed;
+        private boolean closed;
+
+        Partition(K key, Observable<Instance<T>> instances) {
+            this.key = key;
+            this.emptySince = scheduler.now();
+            this.lastUsed = emptySince;
+            this.s = instances
+                .compose(new InstanceCollector<T>())
+                .subscribe(new Action1<List<T>>() {
+                    @Override
+                    public void call(List<T> t) {
+                        // Serialized with eviction so that a partition that just gained
+                        // clients is never removed
+                        synchronized (Partition.this) {
+                            if (closed) {
+                                return;
+                            }
+                            if (t.isEmpty()) {
+                                if (emptySince == NOT_EMPTY) {
+                                    emptySince = scheduler.now();
+                                }
+                            }
+                            else {
+                                emptySince = NOT_EMPTY;
+                            }
+                            clients = t;
+                        }
+                        subject.onNext(t);
+                    }
+                });
+        }
+
+        T next() {
+            ActiveLoadBalancer current = retain();
+            try {
+                return current.lb.next();
+            }
+            finally {
+                current.release();
+            }
+        }
+
+        Lease<T> acquire() {
+            ActiveLoadBalancer current = retain();
+            try {
+                return current.lb.acquire();
+            }
+            finally {
+                current.release();
+            }
+        }
+
+        /**
+         * @return Load balancer of the partition, created if needed, which must be released
+         *  once the request is done with it
+         */
+        private ActiveLoadBalancer retain() {
+            if (!used) {
+                used = true;
+            }
+            while (true) {
+                ActiveLoadBalancer current = lb;
+                if (current == null) {
+                    current = activate();
+                }
+                if (current.retain()) {
+                    return current;
+                }
+                // Deactivated and shut down after it was read so use its replacement
+            }
+        }
+
+        private synchronized ActiveLoadBalancer activate() {
+            if (closed) {
+                // Partition was evicted or replaced after the request looked it up
+                throw new NoSuchElementException("No servers available for partition " + key);
+            }
+            if (lb == null) {
+                lb = new ActiveLoadBalancer(loadBalancerFactory.call(subject));
+            }
+            return lb;
+        }
+
+        /**
+         * Detach the load balancer so that the next request creates a new one.  It is shut
+         * down once the requests still using it are done.
+         */
+        void deactivate() {
+            ActiveLoadBalancer current;
+            synchronized (this) {
+                current = lb;
+                lb = null;
+            }
+            if (current != null) {
+                current.release();
+            }
+        }
+
+        /**
+         * Close the partition if it has been empty since the time given
+         *
+         * @return True if the partition was closed
+         */
+        boolean closeIfEmptySince(long before) {
+            synchronized (this) {
+                if (closed || emptySince == NOT_EMPTY || emptySince > before) {
+                    return false;
+                }
+                closed = true;
+            }
+            s.unsubscribe();
+            deactivate();
+            return true;
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            s.unsubscribe();
+            deactivate();
+        }
+    }
+
+    private final ConcurrentMap<K, Partition> partitions = new ConcurrentHashMap<K, Partition>();
+
     private final Func1<Observable<List<T>>, LoadBalancer<T>> loadBalancerFactory;
-    
+    private final List<K> fallbackKeys;
+    private final long evictionTimeout;
+    private final Scheduler scheduler;
+    private final Worker worker;
+
     public PartitionedLoadBalancer() {
         this(new Func1<Observable<List<T>>, LoadBalancer<T>>() {
             @Override
@@ -34,11 +235,86 @@ public class PartitionedLoadBalancer<K, T> extends LoadBalancer<T> implements Ob
             }
         });
     }
-    
+
     public PartitionedLoadBalancer(Func1<Observable<List<T>>, LoadBalancer<T>> loadBalancerFactory) {
+        this(loadBalancerFactory, Collections.<K>emptyList());
+    }
+
+    public PartitionedLoadBalancer(Func1<Observable<List<T>>, LoadBalancer<T>> loadBalancerFactory, List<K> fallbackKeys) {
+        this(loadBalancerFactory, fallbackKeys, 0, TimeUnit.MILLISECONDS, Schedulers.computation());
+    }
+
+    /**
+     * @param loadBalancerFactory   Factory for the load balancer of each partition
+     * @param fallbackKeys          Partitions to try, in order, when the partition for a key
+     *                              doesn't exist or has no clients
+     * @param evictionTimeout       Time after which empty partitions are removed and the load balancers
+     *                              of unused partitions are shut down.  0 to never evict.
+     * @param units
+     * @param scheduler             Scheduler for the periodic eviction check
+     */
+    public PartitionedLoadBalancer(
+            Func1<Observable<List<T>>, LoadBalancer<T>> loadBalancerFactory,
+            List<K> fallbackKeys,
+            long evictionTimeout,
+            TimeUnit units,
+            Scheduler scheduler) {
         this.loadBalancerFactory = loadBalancerFactory;
+        this.fallbackKeys = new ArrayList<K>(fallbackKeys);
+        this.evictionTimeout = units.toMillis(evictionTimeout);
+        this.scheduler = scheduler;
+
+        if (evictionTimeout > 0) {
+            this.worker = scheduler.createWorker();
+            this.worker.schedulePeriodically(new Action0() {
+                @Override
+                public void call() {
+                    evict();
+                }
+            }, evictionTimeout, evictionTimeout, units);
+        }
+        else {
+            this.worker = null;
+        }
+    }
+
+    private void evict() {
+        long now = scheduler.now();
+        for (Partition partition : partitions.values()) {
+            if (partition.used) {
+                partition.used = false;
+                partition.lastUsed = now;
+            }
+
+            if (partition.closeIfEmptySince(now - evictionTimeout)) {
+                partitions.remove(partition.key, partition);
+            }
+            else if (partition.lb != null && now - partition.lastUsed >= evictionTimeout) {
+                partition.deactivate();
+            }
+        }
     }
-    
+
+    /**
+     * @return Number of partitions currently tracked
+     */
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * @return Number of partitions with a running load balancer
+     */
+    public int getActivePartitionCount() {
+        int count = 0;
+        for (Partition partition : partitions.values()) {
+            if (partition.lb != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Override
     public void onCompleted() {
         // OK to ignore
@@ -51,46 +327,104 @@ public class PartitionedLoadBalancer<K, T> extends LoadBalancer<T> implements Ob
 
     @Override
     public void onNext(GroupedObservable<K, Instance<T>> t) {
-        LoadBalancer<T> lb = loadBalancerFactory.call(t.compose(new InstanceCollector<T>()));
-        lbs.putIfAbsent(t.getKey(), lb);
+        // A new group for an existing key means the previous group is no longer active
+        Partition existing = partitions.put(t.getKey(), new Partition(t.getKey(), t));
+        if (existing != null) {
+            existing.close();
+        }
+    }
+
+    @Override
+    public T next() {
+        return next(null);
     }
 
     @Override
-    public void call(Subscriber<? super T> t1) {
-        // TODO: 
+    public T next(K key) {
+        return route(key).next();
+    }
+
+    @Override
+    public Lease<T> acquire() {
+        return acquire(null);
+    }
+
+    @Override
+    public Lease<T> acquire(K key) {
+        return route(key).acquire();
+    }
+
+    /**
+     * @return The partition for the key if it has clients, otherwise the first fallback
+     *  partition that has clients
+     */
+    private Partition route(K key) {
+        if (key != null) {
+            Partition partition = partitions.get(key);
+            if (partition != null && !partition.clients.isEmpty()) {
+                return partition;
+            }
+        }
+
+        for (int i = 0; i < fallbackKeys.size(); i++) {
+            Partition partition = partitions.get(fallbackKeys.get(i));
+            if (partition != null && !partition.clients.isEmpty()) {
+                return partition;
+            }
+        }
+        if (key == null) {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+        throw new NoSuchElementException("No servers available for partition " + key);
     }
 
     @Override
     public void shutdown() {
-        for (LoadBalancer<T> lb : lbs.values()) {
-            lb.shutdown();
+        if (worker != null) {
+            worker.unsubscribe();
+        }
+        for (Partition partition : partitions.values()) {
+            partition.close();
         }
+        partitions.clear();
     }
 
     @Override
     public Observable<T> all() {
-        Observable<T> o = Observable.empty();
-        for (LoadBalancer<T> lb : lbs.values()) {
-            o.concatWith(lb.all());
+        List<T> all = new ArrayList<T>();
+        for (Partition partition : partitions.values()) {
+            all.addAll(partition.clients);
         }
-        return o;
+        // A client may belong to more than one partition
+        return Observable.from(all).distinct();
     }
-    
+
+    /**
+     * @return Load balancer for a single partition, without fallbacks.  The returned load
+     *  balancer remains valid as the partition is created, evicted and created again.  It
+     *  holds no state of its own so callers that need it repeatedly should keep it.
+     */
     public LoadBalancer<T> get(final K key) {
-        LoadBalancer<T> lb = lbs.get(key);
-        if (lb != null) {
-            return lb;
-        }
-        
         return new LoadBalancer<T>() {
             @Override
-            public void call(Subscriber<? super T> t1) {
-                LoadBalancer<T> lb = lbs.get(key);
-                if (lb != null) {
-                    lb.call(t1);
+            public T next() {
+                Partition partition = partitions.get(key);
+                if (partition != null) {
+                    return partition.next();
+                }
+                else {
+                    throw new NoSuchElementException();
+                }
+            }
+
+            @Override
+            public Lease<T> acquire() {
+                Partition partition = partitions.get(key);
+                if (partition != null) {
+                    return partition.acquire();
                 }
                 else {
-                    t1.onError(new NoSuchElementException());
+                    throw new NoSuchElementException();
                 }
             }
 
@@ -100,9 +434,9 @@ public class PartitionedLoadBalancer<K, T> extends LoadBalancer<T> implements Ob
 
             @Override
             public Observable<T> all() {
-                LoadBalancer<T> lb = lbs.get(key);
-                if (lb != null) {
-                    return lb.all();
+                Partition partition = partitions.get(key);
+                if (partition != null) {
+                    return Observable.from(partition.clients);
                 }
                 else {
                     return Observable.empty();
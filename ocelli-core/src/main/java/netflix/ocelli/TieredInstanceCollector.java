@@ -0,0 +1,74 @@
+package netflix.ocelli;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * Variant of {@link InstanceCollector} that keeps instances which are down in a separate
+ * unhealthy tier instead of dropping them.  Instances move between the tiers as they go up
+ * and down and are only removed once the Instance fails or completes.  This makes it possible
+ * to fall back to the unhealthy instances when too few are healthy, see 
+ * {@link netflix.ocelli.loadbalancer.PanicThreshold}.
+ * 
+ * @author elandau
+ *
+ * @param <T>
+ */
+public class TieredInstanceCollector<T> implements Transformer<Instance<T>, InstanceTiers<T>> {
+    @Override
+    public Observable<InstanceTiers<T>> call(Observable<Instance<T>> o) {
+        final Set<T> healthy   = new HashSet<T>();
+        final Set<T> unhealthy = new HashSet<T>();
+        
+        return o.flatMap(new Func1<Instance<T>, Observable<InstanceTiers<T>>>() {
+            @Override
+            public Observable<InstanceTiers<T>> call(final Instance<T> instance) {
+                return instance.flatMap(
+                    new Func1<Boolean, Observable<InstanceTiers<T>>>() {
+                        @Override
+                        public Observable<InstanceTiers<T>> call(Boolean isUp) {
+                            boolean changed;
+                            if (isUp) {
+                                unhealthy.remove(instance.getValue());
+                                changed = healthy.add(instance.getValue());
+                            }
+                            else {
+                                healthy.remove(instance.getValue());
+                                changed = unhealthy.add(instance.getValue());
+                            }
+                            return changed ? snapshot() : Observable.<InstanceTiers<T>>empty();
+                        }
+                    },
+                    new Func1<Throwable, Observable<InstanceTiers<T>>>() {
+                        @Override
+                        public Observable<InstanceTiers<T>> call(Throwable t1) {
+                            return remove(instance.getValue());
+                        }
+                    },
+                    new Func0<Observable<InstanceTiers<T>>>() {
+                        @Override
+                        public Observable<InstanceTiers<T>> call() {
+                            return remove(instance.getValue());
+                        }
+                    });
+            }
+            
+            private Observable<InstanceTiers<T>> remove(T value) {
+                if (healthy.remove(value) | unhealthy.remove(value)) {
+                    return snapshot();
+                }
+                return Observable.empty();
+            }
+            
+            private Observable<InstanceTiers<T>> snapshot() {
+                return Observable.just(new InstanceTiers<T>(new ArrayList<T>(healthy), new ArrayList<T>(unhealthy)));
+            }
+        });
+    }
+}
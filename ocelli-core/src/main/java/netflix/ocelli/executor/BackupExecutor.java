@@ -40,7 +40,7 @@ public class BackupExecutor<C, I, O> implements Executor<I, O> {
     };
     
     private final Func0<Stopwatch>          sw;
-    private final Observable<C>             lb;
+    private final LoadBalancer<C>           lb;
     private final SingleMetric<Long>        metric;
     private final Func1<Throwable, Boolean> retriableError;
     private final Scheduler                 scheduler;
@@ -134,7 +134,7 @@ public class BackupExecutor<C, I, O> implements Executor<I, O> {
     }
     
     private BackupExecutor(Builder<C, I, O> builder) {
-        this.lb             = Observable.create(builder.lb);
+        this.lb             = builder.lb;
         this.metric         = builder.metric;
         this.retriableError = builder.retriableError;
         this.scheduler      = builder.scheduler;
@@ -145,13 +145,8 @@ public class BackupExecutor<C, I, O> implements Executor<I, O> {
     
     @Override
     public Observable<O> call(final I request) {
-        final Observable<O> o = lb
-                .concatMap(new Func1<C, Observable<O>>() {
-                    @Override
-                    public Observable<O> call(C t1) {
-                        return operation.call(t1, request);
-                    }
-                })
+        final Observable<O> o = Observable
+                .create(new LeaseOnSubscribe<C, I, O>(lb, operation, request))
                 .lift(new Operator<O, O>() {
                     private AtomicBoolean first = new AtomicBoolean(true);
                     private AtomicBoolean isPrimaryCondition = new AtomicBoolean(true);
@@ -1,22 +1,37 @@
 package netflix.ocelli.executor;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import netflix.ocelli.FailureDetectingInstanceFactory;
 import netflix.ocelli.HostToClientMapper;
+import netflix.ocelli.Instance;
 import netflix.ocelli.InstanceCollector;
 import netflix.ocelli.LoadBalancer;
 import netflix.ocelli.Member;
 import netflix.ocelli.MemberToInstance;
 import netflix.ocelli.MembershipEvent;
 import netflix.ocelli.MembershipEventToMember;
+import netflix.ocelli.PartitionedLoadBalancer;
+import netflix.ocelli.TieredInstanceCollector;
+import netflix.ocelli.failures.FailureCriteria;
+import netflix.ocelli.failures.OutcomeListener;
+import netflix.ocelli.failures.PassiveFailureDetector;
+import netflix.ocelli.functions.Failures;
+import netflix.ocelli.loadbalancer.PanicThreshold;
 import netflix.ocelli.loadbalancer.RoundRobinLoadBalancer;
 import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Subscriber;
 import rx.functions.Action1;
 import rx.functions.Actions;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.functions.Func2;
+import rx.observables.GroupedObservable;
+import rx.schedulers.Schedulers;
 
 public class ExecutorBuilder<H, C, I, O> {
     public static interface Configurator<H, C, I, O> {
@@ -31,6 +46,11 @@ public class ExecutorBuilder<H, C, I, O> {
     private Action1<C>                      clientShutdown = Actions.empty();
     private Func1<Observable<List<C>>, LoadBalancer<C>> lbFactory = RoundRobinLoadBalancer.factory();
     private Func2<LoadBalancer<C>, Func2<C, I, Observable<O>>, Executor<I, O>> strategy = SimpleExecutor.factory();
+    private long                            partitionEvictionTimeout = 0;
+    private TimeUnit                        partitionEvictionUnits = TimeUnit.MILLISECONDS;
+    private PanicThreshold<C>               panicThreshold;
+    private List<OutcomeListener<C>>        outcomeListeners = new ArrayList<OutcomeListener<C>>();
+    private List<Func1<C, Observable<Throwable>>> failureDetectors = new ArrayList<Func1<C, Observable<Throwable>>>();
 
     public ExecutorBuilder<H, C, I, O> withSourceEvent(Observable<MembershipEvent<H>> hosts) {
         this.hosts = hosts.compose(new MembershipEventToMember<H>());
@@ -57,8 +77,12 @@ public class ExecutorBuilder<H, C, I, O> {
         return this;
     }
     
+    /**
+     * Add a failure detector.  The failures of all detectors, including passive failure 
+     * detection, are merged.
+     */
     public ExecutorBuilder<H, C, I, O> withFailureDetector(Func1<C, Observable<Throwable>> failureDetector) {
-        fdBuilder.withFailureDetector(failureDetector);
+        failureDetectors.add(failureDetector);
         return this;
     }
     
@@ -82,21 +106,118 @@ public class ExecutorBuilder<H, C, I, O> {
         return this;
     }
     
-    public Executor<I, O> build() {
-        MemberToInstance<H, C> memberToInstance = MemberToInstance.from(new HostToClientMapper<H, C>(
+    /**
+     * Report the outcome and latency of every request to the listener, such as an
+     * {@link netflix.ocelli.failures.OutlierDetector}
+     */
+    public ExecutorBuilder<H, C, I, O> withOutcomeListener(OutcomeListener<C> listener) {
+        this.outcomeListeners.add(listener);
+        return this;
+    }
+    
+    /**
+     * Take clients out of rotation based on the outcomes of requests, in addition to any 
+     * other failure detector.
+     * 
+     * @param criteria  Factory for the criteria deciding when a client has failed, such as
+     *                  {@link PassiveFailureDetector#consecutiveFailures(int)}
+     */
+    public ExecutorBuilder<H, C, I, O> withPassiveFailureDetection(Func0<FailureCriteria> criteria) {
+        PassiveFailureDetector<C> detector = PassiveFailureDetector.create(criteria);
+        withFailureDetector(detector);
+        return withOutcomeListener(detector);
+    }
+    
+    private MemberToInstance<H, C> memberToInstance() {
+        if (!failureDetectors.isEmpty()) {
+            fdBuilder.withFailureDetector(Failures.merge(new ArrayList<Func1<C, Observable<Throwable>>>(failureDetectors)));
+        }
+        return MemberToInstance.from(new HostToClientMapper<H, C>(
                 hostToClient, 
                 clientShutdown, 
                 fdBuilder.build()));
+    }
+    
+    private Func2<C, I, Observable<O>> reportingOperation() {
+        Func2<C, I, Observable<O>> result = operation;
+        for (OutcomeListener<C> listener : outcomeListeners) {
+            result = ReportingOperation.create(result, listener);
+        }
+        return result;
+    }
+    
+    /**
+     * Keep hosts that are down and route to them when the fraction of healthy hosts drops 
+     * below the panic threshold.  Use {@link PanicThreshold#getWeight()} with a weighted 
+     * load balancer to send less traffic to the unhealthy hosts.  Not supported by 
+     * {@link #buildPartitioned(Func1, Func1, List)} since the threshold applies to a single 
+     * list of hosts.
+     */
+    public ExecutorBuilder<H, C, I, O> withPanicThreshold(PanicThreshold<C> panicThreshold) {
+        this.panicThreshold = panicThreshold;
+        return this;
+    }
+    
+    /**
+     * Evict partitions that are empty or unused for the timeout when building a partitioned
+     * executor
+     */
+    public ExecutorBuilder<H, C, I, O> withPartitionEviction(long timeout, TimeUnit units) {
+        this.partitionEvictionTimeout = timeout;
+        this.partitionEvictionUnits = units;
+        return this;
+    }
+    
+    public Executor<I, O> build() {
+        MemberToInstance<H, C> memberToInstance = memberToInstance();
            
-        return strategy.call(
-                lbFactory.call(
-                        hosts
-                           .map(memberToInstance)
-                           .compose(new InstanceCollector<C>())), 
-                operation);
+        Observable<Instance<C>> instances = hosts.map(memberToInstance);
+        Observable<List<C>> clients = panicThreshold == null
+                ? instances.compose(new InstanceCollector<C>())
+                : instances.compose(new TieredInstanceCollector<C>()).compose(panicThreshold);
+        
+        return strategy.call(lbFactory.call(clients), reportingOperation());
 
     }
     
+    /**
+     * Build an executor that routes each request to a partition of the hosts.  Each host is 
+     * placed in the partitions returned by the partitioner and every partition gets its own 
+     * load balancer from the configured load balancer factory.  The execution strategy is not 
+     * used since requests are routed by key via a {@link KeyedExecutor}.
+     * 
+     * @param partitioner   Function returning the partition keys of a host
+     * @param keyFunc       Function returning the partition key of a request
+     * @param fallbackKeys  Partitions to try, in order, when the partition for a request 
+     *                      doesn't exist or has no clients
+     */
+    public <K> Executor<I, O> buildPartitioned(Func1<H, Observable<K>> partitioner, Func1<I, K> keyFunc, List<K> fallbackKeys) {
+        if (panicThreshold != null) {
+            throw new IllegalStateException("Panic threshold is not supported for partitioned executors");
+        }
+        
+        final MemberToInstance<H, C> memberToInstance = memberToInstance();
+        
+        PartitionedLoadBalancer<K, C> plb = new PartitionedLoadBalancer<K, C>(
+                lbFactory, fallbackKeys, partitionEvictionTimeout, partitionEvictionUnits, Schedulers.computation());
+        hosts
+            .compose(Member.partitionBy(partitioner))
+            .map(new Func1<GroupedObservable<K, Member<H>>, GroupedObservable<K, Instance<C>>>() {
+                @Override
+                public GroupedObservable<K, Instance<C>> call(final GroupedObservable<K, Member<H>> group) {
+                    return GroupedObservable.create(group.getKey(), new OnSubscribe<Instance<C>>() {
+                        @Override
+                        public void call(Subscriber<? super Instance<C>> s) {
+                            group.map(memberToInstance).subscribe(s);
+                        }
+                    });
+                }
+            })
+            .subscribe(plb);
+        
+        return KeyedExecutor.create(plb, keyFunc, reportingOperation());
+    }
+    
     public static <H, C, I, O> ExecutorBuilder<H, C, I, O> builder() {
         return new ExecutorBuilder<H, C, I, O>();
     }
@@ -0,0 +1,48 @@
+package netflix.ocelli.executor;
+
+import netflix.ocelli.KeyedLoadBalancer;
+import netflix.ocelli.Lease;
+import rx.Observable;
+import rx.functions.Func1;
+import rx.functions.Func2;
+
+/**
+ * Executor that extracts a key from each request and routes the request to the
+ * client chosen for that key by a {@link KeyedLoadBalancer}, such as for request
+ * affinity via consistent hashing.  Like {@link SimpleExecutor} there is no
+ * additional retry or failover logic.
+ *
+ * @author elandau
+ *
+ * @param <K>
+ * @param <C>
+ * @param <I>
+ * @param <O>
+ */
+public class KeyedExecutor<K, C, I, O> implements Executor<I, O> {
+
+    private final KeyedLoadBalancer<K, C> lb;
+    private final Func1<I, K> keyFunc;
+    private final Func2<C, I, Observable<O>> operation;
+
+    public static <K, C, I, O> KeyedExecutor<K, C, I, O> create(KeyedLoadBalancer<K, C> lb, Func1<I, K> keyFunc, Func2<C, I, Observable<O>> operation) {
+        return new KeyedExecutor<K, C, I, O>(lb, keyFunc, operation);
+    }
+
+    public KeyedExecutor(KeyedLoadBalancer<K, C> lb, Func1<I, K> keyFunc, Func2<C, I, Observable<O>> operation) {
+        this.lb = lb;
+        this.keyFunc = keyFunc;
+        this.operation = operation;
+    }
+
+    @Override
+    public Observable<O> call(final I request) {
+        final K key = keyFunc.call(request);
+        return Observable.create(new LeaseOnSubscribe<C, I, O>(lb, operation, request) {
+            @Override
+            protected Lease<C> acquire() {
+                return lb.acquire(key);
+            }
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package netflix.ocelli.executor;
+
+import netflix.ocelli.Lease;
+import netflix.ocelli.LoadBalancer;
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Func2;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Acquire a {@link Lease} from the load balancer on each subscription and execute the
+ * operation on its client.  The lease is completed when the operation terminates or
+ * is unsubscribed, such as when a backup request wins.  A new client is chosen on each
+ * subscription so that a retry will go to the next client.
+ *
+ * @author elandau
+ */
+class LeaseOnSubscribe<C, I, O> implements OnSubscribe<O> {
+    private final LoadBalancer<C> lb;
+    private final Func2<C, I, Observable<O>> operation;
+    private final I request;
+
+    LeaseOnSubscribe(LoadBalancer<C> lb, Func2<C, I, Observable<O>> operation, I request) {
+        this.lb = lb;
+        this.operation = operation;
+        this.request = request;
+    }
+
+    /**
+     * @return Lease on the client to execute the request on
+     */
+    protected Lease<C> acquire() {
+        return lb.acquire();
+    }
+
+    @Override
+    public void call(final Subscriber<? super O> s) {
+        final Lease<C> lease;
+        try {
+            lease = acquire();
+        }
+        catch (Throwable t) {
+            s.onError(t);
+            return;
+        }
+
+        s.add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                lease.complete();
+            }
+        }));
+
+        Observable<O> o;
+        try {
+            o = operation.call(lease.getClient(), request);
+        }
+        catch (Throwable t) {
+            lease.fail(t);
+            s.onError(t);
+            return;
+        }
+
+        o.unsafeSubscribe(new Subscriber<O>(s) {
+            @Override
+            public void onCompleted() {
+                lease.complete();
+                s.onCompleted();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                lease.fail(e);
+                s.onError(e);
+            }
+
+            @Override
+            public void onNext(O t) {
+                s.onNext(t);
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package netflix.ocelli.executor;
+
+import java.util.concurrent.TimeUnit;
+
+import netflix.ocelli.failures.OutcomeListener;
+import netflix.ocelli.functions.Stopwatches;
+import netflix.ocelli.util.Stopwatch;
+import rx.Observable;
+import rx.Observable.Operator;
+import rx.Subscriber;
+import rx.functions.Func0;
+import rx.functions.Func2;
+
+/**
+ * Decorator for a request operation that reports the outcome and latency of each request
+ * to an {@link OutcomeListener}, such as a passive failure detector.  Since executors invoke
+ * the operation for every attempt, wrapping the operation given to a {@link SimpleExecutor},
+ * {@link BackupExecutor}, or each executor of a {@link FallbackExecutor} reports the outcome
+ * of every attempt on every client.  Requests that are unsubscribed before terminating, such
+ * as the loser of a backup request, are not reported.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ * @param <I>
+ * @param <O>
+ */
+public class ReportingOperation<C, I, O> implements Func2<C, I, Observable<O>> {
+
+    public static <C, I, O> ReportingOperation<C, I, O> create(Func2<C, I, Observable<O>> operation, OutcomeListener<C> listener) {
+        return new ReportingOperation<C, I, O>(operation, listener, Stopwatches.systemNano());
+    }
+
+    private final Func2<C, I, Observable<O>> operation;
+    private final OutcomeListener<C> listener;
+    private final Func0<Stopwatch> sw;
+
+    public ReportingOperation(Func2<C, I, Observable<O>> operation, OutcomeListener<C> listener, Func0<Stopwatch> sw) {
+        this.operation = operation;
+        this.listener = listener;
+        this.sw = sw;
+    }
+
+    @Override
+    public Observable<O> call(final C client, I request) {
+        final Stopwatch stopwatch = sw.call();
+        Observable<O> o;
+        try {
+            o = operation.call(client, request);
+        }
+        catch (Throwable t) {
+            listener.onFailure(client, t, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            return Observable.error(t);
+        }
+
+        return o.lift(new Operator<O, O>() {
+            @Override
+            public Subscriber<? super O> call(final Subscriber<? super O> s) {
+                return new Subscriber<O>(s) {
+                    @Override
+                    public void onCompleted() {
+                        listener.onSuccess(client, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+                        s.onCompleted();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        listener.onFailure(client, e, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+                        s.onError(e);
+                    }
+
+                    @Override
+                    public void onNext(O t) {
+                        s.onNext(t);
+                    }
+                };
+            }
+        });
+    }
+}
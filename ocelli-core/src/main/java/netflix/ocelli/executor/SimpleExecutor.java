@@ -2,7 +2,6 @@ package netflix.ocelli.executor;
 
 import netflix.ocelli.LoadBalancer;
 import rx.Observable;
-import rx.functions.Func1;
 import rx.functions.Func2;
 
 /**
@@ -15,7 +14,7 @@ import rx.functions.Func2;
  */
 public class SimpleExecutor<C, I, O> implements Executor<I, O> {
 
-    private Observable<C> lb;
+    private final LoadBalancer<C> lb;
     private final Func2<C, I, Observable<O>> operation;
     
     public static <C, I, O> Func2<LoadBalancer<C>, Func2<C, I, Observable<O>>, Executor<I, O>> factory() {
@@ -27,18 +26,13 @@ public class SimpleExecutor<C, I, O> implements Executor<I, O> {
         };
     }
     public SimpleExecutor(final LoadBalancer<C> lb, final Func2<C, I, Observable<O>> operation) {
-        this.lb = Observable.create(lb);
+        this.lb = lb;
         this.operation = operation;
     }
 
     @Override
     public Observable<O> call(final I request) {
-        return lb.concatMap(new Func1<C, Observable<O>>() {
-            @Override
-            public Observable<O> call(C client) {
-                return operation.call(client, request);
-            }
-        });
+        return Observable.create(new LeaseOnSubscribe<C, I, O>(lb, operation, request));
     }
     
     public static <C, I, O> SimpleExecutor<C, I, O> create(LoadBalancer<C> lb, final Func2<C, I, Observable<O>> operation) {
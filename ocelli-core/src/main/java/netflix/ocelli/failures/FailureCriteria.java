@@ -0,0 +1,23 @@
+package netflix.ocelli.failures;
+
+/**
+ * Decides from the outcomes of requests to a single client whether the client has failed.
+ * An instance is created for each client and again once the client has failed, so that
+ * implementations only need to track state since the last failure.  Calls are serialized
+ * by the caller.
+ * 
+ * @see PassiveFailureDetector
+ * 
+ * @author elandau
+ */
+public interface FailureCriteria {
+    /**
+     * @return True if the client should be considered failed
+     */
+    boolean onSuccess(long latency);
+    
+    /**
+     * @return True if the client should be considered failed
+     */
+    boolean onFailure(Throwable error, long latency);
+}
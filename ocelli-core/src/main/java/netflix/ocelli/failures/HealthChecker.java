@@ -0,0 +1,494 @@
+package netflix.ocelli.failures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Failure detector that actively probes each client with a pluggable probe function.  All
+ * clients share a single timer that ticks at the tick interval and starts the probes that are
+ * due, so that checking thousands of clients doesn't need a timer per client.  Clients wait
+ * for their next probe in a queue ordered by due time so that a tick only looks at the clients
+ * that are due.  To avoid bursts of probes the first probe of each client is spread randomly
+ * over the min interval, every subsequent interval is jittered, and at most
+ * maxConcurrentProbes probes are in flight at once.  Probes that are due while at the limit
+ * are deferred to the next tick, where the clients that have been due the longest go first.
+ *
+ * The probe interval adapts to the client's health.  A new or failing client is probed at the
+ * min interval and each successful probe grows the interval by the backoff factor up to the
+ * max interval.  A probe succeeds when its Observable emits or completes before the probe
+ * timeout.  A failure is emitted when a probe fails for a client that was healthy, so that
+ * {@link netflix.ocelli.FailureDetectingInstanceFactory} quarantines it once rather than
+ * extending the quarantine on every failed probe.  Use {@link #connector()} as the factory's
+ * client connector as well so that a client only returns to rotation once a probe succeeds
+ * after the quarantine, rather than as soon as the quarantine ends,
+ *
+ *  FailureDetectingInstanceFactory.builder()
+ *      .withFailureDetector(checker)
+ *      .withClientConnector(checker.connector())
+ *
+ * A client may be subscribed to more than once, such as when it belongs to several
+ * partitions, in which case it is still probed once and a failure is emitted to every
+ * subscriber.  Probing stops once the last subscriber leaves, at which point connects still
+ * waiting for a successful probe are connected just like those of clients that aren't probed.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class HealthChecker<C> implements Func1<C, Observable<Throwable>> {
+
+    public static class Builder<C> {
+        private Func1<C, ? extends Observable<?>> probe;
+        private long      tickInterval        = 100;
+        private long      minInterval         = 1000;
+        private long      maxInterval         = 30000;
+        private double    backoffFactor       = 2.0;
+        private double    jitter              = 0.2;
+        private long      probeTimeout        = 2000;
+        private int       maxConcurrentProbes = 50;
+        private Scheduler scheduler           = Schedulers.computation();
+
+        /**
+         * Function returning an Observable that probes a client and emits or completes if the
+         * client is healthy
+         */
+        public Builder<C> withProbe(Func1<C, ? extends Observable<?>> probe) {
+            this.probe = probe;
+            return this;
+        }
+
+        /**
+         * Interval at which the shared timer checks for probes that are due
+         */
+        public Builder<C> withTickInterval(long tickInterval, TimeUnit units) {
+            this.tickInterval = units.toMillis(tickInterval);
+            return this;
+        }
+
+        /**
+         * Probe interval for new and failing clients
+         */
+        public Builder<C> withMinInterval(long minInterval, TimeUnit units) {
+            this.minInterval = units.toMillis(minInterval);
+            return this;
+        }
+
+        /**
+         * Probe interval for clients that have been healthy for a while
+         */
+        public Builder<C> withMaxInterval(long maxInterval, TimeUnit units) {
+            this.maxInterval = units.toMillis(maxInterval);
+            return this;
+        }
+
+        /**
+         * Factor by which the probe interval grows after each successful probe
+         */
+        public Builder<C> withBackoffFactor(double backoffFactor) {
+            this.backoffFactor = backoffFactor;
+            return this;
+        }
+
+        /**
+         * Fraction by which each probe interval is randomly shortened or lengthened
+         */
+        public Builder<C> withJitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Time after which a probe that hasn't emitted or completed is considered failed
+         */
+        public Builder<C> withProbeTimeout(long probeTimeout, TimeUnit units) {
+            this.probeTimeout = units.toMillis(probeTimeout);
+            return this;
+        }
+
+        /**
+         * Maximum number of probes in flight across all clients
+         */
+        public Builder<C> withMaxConcurrentProbes(int maxConcurrentProbes) {
+            this.maxConcurrentProbes = maxConcurrentProbes;
+            return this;
+        }
+
+        public Builder<C> withScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public HealthChecker<C> build() {
+            return new HealthChecker<C>(this);
+        }
+    }
+
+    public static <C> Builder<C> builder() {
+        return new Builder<C>();
+    }
+
+    /**
+     * Probe state of a single client, along with everyone subscribed to its failures
+     */
+    private class ClientState {
+        private final C client;
+        private final List<Subscriber<? super Throwable>> subscribers = new CopyOnWriteArrayList<Subscriber<? super Throwable>>();
+        private long interval = minInterval;
+        private long nextProbe;
+        private boolean healthy = true;
+        private Subscription probeSubscription;
+        private List<Subscriber<? super C>> connects = Collections.emptyList();
+        private boolean removed;
+        private boolean cancelled;
+
+        ClientState(C client, long now) {
+            this.client = client;
+            this.nextProbe = now + ThreadLocalRandom.current().nextLong(minInterval + 1);
+        }
+
+        /**
+         * @return False if the state was already removed after its last subscriber left
+         *  or probing was cancelled
+         */
+        synchronized boolean addSubscriber(Subscriber<? super Throwable> subscriber) {
+            if (removed || cancelled) {
+                return false;
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+
+        /**
+         * @return True if this was the last subscriber and probing should be cancelled
+         */
+        synchronized boolean removeSubscriber(Subscriber<? super Throwable> subscriber) {
+            subscribers.remove(subscriber);
+            if (subscribers.isEmpty()) {
+                removed = true;
+            }
+            return removed;
+        }
+
+        void probe() {
+            final ProbeSubscriber s = new ProbeSubscriber(this);
+            synchronized (this) {
+                if (probeSubscription != null || cancelled) {
+                    return;
+                }
+                probeSubscription = s;
+                inFlight.incrementAndGet();
+            }
+
+            Observable<?> o;
+            try {
+                o = probe.call(client);
+            }
+            catch (Throwable t) {
+                o = Observable.error(t);
+            }
+            o.timeout(probeTimeout, TimeUnit.MILLISECONDS, scheduler).subscribe(s);
+        }
+
+        /**
+         * Connect the subscriber now if the client is healthy or no longer probed, otherwise
+         * on the next successful probe
+         */
+        void connect(final Subscriber<? super C> s) {
+            synchronized (this) {
+                if (!healthy && !cancelled) {
+                    if (connects.isEmpty()) {
+                        connects = new ArrayList<Subscriber<? super C>>();
+                    }
+                    connects.add(s);
+                    s.add(Subscriptions.create(new Action0() {
+                        @Override
+                        public void call() {
+                            synchronized (ClientState.this) {
+                                connects.remove(s);
+                            }
+                        }
+                    }));
+                    return;
+                }
+            }
+            s.onNext(client);
+            s.onCompleted();
+        }
+
+        void onProbeComplete(Subscription s, boolean success, Throwable error) {
+            boolean failed;
+            List<Subscriber<? super C>> connected = Collections.emptyList();
+            synchronized (this) {
+                if (probeSubscription != s) {
+                    return;
+                }
+                probeSubscription = null;
+                failed = healthy && !success;
+                if (success && !connects.isEmpty()) {
+                    connected = connects;
+                    connects = Collections.emptyList();
+                }
+                healthy = success;
+                interval = success ? Math.min(maxInterval, (long)(interval * backoffFactor)) : minInterval;
+                nextProbe = scheduler.now() + jittered(interval);
+            }
+            inFlight.decrementAndGet();
+            s.unsubscribe();
+            schedule(this);
+
+            if (failed) {
+                Exception reason = new Exception("Client " + client + " failed health check"
+                        + (error != null ? ": " + error.getMessage() : ""), error);
+                for (Subscriber<? super Throwable> subscriber : subscribers) {
+                    subscriber.onNext(reason);
+                }
+            }
+            for (Subscriber<? super C> connect : connected) {
+                connect.onNext(client);
+                connect.onCompleted();
+            }
+        }
+
+        /**
+         * Stop probing and connect everyone still waiting for a successful probe
+         */
+        void cancel() {
+            Subscription s;
+            List<Subscriber<? super C>> connected;
+            synchronized (this) {
+                s = probeSubscription;
+                probeSubscription = null;
+                cancelled = true;
+                connected = connects;
+                connects = Collections.emptyList();
+            }
+            unschedule(this);
+            if (s != null) {
+                inFlight.decrementAndGet();
+                s.unsubscribe();
+            }
+            for (Subscriber<? super C> connect : connected) {
+                connect.onNext(client);
+                connect.onCompleted();
+            }
+        }
+    }
+
+    private class ProbeSubscriber extends Subscriber<Object> {
+        private final ClientState state;
+
+        ProbeSubscriber(ClientState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void onCompleted() {
+            state.onProbeComplete(this, true, null);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            state.onProbeComplete(this, false, e);
+        }
+
+        @Override
+        public void onNext(Object t) {
+            state.onProbeComplete(this, true, null);
+        }
+    }
+
+    private final ConcurrentMap<C, ClientState> clients = new ConcurrentHashMap<C, ClientState>();
+
+    /**
+     * Clients waiting for their next probe ordered by due time.  A client's nextProbe only
+     * changes while its probe is in flight, when it isn't in the queue.
+     */
+    private final PriorityQueue<ClientState> queue = new PriorityQueue<ClientState>(11, new Comparator<ClientState>() {
+        @Override
+        public int compare(ClientState o1, ClientState o2) {
+            return o1.nextProbe < o2.nextProbe ? -1 : (o1.nextProbe == o2.nextProbe ? 0 : 1);
+        }
+    });
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Func1<C, ? extends Observable<?>> probe;
+    private final long minInterval;
+    private final long maxInterval;
+    private final double backoffFactor;
+    private final double jitter;
+    private final long probeTimeout;
+    private final int maxConcurrentProbes;
+    private final Scheduler scheduler;
+    private final Worker worker;
+
+    private HealthChecker(Builder<C> builder) {
+        if (builder.probe == null) {
+            throw new IllegalArgumentException("Probe function must be provided");
+        }
+        if (builder.minInterval <= 0 || builder.maxInterval < builder.minInterval) {
+            throw new IllegalArgumentException("minInterval must be positive and no greater than maxInterval");
+        }
+        this.probe               = builder.probe;
+        this.minInterval         = builder.minInterval;
+        this.maxInterval         = builder.maxInterval;
+        this.backoffFactor       = builder.backoffFactor;
+        this.jitter              = builder.jitter;
+        this.probeTimeout        = builder.probeTimeout;
+        this.maxConcurrentProbes = builder.maxConcurrentProbes;
+        this.scheduler           = builder.scheduler;
+        this.worker              = scheduler.createWorker();
+        this.worker.schedulePeriodically(new Action0() {
+            @Override
+            public void call() {
+                tick();
+            }
+        }, builder.tickInterval, builder.tickInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Observable<Throwable> call(final C client) {
+        return Observable.create(new OnSubscribe<Throwable>() {
+            @Override
+            public void call(final Subscriber<? super Throwable> s) {
+                final ClientState state = subscribe(client, s);
+                s.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        if (state.removeSubscriber(s)) {
+                            clients.remove(client, state);
+                            state.cancel();
+                        }
+                    }
+                }));
+            }
+        });
+    }
+
+    private ClientState subscribe(C client, Subscriber<? super Throwable> s) {
+        while (true) {
+            boolean created = false;
+            ClientState state = clients.get(client);
+            if (state == null) {
+                state = new ClientState(client, scheduler.now());
+                ClientState existing = clients.putIfAbsent(client, state);
+                if (existing != null) {
+                    state = existing;
+                }
+                else {
+                    created = true;
+                }
+            }
+            if (state.addSubscriber(s)) {
+                // Only the first subscriber starts probing
+                if (created) {
+                    schedule(state);
+                }
+                return state;
+            }
+            // Last subscriber left concurrently so help remove the stale state and retry
+            clients.remove(client, state);
+        }
+    }
+
+    /**
+     * @return Client connector that connects a healthy client immediately and an unhealthy
+     *  client on its next successful probe.  Clients that aren't being probed are connected
+     *  immediately.
+     */
+    public Func1<C, Observable<C>> connector() {
+        return new Func1<C, Observable<C>>() {
+            @Override
+            public Observable<C> call(final C client) {
+                return Observable.create(new OnSubscribe<C>() {
+                    @Override
+                    public void call(Subscriber<? super C> s) {
+                        ClientState state = clients.get(client);
+                        if (state == null) {
+                            s.onNext(client);
+                            s.onCompleted();
+                        }
+                        else {
+                            state.connect(s);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * @return Number of probes currently in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Stop probing
+     */
+    public void shutdown() {
+        worker.unsubscribe();
+        for (ClientState state : clients.values()) {
+            state.cancel();
+        }
+    }
+
+    private void tick() {
+        long now = scheduler.now();
+        while (inFlight.get() < maxConcurrentProbes) {
+            ClientState state;
+            synchronized (queue) {
+                state = queue.peek();
+                if (state == null || state.nextProbe > now) {
+                    return;
+                }
+                queue.poll();
+            }
+            state.probe();
+        }
+    }
+
+    private void schedule(ClientState state) {
+        synchronized (state) {
+            if (state.cancelled) {
+                return;
+            }
+        }
+        synchronized (queue) {
+            queue.offer(state);
+        }
+    }
+
+    private void unschedule(ClientState state) {
+        synchronized (queue) {
+            queue.remove(state);
+        }
+    }
+
+    private long jittered(long interval) {
+        if (jitter <= 0) {
+            return interval;
+        }
+        return (long)(interval * (1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+    }
+}
@@ -0,0 +1,22 @@
+package netflix.ocelli.failures;
+
+/**
+ * Listener for the outcome of each request made to a client, such as for passive failure
+ * detection.  See {@link netflix.ocelli.executor.ReportingOperation} for reporting the
+ * outcomes of the requests made by an executor.
+ * 
+ * @author elandau
+ *
+ * @param <C>
+ */
+public interface OutcomeListener<C> {
+    /**
+     * @param latency   Latency of the request in milliseconds
+     */
+    void onSuccess(C client, long latency);
+    
+    /**
+     * @param latency   Latency of the request in milliseconds
+     */
+    void onFailure(C client, Throwable error, long latency);
+}
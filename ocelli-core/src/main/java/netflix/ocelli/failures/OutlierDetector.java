@@ -0,0 +1,523 @@
+package netflix.ocelli.failures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Failure detector that ejects clients whose success rate or p99 latency is an outlier
+ * relative to the rest of the cluster.  Request outcomes are reported through the
+ * {@link OutcomeListener} interface into a rolling window of the interval's length which is
+ * divided into buckets.  Each time a bucket completes, each client's stats over the window
+ * are compared to the mean of all clients with at least minRequests requests in the window.
+ * A client is ejected when its success rate is more than N standard deviations below the
+ * mean or its p99 latency is more than N standard deviations above the mean.  The stats of
+ * an ejected client are cleared so that it is judged afresh once it is back in rotation.
+ *
+ * Ejection is done by emitting a failure for the client so that the detector can be used as
+ * the failureDetector of {@link netflix.ocelli.FailureDetectingInstanceFactory}, which
+ * quarantines the client with its backoff strategy.  At most maxEjectedFraction of the
+ * clients (but always at least one) are ejected at once, the worst first, where a client
+ * counts as ejected for the ejection time.
+ *
+ * Note that with the population standard deviation a single outlier among N clients can
+ * deviate by at most sqrt(N-1) standard deviations.  The default of 1.9 is chosen to be just
+ * below the 2.0 possible with the default minimum of 5 clients so that a lone outlier can be
+ * detected as soon as there are enough clients.  Lowering the minimum number of clients
+ * requires lowering the number of standard deviations to match.
+ *
+ * A client may be subscribed to more than once, such as when it belongs to several
+ * partitions, in which case an ejection is emitted to every subscriber.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class OutlierDetector<C> implements Func1<C, Observable<Throwable>>, OutcomeListener<C> {
+
+    public static class Builder<C> {
+        private long      interval           = 10000;
+        private int       buckets            = 5;
+        private long      ejectionTime       = 30000;
+        private double    stdevs             = 1.9;
+        private int       minRequests        = 10;
+        private int       minClients         = 5;
+        private double    maxEjectedFraction = 0.1;
+        private Scheduler scheduler          = Schedulers.computation();
+
+        /**
+         * Length of the rolling window over which stats are collected and evaluated
+         */
+        public Builder<C> withInterval(long interval, TimeUnit units) {
+            this.interval = units.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Number of buckets the window is divided into.  Outliers are evaluated each time a
+         * bucket completes.
+         */
+        public Builder<C> withBuckets(int buckets) {
+            this.buckets = buckets;
+            return this;
+        }
+
+        /**
+         * Time for which an ejected client counts against the maximum number of ejected clients
+         */
+        public Builder<C> withEjectionTime(long ejectionTime, TimeUnit units) {
+            this.ejectionTime = units.toMillis(ejectionTime);
+            return this;
+        }
+
+        /**
+         * Number of standard deviations from the mean at which a client is an outlier.  Must
+         * be below sqrt(minClients-1) for a single outlier to ever be detected.
+         */
+        public Builder<C> withStandardDeviations(double stdevs) {
+            this.stdevs = stdevs;
+            return this;
+        }
+
+        /**
+         * Minimum number of requests to a client within the interval for it to be evaluated
+         */
+        public Builder<C> withMinRequests(int minRequests) {
+            this.minRequests = minRequests;
+            return this;
+        }
+
+        /**
+         * Minimum number of clients with enough requests for outliers to be detected
+         */
+        public Builder<C> withMinClients(int minClients) {
+            this.minClients = minClients;
+            return this;
+        }
+
+        /**
+         * Maximum fraction of clients that may be ejected at once
+         */
+        public Builder<C> withMaxEjectedFraction(double maxEjectedFraction) {
+            this.maxEjectedFraction = maxEjectedFraction;
+            return this;
+        }
+
+        public Builder<C> withScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public OutlierDetector<C> build() {
+            return new OutlierDetector<C>(this);
+        }
+    }
+
+    public static <C> Builder<C> builder() {
+        return new Builder<C>();
+    }
+
+    /**
+     * Maximum number of latency samples kept per client over the window
+     */
+    static final int MAX_SAMPLES = 256;
+
+    /**
+     * Stats for a single client over one bucket of the window.  Latencies are kept in a
+     * fixed size reservoir so that the p99 can be computed without unbounded memory.
+     */
+    private static class Bucket {
+        private final long[] samples;
+        private long successes;
+        private long failures;
+
+        Bucket(int size) {
+            this.samples = new long[size];
+        }
+
+        void record(boolean success, long latency) {
+            long count = successes + failures;
+            if (count < samples.length) {
+                samples[(int)count] = latency;
+            }
+            else {
+                long pos = ThreadLocalRandom.current().nextLong(count + 1);
+                if (pos < samples.length) {
+                    samples[(int)pos] = latency;
+                }
+            }
+            if (success) {
+                successes++;
+            }
+            else {
+                failures++;
+            }
+        }
+
+        long count() {
+            return successes + failures;
+        }
+
+        int sampleCount() {
+            return (int)Math.min(count(), samples.length);
+        }
+
+        void reset() {
+            successes = 0;
+            failures = 0;
+        }
+    }
+
+    /**
+     * Stats for a single client over the rolling window, along with everyone subscribed
+     * to its failures
+     */
+    private static class ClientStats {
+        private final List<Subscriber<? super Throwable>> subscribers = new CopyOnWriteArrayList<Subscriber<? super Throwable>>();
+        private final Bucket[] buckets;
+        private int current;
+        private boolean removed;
+
+        ClientStats(int buckets) {
+            this.buckets = new Bucket[buckets];
+            for (int i = 0; i < buckets; i++) {
+                this.buckets[i] = new Bucket(Math.max(1, MAX_SAMPLES / buckets));
+            }
+        }
+
+        /**
+         * @return False if the stats were already removed after their last subscriber left
+         */
+        synchronized boolean addSubscriber(Subscriber<? super Throwable> subscriber) {
+            if (removed) {
+                return false;
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+
+        /**
+         * @return True if this was the last subscriber and the stats should be removed
+         */
+        synchronized boolean removeSubscriber(Subscriber<? super Throwable> subscriber) {
+            subscribers.remove(subscriber);
+            if (subscribers.isEmpty()) {
+                removed = true;
+            }
+            return removed;
+        }
+
+        void eject(Throwable reason) {
+            for (Subscriber<? super Throwable> subscriber : subscribers) {
+                subscriber.onNext(reason);
+            }
+        }
+
+        synchronized void record(boolean success, long latency) {
+            buckets[current].record(success, latency);
+        }
+
+        /**
+         * Take the stats over the window and start a new bucket, dropping the oldest
+         */
+        synchronized Window roll() {
+            long successes = 0;
+            long count = 0;
+            int sampleCount = 0;
+            for (Bucket bucket : buckets) {
+                successes += bucket.successes;
+                count += bucket.count();
+                sampleCount += bucket.sampleCount();
+            }
+
+            Window window = new Window(
+                    count,
+                    count == 0 ? 1.0 : (double)successes / count,
+                    percentile(sampleCount, 0.99));
+
+            current = (current + 1) % buckets.length;
+            buckets[current].reset();
+            return window;
+        }
+
+        synchronized void reset() {
+            for (Bucket bucket : buckets) {
+                bucket.reset();
+            }
+        }
+
+        /**
+         * Each bucket's reservoir stands in for all of the bucket's requests, so every sample
+         * is weighted by the number of requests it represents
+         */
+        private long percentile(int sampleCount, double percentile) {
+            if (sampleCount == 0) {
+                return 0;
+            }
+
+            final long[] values = new long[sampleCount];
+            double[] weights = new double[sampleCount];
+            double total = 0;
+            int pos = 0;
+            for (Bucket bucket : buckets) {
+                int samples = bucket.sampleCount();
+                for (int i = 0; i < samples; i++) {
+                    values[pos] = bucket.samples[i];
+                    weights[pos] = (double)bucket.count() / samples;
+                    pos++;
+                }
+                total += bucket.count();
+            }
+
+            Integer[] order = new Integer[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Long.compare(values[o1], values[o2]);
+                }
+            });
+
+            double target = percentile * total;
+            double sum = 0;
+            for (int i = 0; i < sampleCount; i++) {
+                sum += weights[order[i]];
+                if (sum >= target) {
+                    return values[order[i]];
+                }
+            }
+            return values[order[sampleCount - 1]];
+        }
+    }
+
+    private static class Window {
+        private final long   requests;
+        private final double successRate;
+        private final long   p99;
+
+        Window(long requests, double successRate, long p99) {
+            this.requests = requests;
+            this.successRate = successRate;
+            this.p99 = p99;
+        }
+    }
+
+    private static class Candidate<C> {
+        private final C client;
+        private final ClientStats stats;
+        private final double deviation;
+        private final String reason;
+
+        Candidate(C client, ClientStats stats, double deviation, String reason) {
+            this.client = client;
+            this.stats = stats;
+            this.deviation = deviation;
+            this.reason = reason;
+        }
+    }
+
+    private final ConcurrentMap<C, ClientStats> clients = new ConcurrentHashMap<C, ClientStats>();
+    private final ConcurrentMap<C, Long> ejected = new ConcurrentHashMap<C, Long>();
+
+    private final int buckets;
+    private final long ejectionTime;
+    private final double stdevs;
+    private final int minRequests;
+    private final int minClients;
+    private final double maxEjectedFraction;
+    private final Scheduler scheduler;
+    private final Worker worker;
+
+    private OutlierDetector(Builder<C> builder) {
+        if (builder.buckets < 1 || builder.interval < builder.buckets) {
+            throw new IllegalArgumentException("There must be at least one bucket and no more buckets than milliseconds in the interval");
+        }
+        long bucketInterval = builder.interval / builder.buckets;
+        this.buckets            = builder.buckets;
+        this.ejectionTime       = builder.ejectionTime;
+        this.stdevs             = builder.stdevs;
+        this.minRequests        = builder.minRequests;
+        this.minClients         = builder.minClients;
+        this.maxEjectedFraction = builder.maxEjectedFraction;
+        this.scheduler          = builder.scheduler;
+        this.worker             = scheduler.createWorker();
+        this.worker.schedulePeriodically(new Action0() {
+            @Override
+            public void call() {
+                evaluate();
+            }
+        }, bucketInterval, bucketInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Observable<Throwable> call(final C client) {
+        return Observable.create(new OnSubscribe<Throwable>() {
+            @Override
+            public void call(final Subscriber<? super Throwable> s) {
+                final ClientStats stats = subscribe(client, s);
+                s.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        if (stats.removeSubscriber(s)) {
+                            clients.remove(client, stats);
+                        }
+                    }
+                }));
+            }
+        });
+    }
+
+    private ClientStats subscribe(C client, Subscriber<? super Throwable> s) {
+        while (true) {
+            ClientStats stats = clients.get(client);
+            if (stats == null) {
+                stats = new ClientStats(buckets);
+                ClientStats existing = clients.putIfAbsent(client, stats);
+                if (existing != null) {
+                    stats = existing;
+                }
+            }
+            if (stats.addSubscriber(s)) {
+                return stats;
+            }
+            // Last subscriber left concurrently so help remove the stale stats and retry
+            clients.remove(client, stats);
+        }
+    }
+
+    @Override
+    public void onSuccess(C client, long latency) {
+        ClientStats stats = clients.get(client);
+        if (stats != null) {
+            stats.record(true, latency);
+        }
+    }
+
+    @Override
+    public void onFailure(C client, Throwable error, long latency) {
+        ClientStats stats = clients.get(client);
+        if (stats != null) {
+            stats.record(false, latency);
+        }
+    }
+
+    /**
+     * @return Number of clients currently counted as ejected
+     */
+    public int getEjectedCount() {
+        return ejected.size();
+    }
+
+    /**
+     * Stop evaluating outliers
+     */
+    public void shutdown() {
+        worker.unsubscribe();
+    }
+
+    private void evaluate() {
+        long now = scheduler.now();
+        Iterator<Long> iter = ejected.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next() <= now) {
+                iter.remove();
+            }
+        }
+
+        List<C> evaluated = new ArrayList<C>();
+        List<ClientStats> evaluatedStats = new ArrayList<ClientStats>();
+        List<Window> windows = new ArrayList<Window>();
+        for (Map.Entry<C, ClientStats> entry : clients.entrySet()) {
+            Window window = entry.getValue().roll();
+            if (window.requests >= minRequests && !ejected.containsKey(entry.getKey())) {
+                evaluated.add(entry.getKey());
+                evaluatedStats.add(entry.getValue());
+                windows.add(window);
+            }
+        }
+
+        if (windows.size() < minClients) {
+            return;
+        }
+
+        double[] successRates = new double[windows.size()];
+        double[] latencies    = new double[windows.size()];
+        for (int i = 0; i < successRates.length; i++) {
+            successRates[i] = windows.get(i).successRate;
+            latencies[i]    = windows.get(i).p99;
+        }
+        double successMean = mean(successRates);
+        double successStdev = stdev(successRates, successMean);
+        double latencyMean = mean(latencies);
+        double latencyStdev = stdev(latencies, latencyMean);
+
+        List<Candidate<C>> candidates = new ArrayList<Candidate<C>>();
+        for (int i = 0; i < successRates.length; i++) {
+            double successDeviation = successStdev > 0 ? (successMean - successRates[i]) / successStdev : 0;
+            double latencyDeviation = latencyStdev > 0 ? (latencies[i] - latencyMean) / latencyStdev : 0;
+            if (successDeviation > stdevs && successDeviation >= latencyDeviation) {
+                candidates.add(new Candidate<C>(evaluated.get(i), evaluatedStats.get(i), successDeviation,
+                        String.format("success rate %.3f below cluster mean %.3f", successRates[i], successMean)));
+            }
+            else if (latencyDeviation > stdevs) {
+                candidates.add(new Candidate<C>(evaluated.get(i), evaluatedStats.get(i), latencyDeviation,
+                        String.format("p99 latency %.0f above cluster mean %.0f", latencies[i], latencyMean)));
+            }
+        }
+
+        // Eject the worst outliers first
+        Collections.sort(candidates, new Comparator<Candidate<C>>() {
+            @Override
+            public int compare(Candidate<C> o1, Candidate<C> o2) {
+                return Double.compare(o2.deviation, o1.deviation);
+            }
+        });
+
+        int maxEjected = Math.max(1, (int)(maxEjectedFraction * clients.size()));
+        for (Candidate<C> candidate : candidates) {
+            if (ejected.size() >= maxEjected) {
+                break;
+            }
+            ejected.put(candidate.client, now + ejectionTime);
+            candidate.stats.reset();
+            candidate.stats.eject(new Exception("Client " + candidate.client + " is an outlier: " + candidate.reason));
+        }
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double stdev(double[] values, double mean) {
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sum / values.length);
+    }
+}
@@ -0,0 +1,227 @@
+package netflix.ocelli.failures;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Failure detector driven by the outcomes of actual requests rather than a transport
+ * specific signal.  Outcomes reported through the {@link OutcomeListener} interface are fed
+ * to a {@link FailureCriteria} per client and a failure is emitted for the client as soon as
+ * the criteria trips, so that {@link netflix.ocelli.FailureDetectingInstanceFactory} takes
+ * the client out of rotation within a few requests.
+ *
+ * Outcomes for clients that aren't subscribed to, such as those already removed, are ignored.
+ * A client may be subscribed to more than once, such as when it belongs to several
+ * partitions, in which case the failure is emitted to every subscriber.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class PassiveFailureDetector<C> implements Func1<C, Observable<Throwable>>, OutcomeListener<C> {
+
+    public static <C> PassiveFailureDetector<C> create(Func0<FailureCriteria> criteriaFactory) {
+        return new PassiveFailureDetector<C>(criteriaFactory);
+    }
+
+    /**
+     * @return Criteria that trips after count consecutive failures
+     */
+    public static Func0<FailureCriteria> consecutiveFailures(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Count must be at least 1");
+        }
+        return new Func0<FailureCriteria>() {
+            @Override
+            public FailureCriteria call() {
+                return new FailureCriteria() {
+                    private int failures;
+
+                    @Override
+                    public boolean onSuccess(long latency) {
+                        failures = 0;
+                        return false;
+                    }
+
+                    @Override
+                    public boolean onFailure(Throwable error, long latency) {
+                        return ++failures >= count;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @param ratio         Fraction of failed requests at or above which the criteria trips
+     * @param window        Number of most recent requests over which the ratio is computed
+     * @param minRequests   Minimum number of requests before the criteria can trip
+     * @return Criteria that trips when the failure ratio over the last window requests reaches ratio
+     */
+    public static Func0<FailureCriteria> failureRatio(final double ratio, final int window, final int minRequests) {
+        if (window < 1 || minRequests > window) {
+            throw new IllegalArgumentException("Window must be at least 1 and no smaller than minRequests");
+        }
+        return new Func0<FailureCriteria>() {
+            @Override
+            public FailureCriteria call() {
+                return new FailureCriteria() {
+                    private final boolean[] outcomes = new boolean[window];
+                    private int position;
+                    private int count;
+                    private int failures;
+
+                    private boolean add(boolean failed) {
+                        if (count == window) {
+                            if (outcomes[position]) {
+                                failures--;
+                            }
+                        }
+                        else {
+                            count++;
+                        }
+                        outcomes[position] = failed;
+                        if (failed) {
+                            failures++;
+                        }
+                        position = (position + 1) % window;
+                        return count >= minRequests && failures >= ratio * count;
+                    }
+
+                    @Override
+                    public boolean onSuccess(long latency) {
+                        return add(false);
+                    }
+
+                    @Override
+                    public boolean onFailure(Throwable error, long latency) {
+                        return add(true);
+                    }
+                };
+            }
+        };
+    }
+
+    private class ClientState {
+        private final List<Subscriber<? super Throwable>> subscribers = new CopyOnWriteArrayList<Subscriber<? super Throwable>>();
+        private FailureCriteria criteria;
+        private boolean removed;
+
+        ClientState() {
+            this.criteria = criteriaFactory.call();
+        }
+
+        /**
+         * @return False if the state was already removed after its last subscriber left
+         */
+        synchronized boolean addSubscriber(Subscriber<? super Throwable> subscriber) {
+            if (removed) {
+                return false;
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+
+        /**
+         * @return True if this was the last subscriber and the state should be removed
+         */
+        synchronized boolean removeSubscriber(Subscriber<? super Throwable> subscriber) {
+            subscribers.remove(subscriber);
+            if (subscribers.isEmpty()) {
+                removed = true;
+            }
+            return removed;
+        }
+
+        synchronized void onSuccess(C client, long latency) {
+            if (criteria.onSuccess(latency)) {
+                fail(client, null);
+            }
+        }
+
+        synchronized void onFailure(C client, Throwable error, long latency) {
+            if (criteria.onFailure(error, latency)) {
+                fail(client, error);
+            }
+        }
+
+        private void fail(C client, Throwable error) {
+            // Start over so the client gets a fresh chance once it is back in rotation
+            criteria = criteriaFactory.call();
+            Exception reason = new Exception("Client " + client + " failed passive failure detection"
+                    + (error != null ? ": " + error.getMessage() : ""), error);
+            for (Subscriber<? super Throwable> subscriber : subscribers) {
+                subscriber.onNext(reason);
+            }
+        }
+    }
+
+    private final ConcurrentMap<C, ClientState> clients = new ConcurrentHashMap<C, ClientState>();
+    private final Func0<FailureCriteria> criteriaFactory;
+
+    public PassiveFailureDetector(Func0<FailureCriteria> criteriaFactory) {
+        this.criteriaFactory = criteriaFactory;
+    }
+
+    @Override
+    public Observable<Throwable> call(final C client) {
+        return Observable.create(new OnSubscribe<Throwable>() {
+            @Override
+            public void call(final Subscriber<? super Throwable> s) {
+                final ClientState state = subscribe(client, s);
+                s.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        if (state.removeSubscriber(s)) {
+                            clients.remove(client, state);
+                        }
+                    }
+                }));
+            }
+        });
+    }
+
+    private ClientState subscribe(C client, Subscriber<? super Throwable> s) {
+        while (true) {
+            ClientState state = clients.get(client);
+            if (state == null) {
+                state = new ClientState();
+                ClientState existing = clients.putIfAbsent(client, state);
+                if (existing != null) {
+                    state = existing;
+                }
+            }
+            if (state.addSubscriber(s)) {
+                return state;
+            }
+            // Last subscriber left concurrently so help remove the stale state and retry
+            clients.remove(client, state);
+        }
+    }
+
+    @Override
+    public void onSuccess(C client, long latency) {
+        ClientState state = clients.get(client);
+        if (state != null) {
+            state.onSuccess(client, latency);
+        }
+    }
+
+    @Override
+    public void onFailure(C client, Throwable error, long latency) {
+        ClientState state = clients.get(client);
+        if (state != null) {
+            state.onFailure(client, error, latency);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package netflix.ocelli.failures;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Phi accrual failure detector.  Rather than declaring a client failed after a fixed timeout
+ * the detector keeps the distribution of intervals between heartbeats from each client and
+ * computes phi = -log10(P(a heartbeat arrives later than now)), which is the suspicion level
+ * that the client has failed.  A failure is emitted once phi crosses the threshold, so that
+ * on a noisy network the detector automatically allows for more variance while a client with
+ * very regular heartbeats is detected quickly.  A threshold of 8 roughly corresponds to a
+ * 1 in 10^8 chance of a false positive assuming normally distributed intervals.
+ *
+ * A failure is emitted again every resuspect interval for as long as phi stays above the
+ * threshold, so that a client which returns from quarantine without ever sending another
+ * heartbeat is taken out of rotation again.  The first heartbeat after a suspicion starts a
+ * new series of intervals rather than adding the outage to the distribution.
+ *
+ * Heartbeats come from the optional heartbeat source or are reported via
+ * {@link #heartbeat(Object)}.  Since successful responses are heartbeats as well the detector
+ * is also an {@link OutcomeListener}, but only for clients that receive steady traffic.
+ * Monitoring of a client starts with its first heartbeat and the intervals are kept in a fixed
+ * size ring buffer of primitives with a running sum so that each heartbeat is O(1).  The
+ * distribution is seeded with the first heartbeat estimate.  Phi is checked for all clients
+ * on a single periodic timer.
+ *
+ * A client may be subscribed to more than once, such as when it belongs to several
+ * partitions, in which case all subscribers share a single history and heartbeat
+ * subscription and the failure is emitted to every subscriber.
+ *
+ * Reference: Hayashibara, Naohiro, et al. "The phi accrual failure detector." Reliable
+ *   Distributed Systems, 2004.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class PhiAccrualFailureDetector<C> implements Func1<C, Observable<Throwable>>, OutcomeListener<C> {
+
+    public static class Builder<C> {
+        private double    threshold              = 8.0;
+        private int       maxSamples             = 200;
+        private long      minStandardDeviation   = 100;
+        private long      firstHeartbeatEstimate = 1000;
+        private long      checkInterval          = 1000;
+        private long      resuspectInterval      = 10000;
+        private Func1<C, ? extends Observable<?>> heartbeats;
+        private Scheduler scheduler              = Schedulers.computation();
+
+        /**
+         * Phi at or above which a client is considered failed
+         */
+        public Builder<C> withThreshold(double threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * Number of heartbeat intervals kept per client
+         */
+        public Builder<C> withMaxSamples(int maxSamples) {
+            this.maxSamples = maxSamples;
+            return this;
+        }
+
+        /**
+         * Lower bound on the standard deviation so that perfectly regular heartbeats don't
+         * make the detector overly sensitive
+         */
+        public Builder<C> withMinStandardDeviation(long minStandardDeviation, TimeUnit units) {
+            this.minStandardDeviation = units.toMillis(minStandardDeviation);
+            return this;
+        }
+
+        /**
+         * Expected heartbeat interval used to seed the distribution
+         */
+        public Builder<C> withFirstHeartbeatEstimate(long firstHeartbeatEstimate, TimeUnit units) {
+            this.firstHeartbeatEstimate = units.toMillis(firstHeartbeatEstimate);
+            return this;
+        }
+
+        /**
+         * Interval at which phi is checked for all clients
+         */
+        public Builder<C> withCheckInterval(long checkInterval, TimeUnit units) {
+            this.checkInterval = units.toMillis(checkInterval);
+            return this;
+        }
+
+        /**
+         * Interval at which the failure is emitted again while a suspected client's phi stays
+         * above the threshold.  This should be no shorter than the quarantine delay.
+         */
+        public Builder<C> withResuspectInterval(long resuspectInterval, TimeUnit units) {
+            this.resuspectInterval = units.toMillis(resuspectInterval);
+            return this;
+        }
+
+        /**
+         * Function returning an Observable that emits each heartbeat from a client
+         */
+        public Builder<C> withHeartbeats(Func1<C, ? extends Observable<?>> heartbeats) {
+            this.heartbeats = heartbeats;
+            return this;
+        }
+
+        public Builder<C> withScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public PhiAccrualFailureDetector<C> build() {
+            return new PhiAccrualFailureDetector<C>(this);
+        }
+    }
+
+    public static <C> Builder<C> builder() {
+        return new Builder<C>();
+    }
+
+    /**
+     * Heartbeat history of a single client, along with everyone subscribed to its failures
+     */
+    private class ClientHistory {
+        private final List<Subscriber<? super Throwable>> subscribers = new CopyOnWriteArrayList<Subscriber<? super Throwable>>();
+        private final long[] intervals = new long[maxSamples];
+        private int  position;
+        private int  count;
+        private double sum;
+        private double sumOfSquares;
+        private long lastHeartbeat = -1;
+        private long suspectedAt = -1;
+        private Subscription heartbeatSubscription;
+        private boolean removed;
+
+        ClientHistory() {
+            // Seed with a mean of the estimate and a standard deviation of a quarter of it
+            long deviation = firstHeartbeatEstimate / 4;
+            add(firstHeartbeatEstimate - deviation);
+            add(firstHeartbeatEstimate + deviation);
+        }
+
+        /**
+         * @return False if the history was already removed after its last subscriber left
+         */
+        synchronized boolean addSubscriber(Subscriber<? super Throwable> subscriber) {
+            if (removed) {
+                return false;
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+
+        /**
+         * @return True if this was the last subscriber and the history should be removed
+         */
+        synchronized boolean removeSubscriber(Subscriber<? super Throwable> subscriber) {
+            subscribers.remove(subscriber);
+            if (subscribers.isEmpty()) {
+                removed = true;
+                if (heartbeatSubscription != null) {
+                    heartbeatSubscription.unsubscribe();
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Subscribe to the client's heartbeats unless already subscribed
+         */
+        synchronized void startHeartbeats(C client) {
+            if (heartbeats == null || heartbeatSubscription != null || removed) {
+                return;
+            }
+            heartbeatSubscription = heartbeats.call(client).subscribe(new Action1<Object>() {
+                @Override
+                public void call(Object t) {
+                    heartbeat(scheduler.now());
+                }
+            });
+        }
+
+        private void add(long interval) {
+            if (count == intervals.length) {
+                long oldest = intervals[position];
+                sum -= oldest;
+                sumOfSquares -= (double)oldest * oldest;
+            }
+            else {
+                count++;
+            }
+            intervals[position] = interval;
+            sum += interval;
+            sumOfSquares += (double)interval * interval;
+            position = (position + 1) % intervals.length;
+        }
+
+        synchronized void heartbeat(long now) {
+            // The gap since the last heartbeat before a suspicion is an outage, not an interval
+            if (lastHeartbeat >= 0 && suspectedAt < 0) {
+                add(now - lastHeartbeat);
+            }
+            lastHeartbeat = now;
+            suspectedAt = -1;
+        }
+
+        synchronized double phi(long now) {
+            if (lastHeartbeat < 0) {
+                return 0;
+            }
+            double mean = sum / count;
+            double variance = Math.max(0, sumOfSquares / count - mean * mean);
+            return PhiAccrualFailureDetector.phi(now - lastHeartbeat, mean, Math.max(minStandardDeviation, Math.sqrt(variance)));
+        }
+
+        void check(C client, long now) {
+            double phi;
+            synchronized (this) {
+                phi = phi(now);
+                if (phi < threshold || (suspectedAt >= 0 && now - suspectedAt < resuspectInterval)) {
+                    return;
+                }
+                suspectedAt = now;
+            }
+            Exception reason = new Exception(String.format("Client %s suspected with phi %.1f", client, phi));
+            for (Subscriber<? super Throwable> subscriber : subscribers) {
+                subscriber.onNext(reason);
+            }
+        }
+    }
+
+    /**
+     * Compute phi using the logistic approximation of the normal cumulative distribution
+     *
+     * @param elapsed   Time since the last heartbeat
+     * @param mean      Mean heartbeat interval
+     * @param stdev     Standard deviation of the heartbeat interval
+     */
+    static double phi(long elapsed, double mean, double stdev) {
+        double y = (elapsed - mean) / stdev;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        else {
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
+    private final ConcurrentMap<C, ClientHistory> clients = new ConcurrentHashMap<C, ClientHistory>();
+
+    private final double threshold;
+    private final int maxSamples;
+    private final long minStandardDeviation;
+    private final long firstHeartbeatEstimate;
+    private final long resuspectInterval;
+    private final Func1<C, ? extends Observable<?>> heartbeats;
+    private final Scheduler scheduler;
+    private final Worker worker;
+
+    private PhiAccrualFailureDetector(Builder<C> builder) {
+        if (builder.maxSamples < 2) {
+            throw new IllegalArgumentException("maxSamples must be at least 2");
+        }
+        this.threshold              = builder.threshold;
+        this.maxSamples             = builder.maxSamples;
+        this.minStandardDeviation   = builder.minStandardDeviation;
+        this.firstHeartbeatEstimate = builder.firstHeartbeatEstimate;
+        this.resuspectInterval      = builder.resuspectInterval;
+        this.heartbeats             = builder.heartbeats;
+        this.scheduler              = builder.scheduler;
+        this.worker                 = scheduler.createWorker();
+        this.worker.schedulePeriodically(new Action0() {
+            @Override
+            public void call() {
+                long now = scheduler.now();
+                for (Map.Entry<C, ClientHistory> entry : clients.entrySet()) {
+                    entry.getValue().check(entry.getKey(), now);
+                }
+            }
+        }, builder.checkInterval, builder.checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Observable<Throwable> call(final C client) {
+        return Observable.create(new OnSubscribe<Throwable>() {
+            @Override
+            public void call(final Subscriber<? super Throwable> s) {
+                final ClientHistory history = subscribe(client, s);
+                history.startHeartbeats(client);
+                s.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        if (history.removeSubscriber(s)) {
+                            clients.remove(client, history);
+                        }
+                    }
+                }));
+            }
+        });
+    }
+
+    private ClientHistory subscribe(C client, Subscriber<? super Throwable> s) {
+        while (true) {
+            ClientHistory history = clients.get(client);
+            if (history == null) {
+                history = new ClientHistory();
+                ClientHistory existing = clients.putIfAbsent(client, history);
+                if (existing != null) {
+                    history = existing;
+                }
+            }
+            if (history.addSubscriber(s)) {
+                return history;
+            }
+            // Last subscriber left concurrently so help remove the stale history and retry
+            clients.remove(client, history);
+        }
+    }
+
+    /**
+     * Record a heartbeat from a client
+     */
+    public void heartbeat(C client) {
+        ClientHistory history = clients.get(client);
+        if (history != null) {
+            history.heartbeat(scheduler.now());
+        }
+    }
+
+    /**
+     * @return Current suspicion level of a client or 0 if the client isn't being monitored
+     */
+    public double getPhi(C client) {
+        ClientHistory history = clients.get(client);
+        return history == null ? 0 : history.phi(scheduler.now());
+    }
+
+    @Override
+    public void onSuccess(C client, long latency) {
+        heartbeat(client);
+    }
+
+    @Override
+    public void onFailure(C client, Throwable error, long latency) {
+        // Failed requests are not heartbeats
+    }
+
+    /**
+     * Stop checking for failures
+     */
+    public void shutdown() {
+        worker.unsubscribe();
+    }
+}
@@ -1,5 +1,8 @@
 package netflix.ocelli.functions;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import rx.Observable;
 import rx.functions.Func1;
 
@@ -21,4 +24,23 @@ public abstract class Failures {
             }
         };
     }
+    
+    /**
+     * @return Failure detector emitting the failures of all of the detectors
+     */
+    public static <C> Func1<C, Observable<Throwable>> merge(final List<Func1<C, Observable<Throwable>>> detectors) {
+        if (detectors.size() == 1) {
+            return detectors.get(0);
+        }
+        return new Func1<C, Observable<Throwable>>() {
+            @Override
+            public Observable<Throwable> call(C client) {
+                List<Observable<Throwable>> failures = new ArrayList<Observable<Throwable>>(detectors.size());
+                for (Func1<C, Observable<Throwable>> detector : detectors) {
+                    failures.add(detector.call(client));
+                }
+                return Observable.merge(failures);
+            }
+        };
+    }
 }
@@ -1,7 +1,10 @@
 package netflix.ocelli.functions;
 
+import netflix.ocelli.topologies.DeterministicApertureTopology;
 import netflix.ocelli.topologies.RingTopology;
+import netflix.ocelli.util.Hashing;
 import rx.functions.Func1;
+import rx.functions.Func2;
 
 /**
  * Convenience class for creating different topologies that filter clients into 
@@ -16,5 +19,35 @@ public abstract class Topologies {
     public static <T, K extends Comparable<K>> RingTopology<K, T> ring(K id, Func1<T, K> idFunc, Func1<Integer, Integer> countFunc) {
         return new RingTopology<K, T>(id, idFunc, countFunc);
     }
+    
+    /**
+     * @param id                Location of this instance on the ring
+     * @param idFunc            Function providing the key of each host
+     * @param countFunc         Function returning the number of hosts to target given the total number of hosts
+     * @param virtualNodeCount  Function returning the number of points on the ring for each host
+     * @return Ring topology where each host is placed at multiple points derived by hashing its key
+     */
+    public static <T> RingTopology<Long, T> ring(Long id, Func1<T, Long> idFunc, Func1<Integer, Integer> countFunc, Func1<T, Integer> virtualNodeCount) {
+        return new RingTopology<Long, T>(id, idFunc, countFunc, virtualNodeCount, VIRTUAL_NODE_HASH);
+    }
+    
+    private static final Func2<Long, Integer, Long> VIRTUAL_NODE_HASH = new Func2<Long, Integer, Long>() {
+        @Override
+        public Long call(Long key, Integer index) {
+            return Hashing.hash(key, index);
+        }
+    };
+    
+    /**
+     * @param clientId      Index of this client in [0, clientCount)
+     * @param clientCount   Total number of clients
+     * @param idFunc        Function providing the key by which hosts are ordered
+     * @param apertureFunc  Function returning the desired number of hosts given the total number of hosts
+     * @return Topology where every host receives an equal share of load from all clients.  Use
+     *  {@link DeterministicApertureTopology#getWeight()} to weight the partially covered hosts.
+     */
+    public static <T, K extends Comparable<K>> DeterministicApertureTopology<K, T> deterministicAperture(int clientId, int clientCount, Func1<T, K> idFunc, Func1<Integer, Integer> apertureFunc) {
+        return new DeterministicApertureTopology<K, T>(clientId, clientCount, idFunc, apertureFunc);
+    }
         
 }
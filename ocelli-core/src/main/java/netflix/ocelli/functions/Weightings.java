@@ -3,6 +3,7 @@ package netflix.ocelli.functions;
 import rx.functions.Func1;
 import netflix.ocelli.loadbalancer.weighting.EqualWeightStrategy;
 import netflix.ocelli.loadbalancer.weighting.InverseMaxWeightingStrategy;
+import netflix.ocelli.loadbalancer.weighting.InverseWeightingStrategy;
 import netflix.ocelli.loadbalancer.weighting.LinearWeightingStrategy;
 import netflix.ocelli.loadbalancer.weighting.WeightingStrategy;
 
@@ -18,7 +19,7 @@ public abstract class Weightings {
      * @param func
      * @return Strategy that uses the output of the function as the weight
      */
-    public static <C> WeightingStrategy<C> identity(Func1<C, Integer> func) {
+    public static <C> WeightingStrategy<C> identity(Func1<C, ? extends Number> func) {
         return new LinearWeightingStrategy<C>(func);
     }
 
@@ -27,7 +28,16 @@ public abstract class Weightings {
      * @return Strategy that sets the weight to the difference between the max
      *  value of all clients and the client value.
      */
-    public static <C> WeightingStrategy<C> inverseMax(Func1<C, Integer> func) {
+    public static <C> WeightingStrategy<C> inverseMax(Func1<C, ? extends Number> func) {
         return new InverseMaxWeightingStrategy<C>(func);
     }
+
+    /**
+     * @param func
+     * @return Strategy that sets the weight to the reciprocal of the client value,
+     *  such as latency, without truncating to an integer.
+     */
+    public static <C> WeightingStrategy<C> inverse(Func1<C, ? extends Number> func) {
+        return new InverseWeightingStrategy<C>(func);
+    }
 }
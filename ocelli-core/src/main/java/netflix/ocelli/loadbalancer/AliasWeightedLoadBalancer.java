@@ -0,0 +1,149 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import netflix.ocelli.loadbalancer.weighting.ClientsAndWeights;
+import netflix.ocelli.loadbalancer.weighting.WeightingStrategy;
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Weighted random selection using Vose's alias method.
+ *
+ * Unlike {@link RandomWeightedLoadBalancer}, which binary searches the cumulative
+ * weights for every selection, the alias table is built once each time the weights
+ * snapshot is rebuilt (see {@link BaseLoadBalancer}).  A selection then consists of
+ * one random cell and one biased coin flip.
+ *
+ * Build complexity is O(N) and runtime complexity is O(1) with no allocation.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class AliasWeightedLoadBalancer<C> extends BaseLoadBalancer<C> {
+    public static <C> AliasWeightedLoadBalancer<C> create(final Observable<List<C>> source, final WeightingStrategy<C> strategy) {
+        return new AliasWeightedLoadBalancer<C>(source, strategy);
+    }
+
+    public static <C> AliasWeightedLoadBalancer<C> create(final Observable<List<C>> source, final WeightingStrategy<C> strategy, long refreshInterval, TimeUnit units) {
+        return new AliasWeightedLoadBalancer<C>(source, strategy, refreshInterval, units, Schedulers.computation());
+    }
+
+    /**
+     * Immutable alias table for a single snapshot of clients and weights
+     */
+    static class AliasTable<C> extends ClientsAndWeights<C> {
+        private final double[] prob;
+        private final int[]    alias;
+
+        AliasTable(ClientsAndWeights<C> caw) {
+            super(caw.getClients(), caw.getCumulativeWeights());
+
+            final int size = caw.size();
+
+            this.prob    = new double[size];
+            this.alias   = new int[size];
+
+            if (size == 0) {
+                return;
+            }
+
+            // Scale each weight so that the average weight is 1.0
+            double total = caw.getTotalWeight();
+            double[] scaled = new double[size];
+            for (int i = 0; i < size; i++) {
+                if (total <= 0) {
+                    scaled[i] = 1.0;
+                }
+                else {
+                    double weight = caw.getCumulativeWeight(i) - (i == 0 ? 0 : caw.getCumulativeWeight(i-1));
+                    scaled[i] = weight * size / total;
+                }
+            }
+
+            // Partition into cells that are under and over filled.  Both work lists
+            // share a single array, with small growing from the front and large from the back
+            int[] work = new int[size];
+            int small = 0;
+            int large = size;
+            for (int i = 0; i < size; i++) {
+                if (scaled[i] < 1.0) {
+                    work[small++] = i;
+                }
+                else {
+                    work[--large] = i;
+                }
+            }
+
+            // Top off each under filled cell using an over filled cell
+            while (small > 0 && large < size) {
+                int s = work[--small];
+                int l = work[large++];
+
+                prob[s]  = scaled[s];
+                alias[s] = l;
+
+                scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+                if (scaled[l] < 1.0) {
+                    work[small++] = l;
+                }
+                else {
+                    work[--large] = l;
+                }
+            }
+
+            // Whatever remains is full, give or take floating point error
+            while (large < size) {
+                prob[work[large++]] = 1.0;
+            }
+            while (small > 0) {
+                prob[work[--small]] = 1.0;
+            }
+        }
+
+        C select(ThreadLocalRandom rand) {
+            int pos = rand.nextInt(prob.length);
+            if (rand.nextDouble() < prob[pos]) {
+                return getClient(pos);
+            }
+            return getClient(alias[pos]);
+        }
+    }
+
+    /**
+     * Decorate a WeightingStrategy so that the snapshot kept by the base load balancer
+     * is the alias table itself.
+     */
+    private static <C> WeightingStrategy<C> toAliasTable(final WeightingStrategy<C> strategy) {
+        return new WeightingStrategy<C>() {
+            @Override
+            public ClientsAndWeights<C> call(List<C> clients) {
+                return new AliasTable<C>(strategy.call(clients));
+            }
+        };
+    }
+
+    public AliasWeightedLoadBalancer(final Observable<List<C>> source, final WeightingStrategy<C> strategy) {
+        this(source, strategy, RandomWeightedLoadBalancer.DEFAULT_REFRESH_INTERVAL_MSEC, TimeUnit.MILLISECONDS, Schedulers.computation());
+    }
+
+    public AliasWeightedLoadBalancer(final Observable<List<C>> source, final WeightingStrategy<C> strategy, long refreshInterval, TimeUnit units, Scheduler scheduler) {
+        super(source, toAliasTable(strategy), refreshInterval, units, scheduler);
+    }
+
+    @Override
+    public C next() {
+        AliasTable<C> local = (AliasTable<C>) weights.get();
+        if (!local.isEmpty()) {
+            return local.select(ThreadLocalRandom.current());
+        }
+        else {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import netflix.ocelli.Lease;
+import netflix.ocelli.LoadBalancer;
+import netflix.ocelli.util.Hashing;
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Load balancer that only sends traffic to a subset (the aperture) of the clients so
+ * that a large number of callers don't each keep connections to every host.  The
+ * aperture grows by one client whenever the average number of outstanding requests per
+ * client in the aperture is above a high watermark and shrinks by one when it is below
+ * a low watermark, always staying within [min, max].  To keep the aperture from flapping
+ * on bursty load it changes at most once per cooldown period.  Within the aperture the
+ * better of two random clients by outstanding requests is chosen.
+ *
+ * Clients are ordered by their hash combined with a random per instance seed so that
+ * different callers use different subsets while the subset of a single caller is stable
+ * across changes to the client list.  Outstanding requests are only counted for leases
+ * obtained from {@link #acquire()}, which is also where the aperture is adjusted.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class ApertureLoadBalancer<C> extends LoadBalancer<C> {
+    public static final int    DEFAULT_MIN_APERTURE = 1;
+    public static final double DEFAULT_LOW_LOAD     = 0.5;
+    public static final double DEFAULT_HIGH_LOAD    = 2.0;
+    public static final long   DEFAULT_COOLDOWN_MSEC = 1000;
+
+    public static <C> ApertureLoadBalancer<C> create(final Observable<List<C>> source) {
+        return new ApertureLoadBalancer<C>(source, DEFAULT_MIN_APERTURE, Integer.MAX_VALUE, DEFAULT_LOW_LOAD, DEFAULT_HIGH_LOAD, ThreadLocalRandom.current().nextLong());
+    }
+
+    public static <C> ApertureLoadBalancer<C> create(final Observable<List<C>> source, int minAperture, int maxAperture) {
+        return new ApertureLoadBalancer<C>(source, minAperture, maxAperture, DEFAULT_LOW_LOAD, DEFAULT_HIGH_LOAD, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * @return Clients ordered by their hash combined with the seed
+     */
+    private static <C> List<C> order(List<C> clients, final long seed) {
+        // Hash each client once and sort on the precomputed keys
+        final long[] keys = new long[clients.size()];
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Hashing.mix(Hashing.hash(clients.get(i)) ^ seed);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long h1 = keys[o1];
+                long h2 = keys[o2];
+                return h1 < h2 ? -1 : (h1 == h2 ? 0 : 1);
+            }
+        });
+
+        List<C> ordered = new ArrayList<C>(keys.length);
+        for (Integer i : order) {
+            ordered.add(clients.get(i));
+        }
+        return ordered;
+    }
+
+    private final AtomicReference<OutstandingRequests<C>> table;
+    private final AtomicInteger aperture;
+    private final int minAperture;
+    private final int maxAperture;
+    private final double lowLoad;
+    private final double highLoad;
+    private final long cooldown;
+    private final Scheduler scheduler;
+    private final AtomicLong lastChange;
+    private final Subscription s;
+
+    /**
+     * @param source        Source of the current list of active clients
+     * @param minAperture   Minimum number of clients to send traffic to
+     * @param maxAperture   Maximum number of clients to send traffic to
+     * @param lowLoad       Average outstanding requests per client below which the aperture shrinks
+     * @param highLoad      Average outstanding requests per client above which the aperture grows
+     * @param seed          Seed for ordering the clients.  Callers with the same seed use the same subset.
+     */
+    public ApertureLoadBalancer(
+            final Observable<List<C>> source,
+            final int minAperture,
+            final int maxAperture,
+            final double lowLoad,
+            final double highLoad,
+            final long seed) {
+        this(source, minAperture, maxAperture, lowLoad, highLoad, seed, DEFAULT_COOLDOWN_MSEC, TimeUnit.MILLISECONDS, Schedulers.computation());
+    }
+
+    /**
+     * @param source        Source of the current list of active clients
+     * @param minAperture   Minimum number of clients to send traffic to
+     * @param maxAperture   Maximum number of clients to send traffic to
+     * @param lowLoad       Average outstanding requests per client below which the aperture shrinks
+     * @param highLoad      Average outstanding requests per client above which the aperture grows
+     * @param seed          Seed for ordering the clients.  Callers with the same seed use the same subset.
+     * @param cooldown      Minimum time between changes to the aperture
+     * @param units         Units of the cooldown
+     * @param scheduler     Scheduler whose clock is used for the cooldown
+     */
+    public ApertureLoadBalancer(
+            final Observable<List<C>> source,
+            final int minAperture,
+            final int maxAperture,
+            final double lowLoad,
+            final double highLoad,
+            final long seed,
+            final long cooldown,
+            final TimeUnit units,
+            final Scheduler scheduler) {
+        if (minAperture < 1 || maxAperture < minAperture) {
+            throw new IllegalArgumentException("Aperture must satisfy 1 <= min <= max");
+        }
+        if (lowLoad > highLoad) {
+            throw new IllegalArgumentException("Low load watermark must not exceed the high watermark");
+        }
+        this.minAperture = minAperture;
+        this.maxAperture = maxAperture;
+        this.lowLoad = lowLoad;
+        this.highLoad = highLoad;
+        this.cooldown = TimeUnit.MILLISECONDS.convert(cooldown, units);
+        this.scheduler = scheduler;
+        this.lastChange = new AtomicLong(scheduler.now() - this.cooldown);
+        this.aperture = new AtomicInteger(minAperture);
+        this.table = new AtomicReference<OutstandingRequests<C>>(new OutstandingRequests<C>(new ArrayList<C>(), null));
+        this.s = source
+            .subscribe(new Action1<List<C>>() {
+                @Override
+                public void call(List<C> clients) {
+                    table.set(new OutstandingRequests<C>(order(clients, seed), table.get()));
+                }
+            });
+    }
+
+    /**
+     * @return Current number of clients in the aperture
+     */
+    public int getAperture() {
+        return Math.min(aperture.get(), table.get().size());
+    }
+
+    /**
+     * @return Number of requests outstanding on the client or 0 if the client is not
+     *  in the load balancer
+     */
+    public long getOutstanding(C client) {
+        return table.get().getOutstanding(client);
+    }
+
+    @Override
+    public C next() {
+        OutstandingRequests<C> local = table.get();
+        return local.get(choose(local));
+    }
+
+    @Override
+    public Lease<C> acquire() {
+        OutstandingRequests<C> local = table.get();
+        adjust(local);
+        return local.acquire(choose(local));
+    }
+
+    /**
+     * Move the aperture one step towards the target load unless it changed within
+     * the cooldown period
+     */
+    private void adjust(OutstandingRequests<C> local) {
+        long now = scheduler.now();
+        long last = lastChange.get();
+        if (now - last < cooldown) {
+            return;
+        }
+
+        int size = local.size();
+        int current = aperture.get();
+        int effective = Math.min(current, size);
+        if (effective == 0) {
+            return;
+        }
+
+        int next;
+        double load = (double)local.getTotal() / effective;
+        if (load > highLoad && current < Math.min(maxAperture, size)) {
+            next = effective + 1;
+        }
+        else if (load < lowLoad && current > minAperture) {
+            next = Math.max(minAperture, effective - 1);
+        }
+        else {
+            return;
+        }
+
+        // Only the thread that claims the cooldown moves the aperture
+        if (lastChange.compareAndSet(last, now)) {
+            aperture.set(next);
+        }
+    }
+
+    private int choose(OutstandingRequests<C> local) {
+        int size = Math.min(aperture.get(), local.size());
+        if (size == 1) {
+            return 0;
+        }
+        else if (size > 1) {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            int first  = rand.nextInt(size);
+            int second = (rand.nextInt(size-1) + first + 1) % size;
+
+            return local.getOutstanding(second) < local.getOutstanding(first) ? second : first;
+        }
+        else {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        s.unsubscribe();
+    }
+
+    @Override
+    public Observable<C> all() {
+        return Observable.from(table.get().getClients());
+    }
+}
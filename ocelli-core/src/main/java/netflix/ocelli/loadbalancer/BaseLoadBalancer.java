@@ -2,35 +2,92 @@ package netflix.ocelli.loadbalancer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import netflix.ocelli.LoadBalancer;
+import netflix.ocelli.loadbalancer.weighting.ClientsAndWeights;
+import netflix.ocelli.loadbalancer.weighting.WeightingStrategy;
 import rx.Observable;
-import rx.Subscription;
+import rx.Scheduler;
 import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.CompositeSubscription;
 
 /**
  * Base for all LoadBalancers will emit a single C based on the load balancing
  * strategy when subscribed to.
- * 
+ *
+ * When constructed with a {@link WeightingStrategy} the load balancer also keeps an
+ * immutable {@link ClientsAndWeights} snapshot which is rebuilt whenever the client
+ * list changes and, optionally, on a fixed refresh interval so that weights derived
+ * from changing metrics (such as pending requests) are resampled.  Selection only
+ * needs to read the latest snapshot and never runs the weighting strategy itself.
+ *
  * @author elandau
  *
  * @param <C>
  */
 public abstract class BaseLoadBalancer<C> extends LoadBalancer<C> {
-    private final Subscription s;
+    private final CompositeSubscription s = new CompositeSubscription();
+    private final WeightingStrategy<C> strategy;
+
     protected final AtomicReference<List<C>> clients = new AtomicReference<List<C>>(new ArrayList<C>());
-    
+    protected final AtomicReference<ClientsAndWeights<C>> weights = new AtomicReference<ClientsAndWeights<C>>();
+
     protected BaseLoadBalancer(final Observable<List<C>> source) {
-        this.s = source
+        this(source, null, 0, TimeUnit.MILLISECONDS, Schedulers.immediate());
+    }
+
+    /**
+     * @param source            Source of the current list of active clients
+     * @param strategy          Strategy used to build the weights snapshot
+     * @param refreshInterval   Interval at which to rebuild the snapshot even if the client
+     *                          list hasn't changed.  Set to 0 to only rebuild on changes.
+     * @param units             Units for refreshInterval
+     * @param scheduler         Scheduler on which the periodic refresh is performed
+     */
+    protected BaseLoadBalancer(
+            final Observable<List<C>> source,
+            final WeightingStrategy<C> strategy,
+            final long refreshInterval,
+            final TimeUnit units,
+            final Scheduler scheduler) {
+        this.strategy = strategy;
+        if (strategy != null) {
+            this.weights.set(strategy.call(clients.get()));
+        }
+
+        s.add(source
             .subscribe(new Action1<List<C>>() {
                 @Override
                 public void call(List<C> t1) {
                     clients.set(t1);
+                    refreshWeights();
                 }
-            });
+            }));
+
+        if (strategy != null && refreshInterval > 0) {
+            s.add(Observable.interval(refreshInterval, units, scheduler)
+                .subscribe(new Action1<Long>() {
+                    @Override
+                    public void call(Long t1) {
+                        refreshWeights();
+                    }
+                }));
+        }
     }
-    
+
+    /**
+     * Rebuild the weights snapshot from the latest list of clients.  Serialized so that a
+     * periodic refresh can never overwrite the snapshot for a newer client list.
+     */
+    private synchronized void refreshWeights() {
+        if (strategy != null) {
+            weights.set(strategy.call(clients.get()));
+        }
+    }
+
     public void shutdown() {
         s.unsubscribe();
     }
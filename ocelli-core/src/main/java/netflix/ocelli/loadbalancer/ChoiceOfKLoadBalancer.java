@@ -0,0 +1,271 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import netflix.ocelli.Lease;
+import netflix.ocelli.LoadBalancer;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Generalization of {@link ChoiceOfTwoLoadBalancer} that samples K distinct clients
+ * at random and picks the one with the lowest score, such as pending requests or
+ * latency.
+ *
+ * The load balancer may optionally be bounded, in which case a candidate is only
+ * acceptable if the number of requests outstanding on it, including the new one, is at
+ * most (1+epsilon) times the mean number of outstanding requests per client, rounded up.
+ * Outstanding requests are tracked by the load balancer itself through the {@link Lease}s
+ * it hands out from {@link #acquire()}, along with a running total, so the bound is always
+ * computed from live counts.  Calling {@link #next()} directly chooses a client without
+ * counting it as outstanding.
+ *
+ * When every candidate in a sample is over the bound another K clients are sampled, up to
+ * {@link #MAX_ROUNDS} times.  If all of those are over the bound as well a soft bound
+ * returns the best candidate seen, while a strict bound scans all clients for one within
+ * the bound.  Since the mean includes every client at least one is always within the bound,
+ * so a strict bound only rejects the request with a {@link NoSuchElementException} when
+ * concurrent requests fill up the remaining clients during the scan.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class ChoiceOfKLoadBalancer<C> extends LoadBalancer<C> {
+    /**
+     * Maximum number of samples to take when all candidates exceed the load bound
+     */
+    public static final int MAX_ROUNDS = 3;
+
+    public static <C> ChoiceOfKLoadBalancer<C> create(final Observable<List<C>> source, int k, final Func1<C, Double> score) {
+        return new ChoiceOfKLoadBalancer<C>(source, k, score, 0, false);
+    }
+
+    /**
+     * @return Load balancer with a soft bound of (1+epsilon) times the mean load
+     */
+    public static <C> ChoiceOfKLoadBalancer<C> create(final Observable<List<C>> source, int k, final Func1<C, Double> score, double epsilon) {
+        return new ChoiceOfKLoadBalancer<C>(source, k, score, epsilon, false);
+    }
+
+    /**
+     * @return Load balancer with a strict bound of (1+epsilon) times the mean load
+     *         which scores clients by the number of requests outstanding on them
+     */
+    public static <C> ChoiceOfKLoadBalancer<C> boundedLoad(final Observable<List<C>> source, int k, double epsilon) {
+        return new ChoiceOfKLoadBalancer<C>(source, k, null, epsilon, true);
+    }
+
+    /**
+     * Scratch space for the indexes sampled by the current thread so that selection
+     * doesn't allocate
+     */
+    private static final ThreadLocal<int[]> SAMPLES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[16];
+        }
+    };
+
+    private final AtomicReference<OutstandingRequests<C>> table;
+    private final int k;
+    private final Func1<C, Double> score;
+    private final double epsilon;
+    private final boolean strict;
+    private final Subscription s;
+
+    /**
+     * @param source            Source of the current list of active clients
+     * @param k                 Number of candidates to sample for each selection
+     * @param score             Function returning the score of a client.  Lower is better.
+     *                          When null clients are scored by their outstanding requests.
+     * @param epsilon           Candidates with more than (1+epsilon) times the mean number of
+     *                          outstanding requests are rejected.  Set to 0 to disable the bound.
+     * @param strict            Never return a client over the bound, scanning all clients and
+     *                          ultimately failing the request if needed
+     */
+    public ChoiceOfKLoadBalancer(
+            final Observable<List<C>> source,
+            final int k,
+            final Func1<C, Double> score,
+            final double epsilon,
+            final boolean strict) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.score = score;
+        this.epsilon = epsilon;
+        this.strict = strict;
+        this.table = new AtomicReference<OutstandingRequests<C>>(new OutstandingRequests<C>(new ArrayList<C>(), null));
+        this.s = source
+            .subscribe(new Action1<List<C>>() {
+                @Override
+                public void call(List<C> clients) {
+                    table.set(new OutstandingRequests<C>(clients, table.get()));
+                }
+            });
+    }
+
+    /**
+     * @return Number of requests outstanding on the client or 0 if the client is not
+     *  in the load balancer
+     */
+    public long getOutstanding(C client) {
+        return table.get().getOutstanding(client);
+    }
+
+    @Override
+    public C next() {
+        OutstandingRequests<C> local = table.get();
+        return local.get(choose(local));
+    }
+
+    @Override
+    public Lease<C> acquire() {
+        OutstandingRequests<C> local = table.get();
+        return local.acquire(choose(local));
+    }
+
+    private int choose(OutstandingRequests<C> local) {
+        int size = local.size();
+        if (size == 0) {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+
+        long bound = bound(local);
+        if (size == 1) {
+            return check(local, 0, bound);
+        }
+
+        // Sampling K or more of N clients is simply a scan
+        if (k >= size) {
+            return check(local, best(local, bound), bound);
+        }
+
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        boolean withinBound = false;
+        for (int round = 0; round < MAX_ROUNDS && !withinBound; round++) {
+            int[] samples = sample(size);
+            for (int i = 0; i < k; i++) {
+                int candidate = samples[i];
+                boolean accept = local.getOutstanding(candidate) < bound;
+                double value = score(local, candidate);
+                // Prefer any candidate within the bound over the best one over it
+                if (best == -1 || (accept && !withinBound) || (accept == withinBound && value < bestScore)) {
+                    best = candidate;
+                    bestScore = value;
+                    withinBound = accept;
+                }
+            }
+        }
+
+        if (!withinBound && strict) {
+            return check(local, best(local, bound), bound);
+        }
+        return best;
+    }
+
+    /**
+     * @return Index of the client with the lowest score, preferring those within the bound
+     */
+    private int best(OutstandingRequests<C> local, long bound) {
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        boolean withinBound = false;
+        for (int i = 0; i < local.size(); i++) {
+            boolean accept = local.getOutstanding(i) < bound;
+            double value = score(local, i);
+            if (best == -1 || (accept && !withinBound) || (accept == withinBound && value < bestScore)) {
+                best = i;
+                bestScore = value;
+                withinBound = accept;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reject the chosen client if it is over a strict bound
+     */
+    private int check(OutstandingRequests<C> local, int pos, long bound) {
+        if (strict && local.getOutstanding(pos) >= bound) {
+            throw new NoSuchElementException("All servers are over the load bound");
+        }
+        return pos;
+    }
+
+    private double score(OutstandingRequests<C> local, int pos) {
+        return score(local.get(pos), local.getOutstanding(pos));
+    }
+
+    /**
+     * @param client        Candidate client
+     * @param outstanding   Number of requests outstanding on the client
+     * @return Score of the client.  Lower is better.
+     */
+    protected double score(C client, long outstanding) {
+        return score == null ? outstanding : score.call(client);
+    }
+
+    /**
+     * @return Number of outstanding requests below which a client is acceptable, or
+     *         MAX_VALUE if the load balancer isn't bounded
+     */
+    private long bound(OutstandingRequests<C> local) {
+        if (epsilon > 0) {
+            // Include the request being placed so that an idle cluster accepts it
+            return (long)Math.ceil((1 + epsilon) * (local.getTotal() + 1) / local.size());
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Sample k distinct indexes from [0, size) using rejection.  k is small relative
+     * to size so the expected number of retries is low.
+     *
+     * @return Scratch array whose first k entries are the sampled indexes
+     */
+    private int[] sample(int size) {
+        int[] samples = SAMPLES.get();
+        if (samples.length < k) {
+            samples = new int[k];
+            SAMPLES.set(samples);
+        }
+
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        for (int i = 0; i < k; i++) {
+            int index;
+            boolean duplicate;
+            do {
+                index = rand.nextInt(size);
+                duplicate = false;
+                for (int j = 0; j < i; j++) {
+                    if (samples[j] == index) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+            } while (duplicate);
+            samples[i] = index;
+        }
+        return samples;
+    }
+
+    @Override
+    public void shutdown() {
+        s.unsubscribe();
+    }
+
+    @Override
+    public Observable<C> all() {
+        return Observable.from(table.get().getClients());
+    }
+}
@@ -2,10 +2,10 @@ package netflix.ocelli.loadbalancer;
 
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import rx.Observable;
-import rx.Subscriber;
+import rx.functions.Func1;
 import rx.functions.Func2;
 
 /**
@@ -28,7 +28,19 @@ public class ChoiceOfTwoLoadBalancer<C> extends BaseLoadBalancer<C>{
         return new ChoiceOfTwoLoadBalancer<C>(source, func);
     }
     
-    private final Random rand = new Random();
+    /**
+     * @param score     Function returning the score of a client where lower is better
+     * @return Comparator choosing the client with the lower score, or the first on a tie
+     */
+    public static <C> Func2<C, C, C> lowest(final Func1<C, ? extends Number> score) {
+        return new Func2<C, C, C>() {
+            @Override
+            public C call(C first, C second) {
+                return score.call(second).doubleValue() < score.call(first).doubleValue() ? second : first;
+            }
+        };
+    }
+    
     private final Func2<C, C, C> func;
     
     ChoiceOfTwoLoadBalancer(final Observable<List<C>> source, final Func2<C, C, C> func) {
@@ -37,21 +49,20 @@ public class ChoiceOfTwoLoadBalancer<C> extends BaseLoadBalancer<C>{
     }
 
     @Override
-    public void call(Subscriber<? super C> s) {
+    public C next() {
         List<C> local = clients.get();
         if (local.size() == 1) {
-            s.onNext(local.get(0));
-            s.onCompleted();
+            return local.get(0);
         }                
         else if (local.size() > 1){
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
             int first  = rand.nextInt(local.size());
             int second = (rand.nextInt(local.size()-1) + first + 1) % local.size();
             
-            s.onNext(func.call(local.get(first), local.get(second)));
-            s.onCompleted();
+            return func.call(local.get(first), local.get(second));
         }
         else {
-            s.onError(new NoSuchElementException("No servers available in the load balancer"));
+            throw new NoSuchElementException("No servers available in the load balancer");
         }
     }
 }
@@ -0,0 +1,196 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import netflix.ocelli.KeyedLoadBalancer;
+import netflix.ocelli.Lease;
+import netflix.ocelli.util.Hashing;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Consistent hashing load balancer with virtual nodes and bounded loads.  Each client is
+ * placed on a hash ring at a number of points (virtual nodes) and a key is routed to the
+ * owner of the first point at or after the hash of the key.  Adding or removing a client
+ * therefore only moves the keys adjacent to its points.
+ *
+ * When bounded, a client may only take a new request if its outstanding requests are
+ * below ceil((1+epsilon) * (total outstanding + 1) / N).  A key whose client is at
+ * capacity spills to the next client along the ring, which keeps hot keys from
+ * overloading a single host while still keeping most keys sticky.  Outstanding requests
+ * are only counted for {@link Lease}s obtained from {@link #acquire(Object)}.
+ *
+ * See 'Consistent Hashing with Bounded Loads' http://arxiv.org/abs/1608.01350
+ *
+ * @author elandau
+ *
+ * @param <K>
+ * @param <C>
+ */
+public class ConsistentHashLoadBalancer<K, C> extends KeyedLoadBalancer<K, C> {
+    public static final int DEFAULT_VIRTUAL_NODES = 100;
+
+    public static <K, C> ConsistentHashLoadBalancer<K, C> create(final Observable<List<C>> source) {
+        return new ConsistentHashLoadBalancer<K, C>(source, Hashing.<K>defaultHash(), DEFAULT_VIRTUAL_NODES, 0);
+    }
+
+    /**
+     * @param epsilon   Fraction by which a client may exceed the average load before its
+     *                  keys spill to the next client
+     */
+    public static <K, C> ConsistentHashLoadBalancer<K, C> create(final Observable<List<C>> source, double epsilon) {
+        return new ConsistentHashLoadBalancer<K, C>(source, Hashing.<K>defaultHash(), DEFAULT_VIRTUAL_NODES, epsilon);
+    }
+
+    private static class Point implements Comparable<Point> {
+        final long hash;
+        final int owner;
+
+        Point(long hash, int owner) {
+            this.hash = hash;
+            this.owner = owner;
+        }
+
+        @Override
+        public int compareTo(Point o) {
+            return hash < o.hash ? -1 : (hash == o.hash ? 0 : 1);
+        }
+    }
+
+    static class Ring<C> {
+        private final OutstandingRequests<C> requests;
+        private final long[] hashes;
+        private final int[] owners;
+
+        Ring(List<C> clients, Ring<C> previous, int virtualNodes) {
+            int size = clients.size();
+            this.requests = new OutstandingRequests<C>(clients, previous == null ? null : previous.requests);
+
+            Point[] points = new Point[size * virtualNodes];
+            for (int i = 0; i < size; i++) {
+                long clientHash = Hashing.hash(clients.get(i));
+                for (int r = 0; r < virtualNodes; r++) {
+                    points[i * virtualNodes + r] = new Point(Hashing.hash(clientHash, r), i);
+                }
+            }
+            Arrays.sort(points);
+
+            this.hashes = new long[points.length];
+            this.owners = new int[points.length];
+            for (int i = 0; i < points.length; i++) {
+                hashes[i] = points[i].hash;
+                owners[i] = points[i].owner;
+            }
+        }
+
+        /**
+         * @return Position of the first point at or after the hash, wrapping around the ring
+         */
+        int find(long hash) {
+            int pos = Arrays.binarySearch(hashes, hash);
+            if (pos < 0) {
+                pos = -(pos + 1);
+            }
+            return pos == hashes.length ? 0 : pos;
+        }
+    }
+
+    private final AtomicReference<Ring<C>> ring;
+    private final Func1<K, Long> hashFunc;
+    private final double epsilon;
+    private final Subscription s;
+
+    /**
+     * @param source        Source of the current list of active clients
+     * @param hashFunc      Function to hash a key onto the ring
+     * @param virtualNodes  Number of points per client on the ring.  More points give a
+     *                      more even distribution at the cost of memory.
+     * @param epsilon       Fraction by which a client may exceed the average load before
+     *                      keys spill to the next client.  Set to 0 for no bound.
+     */
+    public ConsistentHashLoadBalancer(final Observable<List<C>> source, final Func1<K, Long> hashFunc, final int virtualNodes, final double epsilon) {
+        this.hashFunc = hashFunc;
+        this.epsilon = epsilon;
+        this.ring = new AtomicReference<Ring<C>>(new Ring<C>(new ArrayList<C>(), null, virtualNodes));
+        this.s = source
+            .subscribe(new Action1<List<C>>() {
+                @Override
+                public void call(List<C> clients) {
+                    ring.set(new Ring<C>(clients, ring.get(), virtualNodes));
+                }
+            });
+    }
+
+    @Override
+    public C next(K key) {
+        Ring<C> local = ring.get();
+        return local.requests.get(choose(local, hashFunc.call(key)));
+    }
+
+    @Override
+    public C next() {
+        Ring<C> local = ring.get();
+        return local.requests.get(choose(local, ThreadLocalRandom.current().nextLong()));
+    }
+
+    @Override
+    public Lease<C> acquire(K key) {
+        Ring<C> local = ring.get();
+        return local.requests.acquire(choose(local, hashFunc.call(key)));
+    }
+
+    @Override
+    public Lease<C> acquire() {
+        Ring<C> local = ring.get();
+        return local.requests.acquire(choose(local, ThreadLocalRandom.current().nextLong()));
+    }
+
+    /**
+     * @return Number of requests outstanding on the client or 0 if the client is not
+     *  in the load balancer
+     */
+    public long getOutstanding(C client) {
+        return ring.get().requests.getOutstanding(client);
+    }
+
+    private int choose(Ring<C> local, long hash) {
+        if (local.hashes.length == 0) {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+
+        int pos = local.find(hash);
+        int owner = local.owners[pos];
+        if (epsilon <= 0) {
+            return owner;
+        }
+
+        long capacity = (long)Math.ceil((1 + epsilon) * (local.requests.getTotal() + 1) / local.requests.size());
+
+        // Walk the ring until a client below capacity is found.  One always exists unless
+        // the counters change concurrently, in which case fall back to the key's owner.
+        for (int i = 0; i < local.hashes.length; i++) {
+            int candidate = local.owners[(pos + i) % local.hashes.length];
+            if (local.requests.getOutstanding(candidate) < capacity) {
+                return candidate;
+            }
+        }
+        return owner;
+    }
+
+    @Override
+    public void shutdown() {
+        s.unsubscribe();
+    }
+
+    @Override
+    public Observable<C> all() {
+        return Observable.from(ring.get().requests.getClients());
+    }
+}
@@ -0,0 +1,243 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import netflix.ocelli.LoadBalancer;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Weighted random selection backed by a Fenwick (binary indexed) tree so that the
+ * weight of a single client can be changed in place without rebuilding any snapshot.
+ * This is useful for weights that are updated on every response, such as latency.
+ *
+ * The tree is only rebuilt when the client list changes, at which point surviving
+ * clients keep the last weight set for them and new clients get their initial weight.
+ *
+ * Weights are stored as fixed point longs so that concurrent updates are exact and
+ * lock free.  A selection that races with an update may see a partially applied
+ * update which only skews that one selection.
+ *
+ * Runtime complexity for both {@link #setWeight(Object, double)} and selection is O(log N)
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class FenwickWeightedLoadBalancer<C> extends LoadBalancer<C> {
+    public static <C> FenwickWeightedLoadBalancer<C> create(final Observable<List<C>> source) {
+        return new FenwickWeightedLoadBalancer<C>(source, DEFAULT_INITIAL_WEIGHT);
+    }
+
+    public static <C> FenwickWeightedLoadBalancer<C> create(final Observable<List<C>> source, final Func1<C, ? extends Number> initialWeight) {
+        return new FenwickWeightedLoadBalancer<C>(source, initialWeight);
+    }
+
+    private static final Func1<Object, Double> DEFAULT_INITIAL_WEIGHT = new Func1<Object, Double>() {
+        @Override
+        public Double call(Object t1) {
+            return 1.0;
+        }
+    };
+
+    /**
+     * Fixed point scale for weights, giving roughly 6 decimal digits of precision
+     */
+    private static final double SCALE = 1 << 20;
+
+    static class Tree<C> {
+        private final List<C> clients;
+        private final Map<C, Integer> index;
+        private final AtomicLongArray weights;
+        private final AtomicLongArray tree;
+        private final int topStep;
+
+        Tree(List<C> clients, Map<C, Long> overrides, Func1<? super C, ? extends Number> initialWeight) {
+            final int size = clients.size();
+
+            this.clients = clients;
+            this.index   = new HashMap<C, Integer>(size * 2);
+            this.weights = new AtomicLongArray(size);
+            this.topStep = size == 0 ? 0 : Integer.highestOneBit(size);
+
+            // Build the tree in O(N) by pushing each partial sum to its parent
+            long[] sums = new long[size + 1];
+            for (int i = 0; i < size; i++) {
+                C client = clients.get(i);
+                index.put(client, i);
+
+                Long override = overrides.get(client);
+                long weight = override != null ? override : toFixed(initialWeight.call(client).doubleValue());
+                weights.set(i, weight);
+                sums[i + 1] += weight;
+
+                int parent = (i + 1) + ((i + 1) & -(i + 1));
+                if (parent <= size) {
+                    sums[parent] += sums[i + 1];
+                }
+            }
+            this.tree = new AtomicLongArray(sums);
+        }
+
+        void set(int pos, long weight) {
+            long delta = weight - weights.getAndSet(pos, weight);
+            if (delta != 0) {
+                for (int i = pos + 1; i < tree.length(); i += i & -i) {
+                    tree.addAndGet(i, delta);
+                }
+            }
+        }
+
+        long total() {
+            long sum = 0;
+            for (int i = clients.size(); i > 0; i -= i & -i) {
+                sum += tree.get(i);
+            }
+            return sum;
+        }
+
+        /**
+         * @return Index of the client owning the value, i.e. the first client whose
+         *  prefix sum is greater than value
+         */
+        int find(long value) {
+            int pos = 0;
+            for (int step = topStep; step > 0; step >>= 1) {
+                int next = pos + step;
+                if (next < tree.length()) {
+                    long sum = tree.get(next);
+                    if (sum <= value) {
+                        pos = next;
+                        value -= sum;
+                    }
+                }
+            }
+            // A concurrent update can push the search past the end
+            return Math.min(pos, clients.size() - 1);
+        }
+    }
+
+    private static long toFixed(double weight) {
+        return weight <= 0 ? 0 : Math.round(weight * SCALE);
+    }
+
+    private final AtomicReference<Tree<C>> tree;
+    private final ConcurrentMap<C, Long> overrides = new ConcurrentHashMap<C, Long>();
+    private final Subscription s;
+
+    public FenwickWeightedLoadBalancer(final Observable<List<C>> source, final Func1<? super C, ? extends Number> initialWeight) {
+        this.tree = new AtomicReference<Tree<C>>(new Tree<C>(new ArrayList<C>(), overrides, initialWeight));
+        this.s = source
+            .subscribe(new Action1<List<C>>() {
+                @Override
+                public void call(List<C> clients) {
+                    Tree<C> next = new Tree<C>(clients, overrides, initialWeight);
+                    tree.set(next);
+
+                    // Re-apply weights set while the tree was being built and forget removed clients
+                    Iterator<Map.Entry<C, Long>> iter = overrides.entrySet().iterator();
+                    while (iter.hasNext()) {
+                        Map.Entry<C, Long> entry = iter.next();
+                        Integer pos = next.index.get(entry.getKey());
+                        if (pos != null) {
+                            // A concurrent setWeight may have replaced the value after it was read
+                            Long weight;
+                            do {
+                                weight = overrides.get(entry.getKey());
+                                if (weight == null) {
+                                    break;
+                                }
+                                next.set(pos, weight);
+                            } while (!weight.equals(overrides.get(entry.getKey())));
+                        }
+                        else {
+                            iter.remove();
+                        }
+                    }
+                }
+            });
+    }
+
+    /**
+     * Update the weight for a single client.  This is a no-op if the client is not
+     * currently in the load balancer.
+     *
+     * @param client
+     * @param weight    Non-negative weight
+     */
+    public void setWeight(C client, double weight) {
+        long fixed = toFixed(weight);
+        Tree<C> local = tree.get();
+        while (true) {
+            Integer pos = local.index.get(client);
+            if (pos == null) {
+                overrides.remove(client, fixed);
+                return;
+            }
+
+            // Record the weight before applying it so that a concurrent rebuild either
+            // picks it up or re-applies it to the new tree
+            overrides.put(client, fixed);
+            local.set(pos, fixed);
+
+            // A rebuild that finished re-applying overrides before the put above missed it
+            Tree<C> current = tree.get();
+            if (current == local) {
+                return;
+            }
+            local = current;
+        }
+    }
+
+    /**
+     * @return Current weight of the client or 0 if the client is not in the load balancer
+     */
+    public double getWeight(C client) {
+        Tree<C> local = tree.get();
+        Integer pos = local.index.get(client);
+        if (pos != null) {
+            return local.weights.get(pos) / SCALE;
+        }
+        return 0;
+    }
+
+    @Override
+    public C next() {
+        Tree<C> local = tree.get();
+        if (!local.clients.isEmpty()) {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            long total = local.total();
+            if (total <= 0) {
+                return local.clients.get(rand.nextInt(local.clients.size()));
+            }
+            else {
+                return local.clients.get(local.find(rand.nextLong(total)));
+            }
+        }
+        else {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        s.unsubscribe();
+    }
+
+    @Override
+    public Observable<C> all() {
+        return Observable.from(tree.get().clients);
+    }
+}
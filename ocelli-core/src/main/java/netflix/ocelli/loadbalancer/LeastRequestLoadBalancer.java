@@ -0,0 +1,50 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+
+import netflix.ocelli.Lease;
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Load balancer that picks the better of two random clients based on the number of
+ * requests outstanding on each, optionally divided by a per client weight.  Outstanding
+ * requests are tracked by the load balancer itself through the {@link Lease}s it hands
+ * out from {@link #acquire()} so that this works for any transport.  Calling
+ * {@link #next()} directly chooses a client without counting it as outstanding.
+ *
+ * This is a {@link ChoiceOfKLoadBalancer} with K=2 and no load bound.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class LeastRequestLoadBalancer<C> extends ChoiceOfKLoadBalancer<C> {
+    public static <C> LeastRequestLoadBalancer<C> create(final Observable<List<C>> source) {
+        return new LeastRequestLoadBalancer<C>(source, null);
+    }
+
+    /**
+     * @param weight    Weight of each client.  A client with twice the weight is expected
+     *                  to handle twice the number of outstanding requests.
+     */
+    public static <C> LeastRequestLoadBalancer<C> create(final Observable<List<C>> source, final Func1<C, ? extends Number> weight) {
+        return new LeastRequestLoadBalancer<C>(source, weight);
+    }
+
+    private final Func1<C, ? extends Number> weight;
+
+    public LeastRequestLoadBalancer(final Observable<List<C>> source, final Func1<C, ? extends Number> weight) {
+        super(source, 2, null, 0, false);
+        this.weight = weight;
+    }
+
+    @Override
+    protected double score(C client, long outstanding) {
+        if (weight == null) {
+            return outstanding;
+        }
+        double w = weight.call(client).doubleValue();
+        return w > 0 ? (outstanding + 1) / w : Double.MAX_VALUE;
+    }
+}
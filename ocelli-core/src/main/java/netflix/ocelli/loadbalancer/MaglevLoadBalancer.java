@@ -0,0 +1,167 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import netflix.ocelli.KeyedLoadBalancer;
+import netflix.ocelli.util.Hashing;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Hashing load balancer based on the Maglev lookup table.  Each client fills slots of a
+ * fixed size prime lookup table following its own permutation of the table, taking turns
+ * with the other clients, so that every client owns almost exactly the same number of
+ * slots.  Routing a key is then a single array lookup.
+ *
+ * The table is rebuilt whenever the client list changes.  Since each client's permutation
+ * only depends on its hash, most slots keep their owner when a client is added or removed.
+ * For minimal disruption the table size should be much larger than the number of clients.
+ *
+ * See 'Maglev: A Fast and Reliable Software Network Load Balancer'
+ * http://research.google.com/pubs/pub44824.html
+ *
+ * @author elandau
+ *
+ * @param <K>
+ * @param <C>
+ */
+public class MaglevLoadBalancer<K, C> extends KeyedLoadBalancer<K, C> {
+    public static final int DEFAULT_TABLE_SIZE = 65537;
+
+    public static <K, C> MaglevLoadBalancer<K, C> create(final Observable<List<C>> source) {
+        return new MaglevLoadBalancer<K, C>(source, Hashing.<K>defaultHash(), DEFAULT_TABLE_SIZE);
+    }
+
+    static class Table<C> {
+        private final List<C> clients;
+        private final int[] entries;
+
+        Table(List<C> clients, int tableSize) {
+            this.clients = clients;
+
+            int size = clients.size();
+            if (size == 0) {
+                this.entries = new int[0];
+                return;
+            }
+
+            int M = nextPrime(Math.max(tableSize, size));
+
+            // Fill in order of client hash so that the table doesn't depend on the order
+            // of the client list
+            long[] hashes = new long[size];
+            for (int i = 0; i < size; i++) {
+                hashes[i] = (Hashing.hash(clients.get(i)) & ~0xFFFFFFFFL) | i;
+            }
+            Arrays.sort(hashes);
+
+            int[] offset = new int[size];
+            int[] skip   = new int[size];
+            int[] next   = new int[size];
+            for (int i = 0; i < size; i++) {
+                long h = Hashing.hash(clients.get((int)hashes[i]));
+                offset[i] = (int)((h >>> 32) % M);
+                skip[i]   = (int)((h & 0xFFFFFFFFL) % (M - 1)) + 1;
+            }
+
+            int[] table = new int[M];
+            Arrays.fill(table, -1);
+
+            int filled = 0;
+            while (true) {
+                for (int i = 0; i < size; i++) {
+                    int c;
+                    do {
+                        c = (int)((offset[i] + (long)next[i] * skip[i]) % M);
+                        next[i]++;
+                    } while (table[c] >= 0);
+
+                    table[c] = (int)hashes[i];
+                    if (++filled == M) {
+                        this.entries = table;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    static int nextPrime(int n) {
+        for (int candidate = Math.max(n, 2); ; candidate++) {
+            if (isPrime(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static boolean isPrime(int n) {
+        if (n < 4) {
+            return n > 1;
+        }
+        if (n % 2 == 0) {
+            return false;
+        }
+        for (int i = 3; (long)i * i <= n; i += 2) {
+            if (n % i == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final AtomicReference<Table<C>> table;
+    private final Func1<K, Long> hashFunc;
+    private final Subscription s;
+
+    /**
+     * @param source    Source of the current list of active clients
+     * @param hashFunc  Function to hash a key
+     * @param tableSize Size of the lookup table.  Rounded up to the next prime.
+     */
+    public MaglevLoadBalancer(final Observable<List<C>> source, final Func1<K, Long> hashFunc, final int tableSize) {
+        this.hashFunc = hashFunc;
+        this.table = new AtomicReference<Table<C>>(new Table<C>(new ArrayList<C>(), tableSize));
+        this.s = source
+            .subscribe(new Action1<List<C>>() {
+                @Override
+                public void call(List<C> clients) {
+                    table.set(new Table<C>(clients, tableSize));
+                }
+            });
+    }
+
+    @Override
+    public C next(K key) {
+        return choose(hashFunc.call(key));
+    }
+
+    @Override
+    public C next() {
+        return choose(ThreadLocalRandom.current().nextLong());
+    }
+
+    private C choose(long hash) {
+        Table<C> local = table.get();
+        if (local.entries.length == 0) {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+        return local.clients.get(local.entries[(int)((hash & Long.MAX_VALUE) % local.entries.length)]);
+    }
+
+    @Override
+    public void shutdown() {
+        s.unsubscribe();
+    }
+
+    @Override
+    public Observable<C> all() {
+        return Observable.from(table.get().clients);
+    }
+}
@@ -0,0 +1,132 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import netflix.ocelli.Lease;
+import netflix.ocelli.util.PaddedAtomicLong;
+
+/**
+ * Immutable snapshot of a client list along with the number of requests outstanding on
+ * each client and in total, shared by the load balancers that track their own leases.
+ * Each client has its own cache line padded counter so that completing requests on
+ * different clients never contend.  Counters of clients that survive a change to the
+ * client list, as well as the total, are carried over to the new snapshot.  Requests
+ * still outstanding on a removed client stop counting towards the total so that the
+ * total only reflects the current clients.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+class OutstandingRequests<C> {
+    /**
+     * Added to the counter of a removed client so that leases still outstanding on it
+     * can tell that they no longer count towards the total
+     */
+    private static final long RETIRED = Long.MIN_VALUE / 2;
+
+    private final List<C> clients;
+    private final PaddedAtomicLong[] counters;
+    private final Map<C, PaddedAtomicLong> index;
+    private final PaddedAtomicLong total;
+
+    /**
+     * @param clients   Current list of clients
+     * @param previous  Snapshot to carry counters over from, or null
+     */
+    OutstandingRequests(List<C> clients, OutstandingRequests<C> previous) {
+        this.clients  = clients;
+        this.counters = new PaddedAtomicLong[clients.size()];
+        this.index    = new HashMap<C, PaddedAtomicLong>(clients.size() * 2);
+        this.total    = previous == null ? new PaddedAtomicLong() : previous.total;
+
+        for (int i = 0; i < counters.length; i++) {
+            C client = clients.get(i);
+            PaddedAtomicLong counter = previous == null ? null : previous.index.get(client);
+            if (counter == null) {
+                counter = new PaddedAtomicLong();
+            }
+            counters[i] = counter;
+            index.put(client, counter);
+        }
+
+        if (previous != null) {
+            for (Map.Entry<C, PaddedAtomicLong> entry : previous.index.entrySet()) {
+                if (!index.containsKey(entry.getKey())) {
+                    total.addAndGet(-entry.getValue().getAndAdd(RETIRED));
+                }
+            }
+        }
+    }
+
+    private static long count(PaddedAtomicLong counter) {
+        long value = counter.get();
+        return value < 0 ? value - RETIRED : value;
+    }
+
+    List<C> getClients() {
+        return clients;
+    }
+
+    int size() {
+        return counters.length;
+    }
+
+    C get(int pos) {
+        return clients.get(pos);
+    }
+
+    long getOutstanding(int pos) {
+        return count(counters[pos]);
+    }
+
+    /**
+     * @return Number of requests outstanding on the client or 0 if the client is not
+     *  in the snapshot
+     */
+    long getOutstanding(C client) {
+        PaddedAtomicLong counter = index.get(client);
+        return counter == null ? 0 : count(counter);
+    }
+
+    /**
+     * @return Number of requests outstanding on all clients
+     */
+    long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return Lease on the client at pos that counts as outstanding until it is completed
+     */
+    Lease<C> acquire(int pos) {
+        return new CountingLease<C>(clients.get(pos), counters[pos], total);
+    }
+
+    /**
+     * Lease that only counts towards the total while its client hasn't been removed.  A
+     * lease acquired from a stale snapshot after the client was removed never counts.
+     */
+    private static class CountingLease<C> extends Lease<C> {
+        private final PaddedAtomicLong counter;
+        private final PaddedAtomicLong total;
+
+        CountingLease(C client, PaddedAtomicLong counter, PaddedAtomicLong total) {
+            super(client);
+            this.counter = counter;
+            this.total = total;
+            if (counter.incrementAndGet() > 0) {
+                total.incrementAndGet();
+            }
+        }
+
+        @Override
+        protected void onRelease(Throwable error) {
+            if (counter.decrementAndGet() >= 0) {
+                total.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import netflix.ocelli.InstanceTiers;
+import rx.Observable;
+import rx.Observable.Transformer;
+import rx.functions.Func1;
+
+/**
+ * Turn the tiers of healthy and unhealthy instances from a 
+ * {@link netflix.ocelli.TieredInstanceCollector} into the list of clients for a load balancer.
+ * Normally only the healthy clients are used.  When the fraction of healthy clients drops 
+ * below the threshold the load balancer enters panic mode and routes across all known clients,
+ * since sending all traffic to the few survivors of a correlated failure will most likely
+ * overload them as well.
+ * 
+ * Use {@link #getWeight()} with a weighted load balancer so that unhealthy clients receive a
+ * smaller share of traffic while in panic mode,
+ * 
+ *  RandomWeightedLoadBalancer.create(tiers.compose(panic), Weightings.identity(panic.getWeight()))
+ * 
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class PanicThreshold<C> implements Transformer<InstanceTiers<C>, List<C>> {
+    public static final double DEFAULT_THRESHOLD        = 0.5;
+    public static final double DEFAULT_UNHEALTHY_WEIGHT = 0.5;
+    
+    public static <C> PanicThreshold<C> create() {
+        return new PanicThreshold<C>(DEFAULT_THRESHOLD, DEFAULT_UNHEALTHY_WEIGHT);
+    }
+    
+    public static <C> PanicThreshold<C> create(double threshold) {
+        return new PanicThreshold<C>(threshold, DEFAULT_UNHEALTHY_WEIGHT);
+    }
+    
+    private final double threshold;
+    private final double unhealthyWeight;
+    private volatile Set<C> panicking = Collections.emptySet();
+    
+    /**
+     * @param threshold         Fraction of healthy clients below which to enter panic mode
+     * @param unhealthyWeight   Weight of an unhealthy client relative to a healthy client while
+     *                          in panic mode
+     */
+    public PanicThreshold(double threshold, double unhealthyWeight) {
+        if (threshold < 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be in [0, 1]");
+        }
+        if (unhealthyWeight < 0) {
+            throw new IllegalArgumentException("Unhealthy weight must not be negative");
+        }
+        this.threshold = threshold;
+        this.unhealthyWeight = unhealthyWeight;
+    }
+    
+    /**
+     * @return True if the last tiers were below the threshold
+     */
+    public boolean isPanic() {
+        return !panicking.isEmpty();
+    }
+    
+    /**
+     * @return Function returning 1 for a healthy client and the unhealthy weight for an
+     *  unhealthy client in panic mode.  The weight is flat, every unhealthy client gets the 
+     *  same weight regardless of how long or how badly it has been failing.
+     */
+    public Func1<C, Double> getWeight() {
+        return new Func1<C, Double>() {
+            @Override
+            public Double call(C client) {
+                return panicking.contains(client) ? unhealthyWeight : 1.0;
+            }
+        };
+    }
+    
+    @Override
+    public Observable<List<C>> call(Observable<InstanceTiers<C>> o) {
+        return o.map(new Func1<InstanceTiers<C>, List<C>>() {
+            @Override
+            public List<C> call(InstanceTiers<C> tiers) {
+                if (tiers.getUnhealthy().isEmpty() || tiers.getHealthyFraction() >= threshold) {
+                    panicking = Collections.emptySet();
+                    return tiers.getHealthy();
+                }
+                
+                // Set the weights before handing out the list that uses them
+                panicking = new HashSet<C>(tiers.getUnhealthy());
+                
+                List<C> all = new ArrayList<C>(tiers.getHealthy().size() + tiers.getUnhealthy().size());
+                all.addAll(tiers.getHealthy());
+                all.addAll(tiers.getUnhealthy());
+                return all;
+            }
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+
+import netflix.ocelli.stats.PeakEwma;
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Latency aware load balancer that picks the better of two random clients where the
+ * cost of a client is its peak sensitive latency (see {@link PeakEwma}) multiplied by
+ * the number of requests outstanding on it plus one.  Combining the two steers traffic
+ * away from a host within a few requests of it slowing down, even before any of its
+ * slow responses complete.
+ *
+ * The load balancer works with any client type.  Latency and outstanding requests are
+ * provided by functions, typically reading a {@link PeakEwma} and a counter kept by
+ * the client itself.  The latency function returns NaN for a client without any latency
+ * samples, see {@link #latency(Func1)}, so that an actual latency of 0, such as a sub
+ * millisecond host or one whose average decayed while idle, is never mistaken for a new
+ * client.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class PeakEwmaLoadBalancer<C> extends ChoiceOfKLoadBalancer<C> {
+    /**
+     * Cost of a client that has requests outstanding but no latency samples yet, so that
+     * a new client receives a single probe rather than a burst of requests
+     */
+    public static final double DEFAULT_PENALTY = Integer.MAX_VALUE;
+
+    public static <C> PeakEwmaLoadBalancer<C> create(
+            final Observable<List<C>> source,
+            final Func1<C, ? extends Number> latency,
+            final Func1<C, ? extends Number> pending) {
+        return new PeakEwmaLoadBalancer<C>(source, latency, pending, DEFAULT_PENALTY);
+    }
+
+    /**
+     * @param decorator Function decorating the cost of each client, such as
+     *                  {@link netflix.ocelli.loadbalancer.weighting.SlowStart#scoring()}
+     */
+    public static <C> PeakEwmaLoadBalancer<C> create(
+            final Observable<List<C>> source,
+            final Func1<C, ? extends Number> latency,
+            final Func1<C, ? extends Number> pending,
+            final Func1<Func1<C, Double>, Func1<C, Double>> decorator) {
+        return new PeakEwmaLoadBalancer<C>(source, decorator.call(cost(latency, pending, DEFAULT_PENALTY)));
+    }
+
+    /**
+     * @return Latency function reading the unrounded latency of a client's {@link PeakEwma},
+     *  or NaN if it has no samples yet
+     */
+    public static <C> Func1<C, Double> latency(final Func1<C, PeakEwma> ewma) {
+        return new Func1<C, Double>() {
+            @Override
+            public Double call(C client) {
+                PeakEwma metric = ewma.call(client);
+                return metric.hasSample() ? metric.getLatency() : Double.NaN;
+            }
+        };
+    }
+
+    /**
+     * @param source    Source of the current list of active clients
+     * @param latency   Function returning the peak EWMA latency of a client or NaN if
+     *                  there are no latency samples for the client yet
+     * @param pending   Function returning the number of outstanding requests on a client
+     * @param penalty   Cost of a client with outstanding requests and no latency samples
+     */
+    public PeakEwmaLoadBalancer(
+            final Observable<List<C>> source,
+            final Func1<C, ? extends Number> latency,
+            final Func1<C, ? extends Number> pending,
+            final double penalty) {
+        this(source, cost(latency, pending, penalty));
+    }
+
+    /**
+     * @param source    Source of the current list of active clients
+     * @param cost      Function returning the cost of a client, typically a decorated
+     *                  {@link #cost(Func1, Func1, double)}
+     */
+    public PeakEwmaLoadBalancer(
+            final Observable<List<C>> source,
+            final Func1<C, Double> cost) {
+        super(source, 2, cost, 0, false);
+    }
+
+    /**
+     * @return Function computing the cost of a client as latency * (pending + 1)
+     */
+    public static <C> Func1<C, Double> cost(
+            final Func1<C, ? extends Number> latency,
+            final Func1<C, ? extends Number> pending,
+            final double penalty) {
+        return new Func1<C, Double>() {
+            @Override
+            public Double call(C client) {
+                double rtt = latency.call(client).doubleValue();
+                double outstanding = pending.call(client).doubleValue();
+                if (Double.isNaN(rtt)) {
+                    return outstanding > 0 ? penalty + outstanding : 0;
+                }
+                return rtt * (outstanding + 1);
+            }
+        };
+    }
+}
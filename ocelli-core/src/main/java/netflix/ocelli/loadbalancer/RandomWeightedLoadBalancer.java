@@ -1,14 +1,15 @@
 package netflix.ocelli.loadbalancer;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import netflix.ocelli.loadbalancer.weighting.ClientsAndWeights;
 import netflix.ocelli.loadbalancer.weighting.WeightingStrategy;
 import rx.Observable;
-import rx.Subscriber;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
 
 /**
  * Select the next element using a random number.  
@@ -18,48 +19,50 @@ import rx.Subscriber;
  * possible to do a simple binary search using a random number from 0 to 
  * total weights.
  * 
+ * The weights are computed by the {@link WeightingStrategy} into a snapshot
+ * that is rebuilt whenever the client list changes and on a refresh interval
+ * (see {@link BaseLoadBalancer}) rather than on every selection.
+ * 
  * Runtime complexity is O(log N)
  * 
  * @author elandau
  *
  */
 public class RandomWeightedLoadBalancer<C> extends BaseLoadBalancer<C> {
+    public static final long DEFAULT_REFRESH_INTERVAL_MSEC = 1000;
+    
     public static <C> RandomWeightedLoadBalancer<C> create(final Observable<List<C>> source, final WeightingStrategy<C> strategy) {
         return new RandomWeightedLoadBalancer<C>(source, strategy);
     }
     
+    public static <C> RandomWeightedLoadBalancer<C> create(final Observable<List<C>> source, final WeightingStrategy<C> strategy, long refreshInterval, TimeUnit units) {
+        return new RandomWeightedLoadBalancer<C>(source, strategy, refreshInterval, units, Schedulers.computation());
+    }
+    
     private final Random rand = new Random();
-    private final WeightingStrategy<C> strategy;
     
     public RandomWeightedLoadBalancer(final Observable<List<C>> source, final WeightingStrategy<C> strategy) {
-        super(source);
-        
-        this.strategy = strategy;
+        this(source, strategy, DEFAULT_REFRESH_INTERVAL_MSEC, TimeUnit.MILLISECONDS, Schedulers.computation());
+    }
+
+    public RandomWeightedLoadBalancer(final Observable<List<C>> source, final WeightingStrategy<C> strategy, long refreshInterval, TimeUnit units, Scheduler scheduler) {
+        super(source, strategy, refreshInterval, units, scheduler);
     }
 
     @Override
-    public void call(Subscriber<? super C> s) {
-        final ClientsAndWeights<C> caw = strategy.call(clients.get());
+    public C next() {
+        final ClientsAndWeights<C> caw = weights.get();
         if (!caw.isEmpty()) {
-            int total = caw.getTotalWeights();
+            double total = caw.getTotalWeight();
             if (total == 0) {
-                s.onNext(caw.getClient(rand.nextInt(caw.size())));
+                return caw.getClient(rand.nextInt(caw.size()));
             }
             else {
-                int pos = Collections.binarySearch(caw.getWeights(), rand.nextInt(total));
-                if (pos >= 0) {
-                    pos = pos+1;
-                }
-                else {
-                    pos = -(pos) - 1;
-                }
-
-                s.onNext(caw.getClient(pos));
+                return caw.getClient(caw.indexOf(rand.nextDouble() * total));
             }
-            s.onCompleted();
         }
         else {
-            s.onError(new NoSuchElementException("No servers available in the load balancer"));
+            throw new NoSuchElementException("No servers available in the load balancer");
         }
     }
 }
@@ -0,0 +1,181 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import netflix.ocelli.KeyedLoadBalancer;
+import netflix.ocelli.util.Hashing;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Weighted rendezvous (highest random weight) hashing load balancer.  Every client is
+ * scored against the key and the highest scoring client wins, so no ring or table is
+ * needed and removing a client only re-homes the keys it owned.  The score for a client
+ * with weight w is -w / ln(u) where u is a uniform hash of the key and client, which
+ * gives each client a share of the keys proportional to its weight.
+ *
+ * Selection is O(N) and doesn't allocate, which makes this a good fit for small sets
+ * of clients such as the replicas of a single shard.  {@link #next(Object, Object[])}
+ * returns the K highest scoring clients for fanning out to replicas.
+ *
+ * @author elandau
+ *
+ * @param <K>
+ * @param <C>
+ */
+public class RendezvousLoadBalancer<K, C> extends KeyedLoadBalancer<K, C> {
+    public static <K, C> RendezvousLoadBalancer<K, C> create(final Observable<List<C>> source) {
+        return new RendezvousLoadBalancer<K, C>(source, Hashing.<K>defaultHash(), null);
+    }
+
+    public static <K, C> RendezvousLoadBalancer<K, C> create(final Observable<List<C>> source, final Func1<C, ? extends Number> weight) {
+        return new RendezvousLoadBalancer<K, C>(source, Hashing.<K>defaultHash(), weight);
+    }
+
+    /**
+     * Scratch space for the scores of the top K clients so that selection doesn't allocate
+     */
+    private static final ThreadLocal<double[]> SCORES = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[16];
+        }
+    };
+
+    static class Table<C> {
+        private final List<C> clients;
+        private final long[] hashes;
+        private final double[] weights;
+
+        Table(List<C> clients, Func1<C, ? extends Number> weight) {
+            this.clients = clients;
+            this.hashes  = new long[clients.size()];
+            this.weights = new double[clients.size()];
+            for (int i = 0; i < hashes.length; i++) {
+                C client = clients.get(i);
+                hashes[i]  = Hashing.hash(client);
+                weights[i] = weight == null ? 1.0 : Math.max(0, weight.call(client).doubleValue());
+            }
+        }
+
+        double score(int pos, long keyHash) {
+            if (weights[pos] == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            // Top 53 bits mapped to (0, 1)
+            double u = ((Hashing.mix(keyHash ^ hashes[pos]) >>> 11) + 0.5) / (1L << 53);
+            return -weights[pos] / Math.log(u);
+        }
+    }
+
+    private final AtomicReference<Table<C>> table;
+    private final Func1<K, Long> hashFunc;
+    private final Subscription s;
+
+    /**
+     * @param source    Source of the current list of active clients
+     * @param hashFunc  Function to hash a key
+     * @param weight    Weight of each client, sampled when the client list changes.
+     *                  Null for equal weights.
+     */
+    public RendezvousLoadBalancer(final Observable<List<C>> source, final Func1<K, Long> hashFunc, final Func1<C, ? extends Number> weight) {
+        this.hashFunc = hashFunc;
+        this.table = new AtomicReference<Table<C>>(new Table<C>(new ArrayList<C>(), weight));
+        this.s = source
+            .subscribe(new Action1<List<C>>() {
+                @Override
+                public void call(List<C> clients) {
+                    table.set(new Table<C>(clients, weight));
+                }
+            });
+    }
+
+    @Override
+    public C next(K key) {
+        return choose(hashFunc.call(key));
+    }
+
+    @Override
+    public C next() {
+        return choose(ThreadLocalRandom.current().nextLong());
+    }
+
+    private C choose(long keyHash) {
+        Table<C> local = table.get();
+        if (local.hashes.length == 0) {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+
+        int best = 0;
+        double bestScore = local.score(0, keyHash);
+        for (int i = 1; i < local.hashes.length; i++) {
+            double score = local.score(i, keyHash);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return local.clients.get(best);
+    }
+
+    /**
+     * Fill result with the highest scoring clients for the key, in order of score.
+     *
+     * @param key
+     * @param result    Array to fill.  Its length is the number of clients to choose.
+     * @return Number of clients placed in result, which is less than result.length if
+     *  there are fewer clients
+     * @throws NoSuchElementException if there are no clients available
+     */
+    public int next(K key, C[] result) {
+        Table<C> local = table.get();
+        if (local.hashes.length == 0) {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+
+        int k = Math.min(result.length, local.hashes.length);
+        double[] scores = SCORES.get();
+        if (scores.length < k) {
+            scores = new double[k];
+            SCORES.set(scores);
+        }
+
+        long keyHash = hashFunc.call(key);
+        int count = 0;
+        for (int i = 0; i < local.hashes.length; i++) {
+            double score = local.score(i, keyHash);
+            if (count == k && score <= scores[k - 1]) {
+                continue;
+            }
+
+            // Insertion into the sorted top k
+            int pos = count < k ? count++ : k - 1;
+            while (pos > 0 && scores[pos - 1] < score) {
+                scores[pos] = scores[pos - 1];
+                result[pos] = result[pos - 1];
+                pos--;
+            }
+            scores[pos] = score;
+            result[pos] = local.clients.get(i);
+        }
+        Arrays.fill(result, count, result.length, null);
+        return count;
+    }
+
+    @Override
+    public void shutdown() {
+        s.unsubscribe();
+    }
+
+    @Override
+    public Observable<C> all() {
+        return Observable.from(table.get().clients);
+    }
+}
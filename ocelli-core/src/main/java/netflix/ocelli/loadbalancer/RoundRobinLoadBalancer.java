@@ -7,7 +7,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import netflix.ocelli.LoadBalancer;
 import rx.Observable;
-import rx.Subscriber;
 import rx.functions.Func1;
 
 /**
@@ -40,23 +39,20 @@ public class RoundRobinLoadBalancer<C> extends BaseLoadBalancer<C> {
     
     RoundRobinLoadBalancer(final Observable<List<C>> source, int seedPosition) {
         super(source);
-        position = new AtomicInteger(-1);
+        position = new AtomicInteger(seedPosition);
     }
 
     @Override
-    public void call(Subscriber<? super C> s) {
+    public C next() {
         List<C> local = clients.get();
         if (local.size() > 0) {
-            int pos = position.incrementAndGet();
-            while (pos < 0) {
-                position.compareAndSet(pos, 0);
-                pos = position.incrementAndGet();
-            }
-            s.onNext(local.get(pos % local.size()));
-            s.onCompleted();
+            // Mask off the sign bit instead of resetting the counter on overflow
+            // so that there's no CAS loop and any seed, including negative, is valid
+            int pos = position.incrementAndGet() & Integer.MAX_VALUE;
+            return local.get(pos % local.size());
         }                
         else {
-            s.onError(new NoSuchElementException("No servers available in the load balancer"));
+            throw new NoSuchElementException("No servers available in the load balancer");
         }
     }
 }
@@ -0,0 +1,277 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import netflix.ocelli.loadbalancer.weighting.ClientsAndWeights;
+import netflix.ocelli.loadbalancer.weighting.WeightingStrategy;
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Weighted round robin using the smooth weighted round robin algorithm from nginx, which
+ * interleaves clients so that weights are honored over every cycle rather than on
+ * average as with {@link RandomWeightedLoadBalancer}.  For weights 5, 1, 1 the sequence
+ * is a, a, b, a, c, a, a rather than a, a, a, a, a, b, c.
+ *
+ * The interleaved sequence for a full cycle is precomputed into a schedule whenever the
+ * weights change and selection is a single atomic increment of an index into it.
+ * Shares are exact when the weights are whole numbers that sum to at most
+ * {@link #MAX_CYCLE_LENGTH}.  Other weights are apportioned to a cycle of MAX_CYCLE_LENGTH
+ * slots using largest remainders, so each share is within 1/MAX_CYCLE_LENGTH of its weight,
+ * except that a client with a non zero weight always gets at least one slot.  A canary
+ * with 1% of the weight therefore gets exactly 1%, but one with 0.001% gets 0.01%.
+ *
+ * Clients with the same weight are picked in turn, so building the schedule only needs to
+ * compare one candidate per distinct weight for each slot.  Build complexity is
+ * O(cycle length * distinct weights + N) and runtime complexity is O(1).
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class SmoothWeightedRoundRobinLoadBalancer<C> extends BaseLoadBalancer<C> {
+    public static final int MAX_CYCLE_LENGTH = 10000;
+
+    public static <C> SmoothWeightedRoundRobinLoadBalancer<C> create(final Observable<List<C>> source, final WeightingStrategy<C> strategy) {
+        return new SmoothWeightedRoundRobinLoadBalancer<C>(source, strategy);
+    }
+
+    public static <C> SmoothWeightedRoundRobinLoadBalancer<C> create(final Observable<List<C>> source, final WeightingStrategy<C> strategy, long refreshInterval, TimeUnit units) {
+        return new SmoothWeightedRoundRobinLoadBalancer<C>(source, strategy, refreshInterval, units, Schedulers.computation());
+    }
+
+    /**
+     * Immutable schedule for a single snapshot of clients and weights
+     */
+    static class Schedule<C> extends ClientsAndWeights<C> {
+        private final int[] schedule;
+
+        Schedule(ClientsAndWeights<C> caw) {
+            super(caw.getClients(), caw.getCumulativeWeights());
+
+            final int size = caw.size();
+            if (size == 0) {
+                this.schedule = new int[0];
+                return;
+            }
+
+            int[] weights = toIntegerWeights(caw);
+            int cycle = 0;
+            for (int weight : weights) {
+                cycle += weight;
+            }
+
+            // All weights are 0
+            if (cycle == 0) {
+                Arrays.fill(weights, 1);
+                cycle = size;
+            }
+
+            this.schedule = build(weights, cycle);
+        }
+
+        /**
+         * Run smooth weighted round robin for a full cycle.  At each step every client's
+         * current weight grows by its weight and the client with the highest current weight,
+         * the lowest index on ties, is picked and reduced by the cycle length.  After t steps
+         * a client's current weight is t * weight - cycle * picks, so among clients with the
+         * same weight the one with the fewest picks and then the lowest index is the best,
+         * which is simply the next one in index order.  Only one candidate per distinct
+         * weight needs to be compared.
+         */
+        private static int[] build(int[] weights, int cycle) {
+            // Group the clients with a non zero weight by weight, in index order
+            Map<Integer, List<Integer>> byWeight = new LinkedHashMap<Integer, List<Integer>>();
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] > 0) {
+                    List<Integer> members = byWeight.get(weights[i]);
+                    if (members == null) {
+                        members = new ArrayList<Integer>();
+                        byWeight.put(weights[i], members);
+                    }
+                    members.add(i);
+                }
+            }
+
+            final int groups = byWeight.size();
+            int[]   groupWeight  = new int[groups];
+            int[][] groupMembers = new int[groups][];
+            int g = 0;
+            for (Map.Entry<Integer, List<Integer>> entry : byWeight.entrySet()) {
+                groupWeight[g] = entry.getKey();
+                groupMembers[g] = new int[entry.getValue().size()];
+                for (int i = 0; i < groupMembers[g].length; i++) {
+                    groupMembers[g][i] = entry.getValue().get(i);
+                }
+                g++;
+            }
+
+            int[] schedule = new int[cycle];
+            long[] groupPicks = new long[groups];
+            for (int t = 1; t <= cycle; t++) {
+                int  best = -1;
+                long bestCurrent = 0;
+                int  bestIndex = 0;
+                for (g = 0; g < groups; g++) {
+                    int  size    = groupMembers[g].length;
+                    int  index   = groupMembers[g][(int)(groupPicks[g] % size)];
+                    long current = (long)t * groupWeight[g] - (long)cycle * (groupPicks[g] / size);
+                    if (best == -1 || current > bestCurrent || (current == bestCurrent && index < bestIndex)) {
+                        best = g;
+                        bestCurrent = current;
+                        bestIndex = index;
+                    }
+                }
+                groupPicks[best]++;
+                schedule[t - 1] = bestIndex;
+            }
+            return schedule;
+        }
+
+        private static int[] toIntegerWeights(ClientsAndWeights<?> caw) {
+            final int size = caw.size();
+            double total = caw.getTotalWeight();
+
+            double[] weights = new double[size];
+            boolean integral = total <= MAX_CYCLE_LENGTH;
+            for (int i = 0; i < size; i++) {
+                weights[i] = total <= 0 ? 1.0 : caw.getCumulativeWeight(i) - (i == 0 ? 0 : caw.getCumulativeWeight(i-1));
+                if (weights[i] != Math.rint(weights[i])) {
+                    integral = false;
+                }
+            }
+
+            int[] result = new int[size];
+            if (integral) {
+                for (int i = 0; i < size; i++) {
+                    result[i] = weights[i] <= 0 ? 0 : (int)weights[i];
+                }
+            }
+            else {
+                apportion(weights, total <= 0 ? size : total, result);
+            }
+
+            // Shortest cycle with the same ratios
+            int gcd = 0;
+            for (int i = 0; i < size; i++) {
+                gcd = gcd(gcd, result[i]);
+            }
+            if (gcd > 1) {
+                for (int i = 0; i < size; i++) {
+                    result[i] /= gcd;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Apportion MAX_CYCLE_LENGTH slots by largest remainder, giving every client with a
+         * non zero weight at least one slot
+         */
+        private static void apportion(double[] weights, double total, int[] result) {
+            final int size = weights.length;
+            double[] remainders = new double[size];
+            int assigned = 0;
+            for (int i = 0; i < size; i++) {
+                if (weights[i] > 0) {
+                    double quota = weights[i] * MAX_CYCLE_LENGTH / total;
+                    result[i] = (int)quota;
+                    remainders[i] = quota - result[i];
+                    assigned += result[i];
+                }
+            }
+
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            final double[] r = remainders;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(r[o2], r[o1]);
+                }
+            });
+            for (int i = 0; i < size && assigned < MAX_CYCLE_LENGTH; i++) {
+                if (weights[order[i]] > 0) {
+                    result[order[i]]++;
+                    assigned++;
+                }
+            }
+
+            for (int i = 0; i < size; i++) {
+                if (weights[i] > 0 && result[i] == 0) {
+                    result[i] = 1;
+                }
+            }
+        }
+
+        private static int gcd(int a, int b) {
+            while (b != 0) {
+                int t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+
+        boolean sameAs(ClientsAndWeights<C> caw) {
+            return getClients() == caw.getClients() && Arrays.equals(getCumulativeWeights(), caw.getCumulativeWeights());
+        }
+    }
+
+    /**
+     * Decorate a WeightingStrategy so that the snapshot kept by the base load balancer
+     * is the schedule itself.  The previous schedule is kept if the clients and weights
+     * haven't changed so that periodic refreshes don't restart the cycle.
+     */
+    private static <C> WeightingStrategy<C> toSchedule(final WeightingStrategy<C> strategy) {
+        return new WeightingStrategy<C>() {
+            private final AtomicReference<Schedule<C>> last = new AtomicReference<Schedule<C>>();
+
+            @Override
+            public ClientsAndWeights<C> call(List<C> clients) {
+                ClientsAndWeights<C> caw = strategy.call(clients);
+                Schedule<C> prev = last.get();
+                if (prev != null && prev.sameAs(caw)) {
+                    return prev;
+                }
+                Schedule<C> schedule = new Schedule<C>(caw);
+                last.set(schedule);
+                return schedule;
+            }
+        };
+    }
+
+    private final AtomicInteger position = new AtomicInteger();
+
+    public SmoothWeightedRoundRobinLoadBalancer(final Observable<List<C>> source, final WeightingStrategy<C> strategy) {
+        this(source, strategy, RandomWeightedLoadBalancer.DEFAULT_REFRESH_INTERVAL_MSEC, TimeUnit.MILLISECONDS, Schedulers.computation());
+    }
+
+    public SmoothWeightedRoundRobinLoadBalancer(final Observable<List<C>> source, final WeightingStrategy<C> strategy, long refreshInterval, TimeUnit units, Scheduler scheduler) {
+        super(source, toSchedule(strategy), refreshInterval, units, scheduler);
+    }
+
+    @Override
+    public C next() {
+        Schedule<C> local = (Schedule<C>) weights.get();
+        if (!local.isEmpty()) {
+            int pos = position.getAndIncrement() & Integer.MAX_VALUE;
+            return local.getClient(local.schedule[pos % local.schedule.length]);
+        }
+        else {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+    }
+}
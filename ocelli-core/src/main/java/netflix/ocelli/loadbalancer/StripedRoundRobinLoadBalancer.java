@@ -0,0 +1,85 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import netflix.ocelli.LoadBalancer;
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Round robin LoadBalancer that avoids contending on a single shared counter.  
+ * Instead of incrementing the shared position for every selection each thread
+ * reserves a block of consecutive positions from the shared counter and then
+ * hands them out from thread local state.  Every position is still handed out 
+ * exactly once so the distribution across clients remains even, while the 
+ * shared cache line is only touched once per block.
+ * 
+ * Note that with multiple threads the order in which clients are chosen is only
+ * round robin within each block.
+ * 
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class StripedRoundRobinLoadBalancer<C> extends BaseLoadBalancer<C> {
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+    
+    public static <C> StripedRoundRobinLoadBalancer<C> from(Observable<List<C>> source) {
+        return from(source, -1, DEFAULT_BLOCK_SIZE);
+    }
+    
+    public static <C> StripedRoundRobinLoadBalancer<C> from(Observable<List<C>> source, int seedPosition, int blockSize) {
+        return new StripedRoundRobinLoadBalancer<C>(source, seedPosition, blockSize);
+    }
+    
+    public static <C> Func1<Observable<List<C>>, LoadBalancer<C>> factory(final int blockSize) {
+        return new Func1<Observable<List<C>>, LoadBalancer<C>>() {
+            @Override
+            public LoadBalancer<C> call(Observable<List<C>> t1) {
+                return from(t1, new Random().nextInt(), blockSize);
+            }
+        };
+    }
+    
+    private static class Block {
+        int next;
+        int remaining;
+    }
+    
+    private final AtomicInteger position;
+    private final int blockSize;
+    private final ThreadLocal<Block> block = new ThreadLocal<Block>() {
+        @Override
+        protected Block initialValue() {
+            return new Block();
+        }
+    };
+    
+    StripedRoundRobinLoadBalancer(final Observable<List<C>> source, int seedPosition, int blockSize) {
+        super(source);
+        this.position  = new AtomicInteger(seedPosition + 1);
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public C next() {
+        List<C> local = clients.get();
+        if (local.size() > 0) {
+            Block b = block.get();
+            if (b.remaining == 0) {
+                b.next      = position.getAndAdd(blockSize);
+                b.remaining = blockSize;
+            }
+            int pos = b.next++ & Integer.MAX_VALUE;
+            b.remaining--;
+            
+            return local.get(pos % local.size());
+        }                
+        else {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import netflix.ocelli.Lease;
+import netflix.ocelli.LoadBalancer;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.functions.Func2;
+
+/**
+ * Load balancer that keeps traffic within the local zone to avoid the latency and cost of
+ * cross zone calls.  Requests only spill over to clients in other zones when
+ *
+ * 1. Fewer than minLocalCapacity of the known clients in the local zone are healthy.  The
+ *    fraction of requests sent to other zones grows linearly from 0 at the threshold to 1
+ *    when there are no healthy local clients.
+ * 2. The average number of outstanding requests per local client exceeds that of the
+ *    remote clients by more than loadMargin.
+ *
+ * Within the chosen zones the better of two random clients by outstanding requests is
+ * chosen.  Outstanding requests are only counted for leases obtained from
+ * {@link #acquire()}.
+ *
+ * The source is expected to contain only healthy clients, such as the output of an
+ * {@link netflix.ocelli.InstanceCollector}, while the known source contains every client
+ * including those that are currently down, such as the membership the healthy clients
+ * are derived from.  Without a known source the local zone is only considered to lack
+ * capacity once it has no healthy clients left.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class ZoneAwareLoadBalancer<C> extends LoadBalancer<C> {
+    public static final double DEFAULT_MIN_LOCAL_CAPACITY = 0.7;
+    public static final double DEFAULT_LOAD_MARGIN        = 1.0;
+
+    public static <C> ZoneAwareLoadBalancer<C> create(final Observable<List<C>> source, Func1<C, String> zoneFunc, String localZone) {
+        return new ZoneAwareLoadBalancer<C>(source, null, zoneFunc, localZone, DEFAULT_MIN_LOCAL_CAPACITY, DEFAULT_LOAD_MARGIN);
+    }
+
+    public static <C> ZoneAwareLoadBalancer<C> create(final Observable<List<C>> source, final Observable<List<C>> known, Func1<C, String> zoneFunc, String localZone) {
+        return new ZoneAwareLoadBalancer<C>(source, known, zoneFunc, localZone, DEFAULT_MIN_LOCAL_CAPACITY, DEFAULT_LOAD_MARGIN);
+    }
+
+    static class Zones<C> {
+        private final List<C> clients;
+        private final OutstandingRequests<C> local;
+        private final OutstandingRequests<C> remote;
+        private final double spillover;
+
+        Zones(List<C> clients, List<C> known, Zones<C> previous, Func1<C, String> zoneFunc, String localZone, double minLocalCapacity) {
+            List<C> local  = new ArrayList<C>();
+            List<C> remote = new ArrayList<C>();
+            for (C client : clients) {
+                if (localZone.equals(zoneFunc.call(client))) {
+                    local.add(client);
+                }
+                else {
+                    remote.add(client);
+                }
+            }
+
+            this.clients = new ArrayList<C>(clients);
+            this.local   = new OutstandingRequests<C>(local,  previous == null ? null : previous.local);
+            this.remote  = new OutstandingRequests<C>(remote, previous == null ? null : previous.remote);
+
+            if (this.remote.size() == 0) {
+                this.spillover = 0;
+            }
+            else {
+                int knownLocal = 0;
+                for (C client : known) {
+                    if (localZone.equals(zoneFunc.call(client))) {
+                        knownLocal++;
+                    }
+                }
+                // Healthy clients the known source hasn't caught up with yet count as known
+                double capacity = this.local.size() == 0 ? 0 : (double)this.local.size() / Math.max(knownLocal, this.local.size());
+                this.spillover = capacity >= minLocalCapacity ? 0 : 1 - capacity / minLocalCapacity;
+            }
+        }
+    }
+
+    private final AtomicReference<Zones<C>> zones;
+    private final String localZone;
+    private final double loadMargin;
+    private final Subscription s;
+
+    public ZoneAwareLoadBalancer(
+            final Observable<List<C>> source,
+            final Func1<C, String> zoneFunc,
+            final String localZone,
+            final double minLocalCapacity,
+            final double loadMargin) {
+        this(source, null, zoneFunc, localZone, minLocalCapacity, loadMargin);
+    }
+
+    /**
+     * @param source            Source of the current list of healthy clients
+     * @param known             Source of the current list of all clients including those that
+     *                          are down, or null to only spill over once no local client is healthy
+     * @param zoneFunc          Function returning the zone of a client, such as {@link netflix.ocelli.Host#byAttribute}
+     * @param localZone         Zone of this instance
+     * @param minLocalCapacity  Fraction of the known local clients that must be healthy for
+     *                          the local zone to be considered to have capacity
+     * @param loadMargin        Number of outstanding requests per client by which the local zone may
+     *                          exceed the other zones before requests spill over
+     */
+    public ZoneAwareLoadBalancer(
+            final Observable<List<C>> source,
+            final Observable<List<C>> known,
+            final Func1<C, String> zoneFunc,
+            final String localZone,
+            final double minLocalCapacity,
+            final double loadMargin) {
+        if (localZone == null) {
+            throw new IllegalArgumentException("Local zone must not be null");
+        }
+        if (minLocalCapacity < 0 || loadMargin < 0) {
+            throw new IllegalArgumentException("Capacity threshold and load margin must not be negative");
+        }
+        this.localZone = localZone;
+        this.loadMargin = loadMargin;
+        this.zones = new AtomicReference<Zones<C>>(new Zones<C>(new ArrayList<C>(), new ArrayList<C>(), null, zoneFunc, localZone, minLocalCapacity));
+        if (known == null) {
+            this.s = source
+                .subscribe(new Action1<List<C>>() {
+                    @Override
+                    public void call(List<C> clients) {
+                        zones.set(new Zones<C>(clients, clients, zones.get(), zoneFunc, localZone, minLocalCapacity));
+                    }
+                });
+        }
+        else {
+            this.s = Observable
+                .combineLatest(source, known.startWith(new ArrayList<C>()), new Func2<List<C>, List<C>, Zones<C>>() {
+                    @Override
+                    public Zones<C> call(List<C> clients, List<C> all) {
+                        return new Zones<C>(clients, all, zones.get(), zoneFunc, localZone, minLocalCapacity);
+                    }
+                })
+                .subscribe(new Action1<Zones<C>>() {
+                    @Override
+                    public void call(Zones<C> current) {
+                        zones.set(current);
+                    }
+                });
+        }
+    }
+
+    public String getLocalZone() {
+        return localZone;
+    }
+
+    /**
+     * @return Fraction of requests currently sent to other zones due to a lack of healthy
+     *  clients in the local zone, not including spillover due to load
+     */
+    public double getSpillover() {
+        return zones.get().spillover;
+    }
+
+    /**
+     * @return Number of requests outstanding on the client or 0 if the client is not
+     *  in the load balancer
+     */
+    public long getOutstanding(C client) {
+        Zones<C> current = zones.get();
+        return current.local.getOutstanding(client) + current.remote.getOutstanding(client);
+    }
+
+    @Override
+    public C next() {
+        Zones<C> current = zones.get();
+        OutstandingRequests<C> candidates = isLocal(current) ? current.local : current.remote;
+        return candidates.get(choose(candidates));
+    }
+
+    @Override
+    public Lease<C> acquire() {
+        Zones<C> current = zones.get();
+        OutstandingRequests<C> candidates = isLocal(current) ? current.local : current.remote;
+        return candidates.acquire(choose(candidates));
+    }
+
+    private boolean isLocal(Zones<C> current) {
+        if (current.remote.size() == 0) {
+            return true;
+        }
+        if (current.local.size() == 0) {
+            return false;
+        }
+        if (current.spillover > 0 && ThreadLocalRandom.current().nextDouble() < current.spillover) {
+            return false;
+        }
+
+        double localLoad  = (double)current.local.getTotal()  / current.local.size();
+        double remoteLoad = (double)current.remote.getTotal() / current.remote.size();
+        return localLoad <= remoteLoad + loadMargin;
+    }
+
+    private static <C> int choose(OutstandingRequests<C> candidates) {
+        int size = candidates.size();
+        if (size == 1) {
+            return 0;
+        }
+        else if (size > 1) {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            int first  = rand.nextInt(size);
+            int second = (rand.nextInt(size-1) + first + 1) % size;
+
+            return candidates.getOutstanding(second) < candidates.getOutstanding(first) ? second : first;
+        }
+        else {
+            throw new NoSuchElementException("No servers available in the load balancer");
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        s.unsubscribe();
+    }
+
+    @Override
+    public Observable<C> all() {
+        return Observable.from(zones.get().clients);
+    }
+}
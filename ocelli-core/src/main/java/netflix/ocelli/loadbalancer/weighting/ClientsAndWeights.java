@@ -1,27 +1,80 @@
 package netflix.ocelli.loadbalancer.weighting;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import com.google.common.collect.Iterables;
-
-
+/**
+ * Snapshot of clients and their cumulative weights as calculated by a {@link WeightingStrategy}.
+ *
+ * Weights are kept in a primitive double[] where each cell is the sum of the previous
+ * weights plus the weight of the client at that index.  A null weights array means
+ * that all clients have the same weight.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
 public class ClientsAndWeights<C> {
     private final List<C> clients;
-    private final List<Integer> weights;
-    
-    public ClientsAndWeights(List<C> clients, List<Integer> weights) {
+    private final double[] weights;
+
+    /**
+     * @param clients
+     * @param weights   Cumulative weights with one entry per client, or null for uniform weights
+     */
+    public ClientsAndWeights(List<C> clients, double[] weights) {
         this.clients = clients;
         this.weights = weights;
     }
 
+    /**
+     * @deprecated Use {@link ClientsAndWeights#ClientsAndWeights(List, double[])} to avoid boxing
+     */
+    @Deprecated
+    public ClientsAndWeights(List<C> clients, List<Integer> weights) {
+        this(clients, toArray(weights));
+    }
+
+    private static double[] toArray(List<Integer> weights) {
+        if (weights == null) {
+            return null;
+        }
+        double[] result = new double[weights.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = weights.get(i);
+        }
+        return result;
+    }
+
     public List<C> getClients() {
         return clients;
     }
 
-    public List<Integer> getWeights() {
+    /**
+     * @return The cumulative weights array or null for uniform weights.  The array is shared
+     *         and must not be modified.
+     */
+    public double[] getCumulativeWeights() {
         return weights;
     }
 
+    /**
+     * @deprecated Use {@link #getCumulativeWeights()}.  Weights are truncated to ints and
+     *             copied into a new list on every call.
+     */
+    @Deprecated
+    public List<Integer> getWeights() {
+        if (weights == null) {
+            return null;
+        }
+        List<Integer> result = new ArrayList<Integer>(weights.length);
+        for (double weight : weights) {
+            result.add((int)weight);
+        }
+        return result;
+    }
+
     public boolean isEmpty() {
         return clients.isEmpty();
     }
@@ -29,26 +82,69 @@ public class ClientsAndWeights<C> {
     public int size() {
         return clients.size();
     }
-    
-    public int getTotalWeights() {
-        if (weights == null || weights.size() == 0)
+
+    public double getTotalWeight() {
+        if (weights == null || weights.length == 0)
             return 0;
-        return Iterables.getLast(weights);
+        return weights[weights.length - 1];
+    }
+
+    /**
+     * @deprecated Use {@link #getTotalWeight()}.  The total is truncated to an int.
+     */
+    @Deprecated
+    public int getTotalWeights() {
+        return (int)getTotalWeight();
     }
 
     public C getClient(int index) {
         return clients.get(index);
     }
-    
-    public int getWeight(int index) {
-        if (weights == null) 
+
+    /**
+     * @return The cumulative weight up to and including the client at index
+     */
+    public double getCumulativeWeight(int index) {
+        if (weights == null)
             return 0;
-        return weights.get(index);
+        return weights[index];
     }
-    
+
+    /**
+     * @deprecated Use {@link #getCumulativeWeight(int)}.  The weight is truncated to an int.
+     */
+    @Deprecated
+    public int getWeight(int index) {
+        return (int)getCumulativeWeight(index);
+    }
+
+    /**
+     * Find the index of the client that owns a value in the range [0, getTotalWeight()).
+     * This is the first index whose cumulative weight is greater than the value so that
+     * clients with a weight of 0 are never chosen.
+     *
+     * Runtime complexity is O(log N)
+     *
+     * @param value
+     */
+    public int indexOf(double value) {
+        int low  = 0;
+        int high = weights.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (weights[mid] > value) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
     @Override
     public String toString() {
-        return "ClientsAndWeights [clients=" + clients + ", weights=" + weights
+        return "ClientsAndWeights [clients=" + clients + ", weights=" + Arrays.toString(weights)
                 + "]";
     }
 }
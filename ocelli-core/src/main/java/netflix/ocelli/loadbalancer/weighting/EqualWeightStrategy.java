@@ -15,6 +15,6 @@ public class EqualWeightStrategy<C> implements WeightingStrategy<C> {
 
     @Override
     public ClientsAndWeights<C> call(List<C> clients) {
-        return new ClientsAndWeights<C>(clients, null);
+        return new ClientsAndWeights<C>(clients, (double[])null);
     }
 }
@@ -1,6 +1,5 @@
 package netflix.ocelli.loadbalancer.weighting;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import rx.functions.Func1;
@@ -21,30 +20,30 @@ import rx.functions.Func1;
  */
 public class InverseMaxWeightingStrategy<C> implements WeightingStrategy<C> {
     
-    private Func1<C, Integer> func;
+    private Func1<C, ? extends Number> func;
 
-    public InverseMaxWeightingStrategy(Func1<C, Integer> func) {
+    public InverseMaxWeightingStrategy(Func1<C, ? extends Number> func) {
         this.func = func;
     }
     
     @Override
     public ClientsAndWeights<C> call(List<C> clients) {
-        ArrayList<Integer> weights = new ArrayList<Integer>(clients.size());
+        double[] weights = new double[clients.size()];
         
-        if (clients.size() > 0) {
-            Integer max = 0;
-            for (int i = 0; i < clients.size(); i++) {
-                int weight = func.call(clients.get(i));
+        if (weights.length > 0) {
+            double max = 0;
+            for (int i = 0; i < weights.length; i++) {
+                double weight = func.call(clients.get(i)).doubleValue();
                 if (weight > max) {
                     max = weight;
                 }   
-                weights.add(i, weight);
+                weights[i] = weight;
             }
     
-            int sum = 0;
-            for (int i = 0; i < weights.size(); i++) {
-                sum += (max - weights.get(i)) + 1;
-                weights.set(i, sum);
+            double sum = 0;
+            for (int i = 0; i < weights.length; i++) {
+                sum += (max - weights[i]) + 1;
+                weights[i] = sum;
             }
         }
         return new ClientsAndWeights<C>(clients, weights);
@@ -0,0 +1,50 @@
+package netflix.ocelli.loadbalancer.weighting;
+
+import java.util.List;
+
+import rx.functions.Func1;
+
+/**
+ * Weighting strategy where the weight is the reciprocal of the function output so 
+ * that higher input values receive proportionally smaller weights.  This is the
+ * natural weighting for latency where a host that is twice as slow should receive
+ * half the traffic.
+ * 
+ * For example, latencies of [10, 20, 40] yield the weights [0.1, 0.05, 0.025]
+ * using the formula : w(i) = 1 / max(v(i), min) 
+ * 
+ * where min guards against a 0 input producing an infinite weight.  The default min is
+ * tiny so that inputs below 1, such as latencies measured in seconds, are still weighted
+ * by their reciprocal.
+ * 
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class InverseWeightingStrategy<C> implements WeightingStrategy<C> {
+    public static final double DEFAULT_MIN = 1e-9;
+    
+    private final Func1<C, ? extends Number> func;
+    private final double min;
+
+    public InverseWeightingStrategy(Func1<C, ? extends Number> func, double min) {
+        this.func = func;
+        this.min = min;
+    }
+    
+    public InverseWeightingStrategy(Func1<C, ? extends Number> func) {
+        this(func, DEFAULT_MIN);
+    }
+    
+    @Override
+    public ClientsAndWeights<C> call(List<C> clients) {
+        double[] weights = new double[clients.size()];
+        
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += 1.0 / Math.max(func.call(clients.get(i)).doubleValue(), min);
+            weights[i] = sum;
+        }
+        return new ClientsAndWeights<C>(clients, weights);
+    }
+}
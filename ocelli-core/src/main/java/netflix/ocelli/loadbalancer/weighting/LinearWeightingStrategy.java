@@ -1,32 +1,33 @@
 package netflix.ocelli.loadbalancer.weighting;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import rx.functions.Func1;
 
+/**
+ * Weighting strategy that uses the output of the function as the weight.  The function
+ * may return any Number, such as a Double, so that fractional weights aren't truncated.
+ * 
+ * @author elandau
+ *
+ * @param <C>
+ */
 public class LinearWeightingStrategy<C> implements WeightingStrategy<C> {
     
-    private Func1<C, Integer> func;
+    private Func1<C, ? extends Number> func;
 
-    public LinearWeightingStrategy(Func1<C, Integer> func) {
+    public LinearWeightingStrategy(Func1<C, ? extends Number> func) {
         this.func = func;
     }
     
     @Override
     public ClientsAndWeights<C> call(List<C> clients) {
-        ArrayList<Integer> weights = new ArrayList<Integer>(clients.size());
+        double[] weights = new double[clients.size()];
         
-        if (clients.size() > 0) {
-            for (int i = 0; i < clients.size(); i++) {
-                weights.add(func.call(clients.get(i)));
-            }
-    
-            int sum = 0;
-            for (int i = 0; i < weights.size(); i++) {
-                sum += weights.get(i);
-                weights.set(i, sum);
-            }
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += func.call(clients.get(i)).doubleValue();
+            weights[i] = sum;
         }
         return new ClientsAndWeights<C>(clients, weights);
     }
@@ -0,0 +1,211 @@
+package netflix.ocelli.loadbalancer.weighting;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+import rx.Scheduler;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Ramp up the share of traffic sent to a client over a window after it joins the list
+ * of active clients so that a cold instance isn't immediately sent its full share.  This
+ * applies both to new clients and to clients that return after having been removed while
+ * down or quarantined.
+ *
+ * The ramp is expressed as a factor in [minFactor, 1] that grows either linearly or
+ * exponentially (geometrically from minFactor to 1) over the window, and is applied by
+ * decorating the weights or scores used by the load balancers,
+ *
+ *  RandomWeightedLoadBalancer.create(source, slowStart.weighting(strategy))
+ *  LeastRequestLoadBalancer.create(source.compose(slowStart), slowStart.weight(weight))
+ *  ChoiceOfKLoadBalancer.create(source.compose(slowStart), 2, slowStart.score(score))
+ *  ChoiceOfTwoLoadBalancer.create(source.compose(slowStart), ChoiceOfTwoLoadBalancer.lowest(slowStart.score(score)))
+ *  PeakEwmaLoadBalancer.create(source.compose(slowStart), latency, pending, slowStart.scoring())
+ *
+ * Balancers that don't go through a {@link WeightingStrategy} must compose the client list
+ * through this transformer so that the time each client became active is tracked.  Weighting
+ * strategies are recomputed on the load balancer's refresh interval which determines how
+ * smoothly the ramp is applied.
+ *
+ * Clients in the first list seen are ramped as well.  Since they all ramp together this
+ * doesn't change their relative share of traffic.
+ *
+ * @author elandau
+ *
+ * @param <C>
+ */
+public class SlowStart<C> implements Transformer<List<C>, List<C>> {
+    public static final double DEFAULT_MIN_FACTOR = 0.1;
+
+    public static <C> SlowStart<C> linear(long window, TimeUnit units) {
+        return new SlowStart<C>(window, units, false, DEFAULT_MIN_FACTOR, Schedulers.computation());
+    }
+
+    public static <C> SlowStart<C> exponential(long window, TimeUnit units) {
+        return new SlowStart<C>(window, units, true, DEFAULT_MIN_FACTOR, Schedulers.computation());
+    }
+
+    private final long window;
+    private final boolean exponential;
+    private final double minFactor;
+    private final Scheduler clock;
+
+    private final Set<C> active = new HashSet<C>();
+    private final ConcurrentMap<C, Long> ramping = new ConcurrentHashMap<C, Long>();
+
+    /**
+     * @param window        Time over which the factor ramps from minFactor to 1
+     * @param units
+     * @param exponential   True to ramp exponentially, false to ramp linearly
+     * @param minFactor     Factor for a client that just became active, in (0, 1]
+     * @param clock         Scheduler whose now() is used as the clock
+     */
+    public SlowStart(long window, TimeUnit units, boolean exponential, double minFactor, Scheduler clock) {
+        if (minFactor <= 0 || minFactor > 1) {
+            throw new IllegalArgumentException("minFactor must be in (0, 1]");
+        }
+        this.window = units.toMillis(window);
+        this.exponential = exponential;
+        this.minFactor = minFactor;
+        this.clock = clock;
+    }
+
+    /**
+     * Update the set of active clients, starting the ramp of clients that weren't in the
+     * previous list
+     */
+    public synchronized void update(List<C> clients) {
+        long now = clock.now();
+        Set<C> current = new HashSet<C>(clients);
+        for (C client : current) {
+            if (active.add(client)) {
+                ramping.put(client, now);
+            }
+        }
+
+        if (active.size() > current.size()) {
+            active.retainAll(current);
+            ramping.keySet().retainAll(current);
+        }
+    }
+
+    /**
+     * @return Factor in [minFactor, 1] by which to scale the share of traffic of a client
+     */
+    public double getFactor(C client) {
+        Long start = ramping.get(client);
+        if (start == null) {
+            return 1.0;
+        }
+
+        long elapsed = clock.now() - start;
+        if (elapsed >= window) {
+            ramping.remove(client, start);
+            return 1.0;
+        }
+
+        double progress = Math.max(0, (double)elapsed / window);
+        if (exponential) {
+            return Math.pow(minFactor, 1 - progress);
+        }
+        else {
+            return minFactor + (1 - minFactor) * progress;
+        }
+    }
+
+    @Override
+    public Observable<List<C>> call(Observable<List<C>> o) {
+        return o.doOnNext(new Action1<List<C>>() {
+            @Override
+            public void call(List<C> clients) {
+                update(clients);
+            }
+        });
+    }
+
+    /**
+     * @return Strategy that scales the weights of the delegate strategy by each client's factor
+     */
+    public WeightingStrategy<C> weighting(final WeightingStrategy<C> delegate) {
+        return new WeightingStrategy<C>() {
+            @Override
+            public ClientsAndWeights<C> call(List<C> clients) {
+                update(clients);
+
+                ClientsAndWeights<C> caw = delegate.call(clients);
+                if (ramping.isEmpty() || caw.isEmpty()) {
+                    return caw;
+                }
+
+                double[] weights = new double[caw.size()];
+                double previous = 0;
+                double sum = 0;
+                for (int i = 0; i < weights.length; i++) {
+                    double weight;
+                    if (caw.getCumulativeWeights() == null) {
+                        weight = 1;
+                    }
+                    else {
+                        weight = caw.getCumulativeWeight(i) - previous;
+                        previous = caw.getCumulativeWeight(i);
+                    }
+                    sum += weight * getFactor(caw.getClient(i));
+                    weights[i] = sum;
+                }
+                return new ClientsAndWeights<C>(caw.getClients(), weights);
+            }
+        };
+    }
+
+    /**
+     * @param weight    Weight function to scale or null for a weight of 1
+     * @return Function returning the weight of a client scaled by its factor
+     */
+    public Func1<C, Double> weight(final Func1<C, ? extends Number> weight) {
+        return new Func1<C, Double>() {
+            @Override
+            public Double call(C client) {
+                double value = weight == null ? 1.0 : weight.call(client).doubleValue();
+                return value * getFactor(client);
+            }
+        };
+    }
+
+    /**
+     * @param score     Score function where lower is better, such as for {@link netflix.ocelli.loadbalancer.ChoiceOfKLoadBalancer}
+     * @return Function returning the score of a client scaled up by the inverse of its factor
+     *  so that ramping clients look proportionally worse.  The score is offset by 1 so that
+     *  an idle client with a score of 0 is still penalized while ramping.
+     */
+    public Func1<C, Double> score(final Func1<C, Double> score) {
+        return new Func1<C, Double>() {
+            @Override
+            public Double call(C client) {
+                double factor = getFactor(client);
+                double value = score.call(client);
+                return factor < 1 ? (value + 1) / factor - 1 : value;
+            }
+        };
+    }
+
+    /**
+     * @return Decorator applying {@link #score(Func1)} to a score function, such as the cost
+     *  function of a {@link netflix.ocelli.loadbalancer.PeakEwmaLoadBalancer}
+     */
+    public Func1<Func1<C, Double>, Func1<C, Double>> scoring() {
+        return new Func1<Func1<C, Double>, Func1<C, Double>>() {
+            @Override
+            public Func1<C, Double> call(Func1<C, Double> score) {
+                return score(score);
+            }
+        };
+    }
+}
@@ -0,0 +1,96 @@
+package netflix.ocelli.stats;
+
+import java.util.concurrent.TimeUnit;
+
+import netflix.ocelli.util.SingleMetric;
+import rx.Scheduler;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+
+/**
+ * Peak sensitive exponentially weighted moving average that decays over wall clock
+ * time rather than per sample.  A sample above the current average replaces it
+ * immediately so that a slow host (for example one stuck in a GC pause) is penalized
+ * on its first slow response, while samples below the average are blended in with a
+ * weight of exp(-elapsed/tau).
+ *
+ * The value returned by get() also decays towards 0 since the last sample so that a
+ * host that stopped receiving traffic because it was slow is eventually retried.
+ *
+ * @author elandau
+ */
+public class PeakEwma implements SingleMetric<Long> {
+
+    public static Func0<SingleMetric<Long>> factory(final long tau, final TimeUnit units) {
+        return new Func0<SingleMetric<Long>>() {
+            @Override
+            public SingleMetric<Long> call() {
+                return new PeakEwma(tau, units, Schedulers.immediate());
+            }
+        };
+    }
+
+    private final double tau;
+    private final Scheduler clock;
+
+    private double  ewma;
+    private long    timestamp;
+    private boolean hasSample;
+
+    /**
+     * @param tau       Time constant of the decay.  After tau has elapsed a previous
+     *                  value has ~37% of its original weight.
+     * @param units     Units for tau
+     * @param clock     Scheduler whose now() is used as the clock
+     */
+    public PeakEwma(long tau, TimeUnit units, Scheduler clock) {
+        this.tau = Math.max(1, TimeUnit.MILLISECONDS.convert(tau, units));
+        this.clock = clock;
+        this.timestamp = clock.now();
+    }
+
+    @Override
+    public synchronized void add(Long sample) {
+        long now = clock.now();
+        if (sample > ewma) {
+            ewma = sample;
+        }
+        else {
+            double w = Math.exp(-Math.max(0, now - timestamp) / tau);
+            ewma = ewma * w + sample * (1 - w);
+        }
+        timestamp = now;
+        hasSample = true;
+    }
+
+    /**
+     * @return The decayed average rounded to whole units.  Use {@link #getLatency()} to
+     *  distinguish sub unit values from no samples at all.
+     */
+    @Override
+    public synchronized Long get() {
+        return Math.round(getLatency());
+    }
+
+    /**
+     * @return The decayed average without rounding, or 0 if there are no samples
+     */
+    public synchronized double getLatency() {
+        double w = Math.exp(-Math.max(0, clock.now() - timestamp) / tau);
+        return ewma * w;
+    }
+
+    /**
+     * @return True if at least one sample was added since creation or the last reset
+     */
+    public synchronized boolean hasSample() {
+        return hasSample;
+    }
+
+    @Override
+    public synchronized void reset() {
+        ewma = 0;
+        timestamp = clock.now();
+        hasSample = false;
+    }
+}
@@ -0,0 +1,128 @@
+package netflix.ocelli.topologies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import netflix.ocelli.Member;
+import rx.functions.Func1;
+
+/**
+ * Ring topology where both the clients and the hosts are spread evenly over a unit ring
+ * rather than placed by key.  With M clients and N hosts, client i covers the range
+ * [i/M, i/M + width) and host j covers [j/N, (j+1)/N).  A client talks to every host
+ * whose range intersects its own and should send each host a share of traffic
+ * proportional to the overlap, available from {@link #getWeight()}.
+ *
+ * The width is the aperture (the desired number of hosts) rounded up to a whole number
+ * of client ranges so that every point on the ring is covered by the same number of
+ * clients.  As a result each host receives exactly the same load from the clients as a
+ * whole, even when M and N don't divide evenly, which isn't the case when each client
+ * simply takes the next N hosts after its key.  A single client would have to cover the
+ * whole ring to be even so it instead just takes the first aperture hosts.
+ *
+ * This requires each client to know its own index and the total number of clients.
+ *
+ * @author elandau
+ *
+ * @param <K>
+ * @param <T>
+ */
+public class DeterministicApertureTopology<K extends Comparable<K>, T> extends RingTopology<K, T> {
+    private static final double EPSILON = 1e-9;
+
+    private final int clientId;
+    private final int clientCount;
+    private final Func1<Integer, Integer> apertureFunc;
+    private volatile Map<K, Double> weights = Collections.emptyMap();
+
+    /**
+     * @param clientId      Index of this client in [0, clientCount)
+     * @param clientCount   Total number of clients
+     * @param keyFunc       Function providing the key by which hosts are ordered on the ring
+     * @param apertureFunc  Function returning the desired number of hosts given the total number of hosts
+     */
+    public DeterministicApertureTopology(int clientId, int clientCount, Func1<T, K> keyFunc, Func1<Integer, Integer> apertureFunc) {
+        super(null, keyFunc, apertureFunc);
+        if (clientCount < 1 || clientId < 0 || clientId >= clientCount) {
+            throw new IllegalArgumentException("clientId must be in [0, clientCount)");
+        }
+        this.clientId = clientId;
+        this.clientCount = clientCount;
+        this.apertureFunc = apertureFunc;
+    }
+
+    /**
+     * @return Function returning the fraction in (0, 1] of each selected host's range that
+     *  is covered by this client, or 0 for hosts that aren't selected.  This can be used as
+     *  the weight for a weighted load balancer so that partially covered hosts at the edges
+     *  of the aperture receive proportionally less traffic.
+     */
+    public Func1<T, Double> getWeight() {
+        return new Func1<T, Double>() {
+            @Override
+            public Double call(T host) {
+                Double weight = weights.get(keyFunc.call(host));
+                return weight == null ? 0.0 : weight;
+            }
+        };
+    }
+
+    @Override
+    protected List<Member<T>> select(NavigableMap<K, Member<T>> points, int size) {
+        if (size == 0) {
+            weights = Collections.emptyMap();
+            return Collections.emptyList();
+        }
+
+        // Hosts have a single point on the ring so the points are the hosts in key order
+        List<Member<T>> ring = new ArrayList<Member<T>>(points.values());
+
+        double hostWidth   = 1.0 / size;
+        double clientWidth = 1.0 / clientCount;
+        int aperture = Math.max(1, Math.min(size, apertureFunc.call(size)));
+
+        double width;
+        if (clientCount == 1) {
+            // There is no other client to even out the load with
+            width = aperture * hostWidth;
+        }
+        else {
+            // Round up to a whole number of client ranges so coverage of the ring is uniform
+            width = Math.min(1.0, Math.ceil(aperture * hostWidth / clientWidth - EPSILON) * clientWidth);
+        }
+        double start = clientId * clientWidth;
+        double end   = start + width;
+
+        List<Member<T>> selected = new ArrayList<Member<T>>();
+        Map<K, Double> newWeights = new HashMap<K, Double>();
+
+        // Walk the hosts starting with the one containing the start of the range.  When the
+        // range covers the entire ring the first host is visited again after wrapping around.
+        int first = (int)Math.floor(start * size + EPSILON);
+        for (int i = 0; i <= size; i++) {
+            int index = first + i;
+            double hostStart = index * hostWidth;
+            if (hostStart >= end - EPSILON) {
+                break;
+            }
+            double overlap = Math.min(end, hostStart + hostWidth) - Math.max(start, hostStart);
+            if (overlap > EPSILON) {
+                Member<T> member = ring.get(index % size);
+                K key = keyFunc.call(member.getValue());
+                Double previous = newWeights.get(key);
+                if (previous == null) {
+                    selected.add(member);
+                    previous = 0.0;
+                }
+                newWeights.put(key, Math.min(1.0, previous + overlap / hostWidth));
+            }
+        }
+
+        weights = newWeights;
+        return selected;
+    }
+}
@@ -1,11 +1,14 @@
 package netflix.ocelli.topologies;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 
 import netflix.ocelli.CloseableMember;
 import netflix.ocelli.Member;
@@ -14,15 +17,28 @@ import rx.Observable.Transformer;
 import rx.functions.Action0;
 import rx.functions.Func0;
 import rx.functions.Func1;
+import rx.functions.Func2;
 
 /**
- * The ring topology uses consistent hashing to arrange all hosts in a predictable ring 
+ * The ring topology uses consistent hashing to arrange all hosts in a predictable ring
  * topology such that each client instance will be located in a uniformly distributed
  * fashion around the ring.  The client will then target the next N hosts after it's location.
- * 
- * This type of topology ensures that each client instance communicates with a subset of 
+ *
+ * This type of topology ensures that each client instance communicates with a subset of
  * hosts in such a manner that the overall load shall be evenly distributed.
- * 
+ *
+ * Each host may optionally be placed on the ring at multiple points (virtual nodes), with
+ * the number of points per host given by a weight function, to even out the distribution.
+ * The ring is kept in a sorted map that is updated incrementally as hosts are added and
+ * removed, and each host's keys are computed only once, so an update is O(V log N) for V
+ * virtual nodes per host rather than a full sort of the ring.
+ *
+ * A point whose key is already taken by another host is moved to a key derived from a
+ * further virtual node index, up to {@link #MAX_PROBES} times.  Without virtual nodes, or
+ * if every probe collides, the point waits behind the current owner of the key and takes
+ * it over once the owner is removed.  Hosts without any point on the ring aren't counted
+ * towards the number of hosts on the ring.
+ *
  * @author elandau
  *
  * @param <T>
@@ -30,40 +46,103 @@ import rx.functions.Func1;
  */
 
 public class RingTopology<K extends Comparable<K>, T> implements Transformer<Member<T>, Member<T>> {
+    /**
+     * Maximum number of alternative keys to try for a virtual node whose key is taken
+     */
+    public static final int MAX_PROBES = 8;
 
-    private final Member<T> localMember;
+    private final K localKey;
     private final Func1<Integer, Integer> countFunc;
-    private final Comparator<Member<T>> comparator;
-    private final Func1<T, K> keyFunc;
-    
+    private final Func1<T, Integer> virtualNodeCountFunc;
+    private final Func2<K, Integer, K> virtualNodeKeyFunc;
+    protected final Func1<T, K> keyFunc;
+
     public RingTopology(final K localKey, final Func1<T, K> keyFunc, Func1<Integer, Integer> countFunc) {
-        this.localMember = Member.from(null, Observable.<Void>never());
+        this(localKey, keyFunc, countFunc, null, null);
+    }
+
+    /**
+     * @param localKey              Location of this instance on the ring
+     * @param keyFunc               Function providing the key of each host
+     * @param countFunc             Function returning the number of hosts to target given the total number of hosts
+     * @param virtualNodeCountFunc  Function returning the number of points on the ring for each host, such as
+     *                              in proportion to the host's capacity.  Null for one point per host.
+     * @param virtualNodeKeyFunc    Function deriving the key of each point given the host key and the
+     *                              index of the point, such as a hash of both.  Null for one point per host.
+     */
+    public RingTopology(final K localKey, final Func1<T, K> keyFunc, Func1<Integer, Integer> countFunc, Func1<T, Integer> virtualNodeCountFunc, Func2<K, Integer, K> virtualNodeKeyFunc) {
+        this.localKey = localKey;
         this.countFunc = countFunc;
         this.keyFunc = keyFunc;
-        this.comparator = new Comparator<Member<T>>() {
-            @Override
-            public int compare(Member<T> o1, Member<T> o2) {
-                K k1 = o1.getValue() == null ? localKey : keyFunc.call(o1.getValue());
-                K k2 = o2.getValue() == null ? localKey : keyFunc.call(o2.getValue());
-                return k1.compareTo(k2);
+        this.virtualNodeCountFunc = virtualNodeCountFunc;
+        this.virtualNodeKeyFunc = virtualNodeKeyFunc;
+    }
+
+    private boolean hasVirtualNodes() {
+        return virtualNodeCountFunc != null && virtualNodeKeyFunc != null;
+    }
+
+    /**
+     * @return Number of points at which a host is placed on the ring
+     */
+    private int pointsFor(T value) {
+        return hasVirtualNodes() ? Math.max(1, virtualNodeCountFunc.call(value)) : 1;
+    }
+
+    /**
+     * @return Key of a host's point given the index of the point and the probe attempt.
+     *  Probes use indexes beyond the host's own points so they never clash with them.
+     */
+    private K keyFor(T value, int index, int count, int probe) {
+        K key = keyFunc.call(value);
+        if (!hasVirtualNodes()) {
+            return key;
+        }
+        return virtualNodeKeyFunc.call(key, index + probe * count);
+    }
+
+    /**
+     * Select the members this instance will communicate with from the ring.  By default
+     * these are the next N distinct members at or after the local key.
+     *
+     * @param ring      Every point on the ring
+     * @param size      Number of distinct members on the ring
+     * @return The selected members
+     */
+    protected List<Member<T>> select(NavigableMap<K, Member<T>> ring, int size) {
+        int count = Math.min(size, countFunc.call(size));
+
+        Set<Member<T>> selected = new LinkedHashSet<Member<T>>();
+        if (count > 0) {
+            collect(ring.tailMap(localKey, true), selected, count);
+            collect(ring.headMap(localKey, false), selected, count);
+        }
+        return new ArrayList<Member<T>>(selected);
+    }
+
+    private static <K, T> void collect(NavigableMap<K, Member<T>> points, Set<Member<T>> selected, int count) {
+        for (Member<T> member : points.values()) {
+            if (selected.size() == count) {
+                return;
             }
-        };
+            selected.add(member);
+        }
     }
-    
+
     @Override
     public Observable<Member<T>> call(Observable<Member<T>> o) {
         return o.flatMap(new Func1<Member<T>, Observable<Member<T>>>() {
-            final List<Member<T>> ring = new ArrayList<Member<T>>();
+            final NavigableMap<K, Member<T>> ring = new TreeMap<K, Member<T>>();
+            final Map<Member<T>, List<K>> keys = new IdentityHashMap<Member<T>, List<K>>();
+            // Members waiting for a key that is owned by another member
+            final Map<K, List<Member<T>>> waiting = new HashMap<K, List<Member<T>>>();
+            // Number of points on the ring owned by each member
+            final Map<Member<T>, Integer> points = new IdentityHashMap<Member<T>, Integer>();
             Map<K, CloseableMember<T>> members = new HashMap<K, CloseableMember<T>>();
-          
-            {
-                ring.add(localMember);
-            }
 
             @Override
             public Observable<Member<T>> call(final Member<T> member) {
-                ring.add(member);
-                return update().concatWith(member.flatMap(
+                return add(member).concatWith(member.flatMap(
                         new Func1<Void, Observable<Member<T>>>() {
                             @Override
                             public Observable<Member<T>> call(Void t) {
@@ -73,39 +152,96 @@ public class RingTopology<K extends Comparable<K>, T> implements Transformer<Mem
                         new Func1<Throwable, Observable<Member<T>>>() {
                             @Override
                             public Observable<Member<T>> call(Throwable t1) {
-                                ring.remove(t1);
-                                return update();
+                                return remove(member);
                             }
                         },
                         new Func0<Observable<Member<T>>>() {
                             @Override
                             public Observable<Member<T>> call() {
-                                ring.remove(member);
-                                return update();
+                                return remove(member);
                             }
                         }));
             }
-            
-            private Observable<Member<T>> update() {
-                Collections.sort(ring, comparator);
 
-                // -1 to account for the current instance
-                int count = Math.min(ring.size() - 1, countFunc.call(ring.size() - 1));
+            private synchronized Observable<Member<T>> add(Member<T> member) {
+                T value = member.getValue();
+                int count = pointsFor(value);
+                List<K> memberKeys = new ArrayList<K>(count);
+                for (int i = 0; i < count; i++) {
+                    K key = keyFor(value, i, count, 0);
+                    for (int probe = 1; ring.containsKey(key) && hasVirtualNodes() && probe <= MAX_PROBES; probe++) {
+                        key = keyFor(value, i, count, probe);
+                    }
+
+                    if (ring.containsKey(key)) {
+                        List<Member<T>> queue = waiting.get(key);
+                        if (queue == null) {
+                            queue = new ArrayList<Member<T>>(1);
+                            waiting.put(key, queue);
+                        }
+                        queue.add(member);
+                    }
+                    else {
+                        own(key, member);
+                    }
+                    memberKeys.add(key);
+                }
+                keys.put(member, memberKeys);
+                return update();
+            }
+
+            private synchronized Observable<Member<T>> remove(Member<T> member) {
+                List<K> memberKeys = keys.remove(member);
+                if (memberKeys != null) {
+                    for (K key : memberKeys) {
+                        if (ring.get(key) == member) {
+                            ring.remove(key);
+                            points.remove(member);
+
+                            // Hand the key over to the next member waiting for it
+                            List<Member<T>> queue = waiting.get(key);
+                            if (queue != null) {
+                                own(key, queue.remove(0));
+                                if (queue.isEmpty()) {
+                                    waiting.remove(key);
+                                }
+                            }
+                        }
+                        else {
+                            List<Member<T>> queue = waiting.get(key);
+                            if (queue != null) {
+                                queue.remove(member);
+                                if (queue.isEmpty()) {
+                                    waiting.remove(key);
+                                }
+                            }
+                        }
+                    }
+                }
+                return update();
+            }
+
+            private void own(K key, Member<T> member) {
+                ring.put(key, member);
+                Integer count = points.get(member);
+                points.put(member, count == null ? 1 : count + 1);
+            }
+
+            private Observable<Member<T>> update() {
                 List<Member<T>> toAdd = new ArrayList<Member<T>>();
                 List<CloseableMember<T>> toRemove = new ArrayList<CloseableMember<T>>();
-                
-                int pos = Collections.binarySearch(ring, localMember, comparator) + 1;
+
                 Map<K, CloseableMember<T>> newMembers = new HashMap<K, CloseableMember<T>>();
-                for (int i = 0; i < count; i++) {
-                    Member<T> member = ring.get((pos + i) % ring.size());
-                    CloseableMember<T> existing = members.remove(keyFunc.call(member.getValue()));
+                for (Member<T> member : select(ring, points.size())) {
+                    K key = keyFunc.call(member.getValue());
+                    CloseableMember<T> existing = members.remove(key);
                     if (existing == null) {
                         CloseableMember<T> newMember = CloseableMember.from(member.getValue());
-                        newMembers.put(keyFunc.call(member.getValue()), newMember);
+                        newMembers.put(key, newMember);
                         toAdd.add(newMember);
-                    } 
+                    }
                     else {
-                        newMembers.put(keyFunc.call(member.getValue()), existing);
+                        newMembers.put(key, existing);
                     }
                 }
 
@@ -114,10 +250,10 @@ public class RingTopology<K extends Comparable<K>, T> implements Transformer<Mem
                 }
 
                 members = newMembers;
-                
+
                 return response(toAdd, toRemove);
             }
-            
+
             private Observable<Member<T>> response(List<Member<T>> toAdd, final List<CloseableMember<T>> toRemove) {
                 return Observable.from(toAdd).doOnCompleted(new Action0() {
                     @Override
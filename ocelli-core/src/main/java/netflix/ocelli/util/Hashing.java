@@ -0,0 +1,54 @@
+package netflix.ocelli.util;
+
+import rx.functions.Func1;
+
+/**
+ * Hash functions for routing keys and clients in hash based load balancers.  Java's
+ * hashCode() is often poorly distributed (e.g. Integer) so it is scrambled using the
+ * 64 bit finalizer of MurmurHash3.
+ *
+ * @author elandau
+ */
+public abstract class Hashing {
+    private static final Func1<Object, Long> DEFAULT = new Func1<Object, Long>() {
+        @Override
+        public Long call(Object key) {
+            return hash(key);
+        }
+    };
+
+    /**
+     * @return Function that hashes any key by scrambling its hashCode()
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Func1<K, Long> defaultHash() {
+        return (Func1<K, Long>)(Func1<?, Long>)DEFAULT;
+    }
+
+    /**
+     * @return 64 bit hash of the object's hashCode()
+     */
+    public static long hash(Object key) {
+        return mix(key == null ? 0 : key.hashCode());
+    }
+
+    /**
+     * @return 64 bit hash of a value and an additional seed, such as the replica number
+     *  of a virtual node
+     */
+    public static long hash(long value, int seed) {
+        return mix(value * 0x9E3779B97F4A7C15L + seed);
+    }
+
+    /**
+     * MurmurHash3 fmix64
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
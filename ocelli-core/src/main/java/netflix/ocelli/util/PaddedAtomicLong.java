@@ -0,0 +1,32 @@
+package netflix.ocelli.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AtomicLong padded to fill a cache line so that counters which are updated
+ * concurrently by different threads, such as per host request counters, don't
+ * suffer from false sharing.
+ *
+ * @author elandau
+ */
+public class PaddedAtomicLong extends AtomicLong {
+    private static final long serialVersionUID = 1L;
+
+    // Padding is only effective if not optimized away
+    public volatile long p1, p2, p3, p4, p5, p6 = 7L;
+
+    public PaddedAtomicLong() {
+        super();
+    }
+
+    public PaddedAtomicLong(long initialValue) {
+        super(initialValue);
+    }
+
+    /**
+     * Prevent the padding from being eliminated as unused
+     */
+    public long sumPaddingToPreventOptimisation() {
+        return p1 + p2 + p3 + p4 + p5 + p6;
+    }
+}
@@ -523,6 +523,11 @@ public class RxUtil {
         };
     }
     
+    /**
+     * @return Observable that emits the next of the sources on each subscribe and completes
+     *  without emitting once all of them have been used.  The sources are only read.
+     */
+    @SafeVarargs
     public static <T> Observable<Observable<T>> onSubscribeChooseNext(final Observable<T> ... sources) {
         return Observable.create(new OnSubscribe<Observable<T>>() {
             private AtomicInteger count = new AtomicInteger();
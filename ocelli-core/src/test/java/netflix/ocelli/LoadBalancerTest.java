@@ -0,0 +1,55 @@
+package netflix.ocelli;
+
+import java.util.NoSuchElementException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.Subscriber;
+
+public class LoadBalancerTest {
+    /**
+     * Load balancer that only implements the OnSubscribe contract
+     */
+    private static class LegacyLoadBalancer extends LoadBalancer<Integer> {
+        private final Integer client;
+
+        LegacyLoadBalancer(Integer client) {
+            this.client = client;
+        }
+
+        @Override
+        public void call(Subscriber<? super Integer> s) {
+            if (client == null) {
+                s.onError(new NoSuchElementException("No servers available in the load balancer"));
+            }
+            else {
+                s.onNext(client);
+                s.onCompleted();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public Observable<Integer> all() {
+            return client == null ? Observable.<Integer>empty() : Observable.just(client);
+        }
+    }
+
+    @Test
+    public void testNextFromOnSubscribe() {
+        LoadBalancer<Integer> lb = new LegacyLoadBalancer(1);
+        Assert.assertEquals(1, lb.next().intValue());
+        Assert.assertEquals(1, lb.acquire().getClient().intValue());
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void testNextFromEmptyOnSubscribe() {
+        new LegacyLoadBalancer(null).next();
+    }
+}
@@ -0,0 +1,302 @@
+package netflix.ocelli.failures;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+import netflix.ocelli.FailureDetectingInstanceFactory;
+import netflix.ocelli.functions.Delays;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class HealthCheckerTest {
+    private final TestScheduler scheduler = new TestScheduler();
+
+    @Test
+    public void testAdaptiveInterval() {
+        final AtomicBoolean healthy = new AtomicBoolean(true);
+        final List<Long> probes = Lists.newArrayList();
+        HealthChecker<String> checker = HealthChecker.<String>builder()
+                .withProbe(new Func1<String, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(String client) {
+                        probes.add(scheduler.now());
+                        return healthy.get() ? Observable.just(true) : Observable.<Boolean>error(new Exception("unhealthy"));
+                    }
+                })
+                .withMinInterval(1, TimeUnit.SECONDS)
+                .withMaxInterval(4, TimeUnit.SECONDS)
+                .withJitter(0)
+                .withScheduler(scheduler)
+                .build();
+
+        TestSubscriber<Throwable> failures = new TestSubscriber<Throwable>();
+        checker.call("a").subscribe(failures);
+
+        // First probe is spread over the min interval
+        scheduler.advanceTimeBy(1100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(1, probes.size());
+
+        // Stable client backs off to the max interval
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(4, probes.size());
+        Assert.assertEquals(Lists.newArrayList(2000L, 4000L, 4000L), intervals(probes));
+        Assert.assertEquals(0, failures.getOnNextEvents().size());
+
+        // Suspect client is probed at the min interval and only reported once since the
+        // connector keeps it out of rotation until a probe succeeds
+        healthy.set(false);
+        probes.clear();
+        scheduler.advanceTimeBy(8, TimeUnit.SECONDS);
+        Assert.assertEquals(1, failures.getOnNextEvents().size());
+        Assert.assertTrue(probes.size() >= 5);
+        for (Long interval : intervals(probes)) {
+            Assert.assertEquals(1000L, interval.longValue());
+        }
+
+        // Recovered client backs off again and fails anew
+        healthy.set(true);
+        probes.clear();
+        scheduler.advanceTimeBy(4, TimeUnit.SECONDS);
+        Assert.assertEquals(Lists.newArrayList(2000L), intervals(probes));
+        healthy.set(false);
+        scheduler.advanceTimeBy(4, TimeUnit.SECONDS);
+        Assert.assertEquals(2, failures.getOnNextEvents().size());
+    }
+
+    @Test
+    public void testMaxConcurrentProbes() {
+        final List<PublishSubject<Boolean>> probes = Lists.newArrayList();
+        HealthChecker<Integer> checker = HealthChecker.<Integer>builder()
+                .withProbe(new Func1<Integer, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(Integer client) {
+                        PublishSubject<Boolean> probe = PublishSubject.create();
+                        probes.add(probe);
+                        return probe;
+                    }
+                })
+                .withMinInterval(1, TimeUnit.SECONDS)
+                .withProbeTimeout(5, TimeUnit.SECONDS)
+                .withMaxConcurrentProbes(3)
+                .withScheduler(scheduler)
+                .build();
+
+        List<TestSubscriber<Throwable>> failures = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            TestSubscriber<Throwable> subscriber = new TestSubscriber<Throwable>();
+            checker.call(i).subscribe(subscriber);
+            failures.add(subscriber);
+        }
+
+        scheduler.advanceTimeBy(1100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(3, probes.size());
+        Assert.assertEquals(3, checker.getInFlightCount());
+
+        // Deferred probes start as soon as others complete
+        for (PublishSubject<Boolean> probe : Lists.newArrayList(probes)) {
+            probe.onNext(true);
+        }
+        Assert.assertEquals(0, checker.getInFlightCount());
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(6, probes.size());
+        Assert.assertEquals(3, checker.getInFlightCount());
+
+        // Probes that time out are failures
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        int failed = 0;
+        for (TestSubscriber<Throwable> subscriber : failures) {
+            failed += subscriber.getOnNextEvents().size();
+        }
+        Assert.assertEquals(3, failed);
+
+        // Removed clients are no longer probed
+        for (TestSubscriber<Throwable> subscriber : failures) {
+            subscriber.unsubscribe();
+        }
+        Assert.assertEquals(0, checker.getInFlightCount());
+        int count = probes.size();
+        scheduler.advanceTimeBy(60, TimeUnit.SECONDS);
+        Assert.assertEquals(count, probes.size());
+    }
+
+    @Test
+    public void testDeferredClientsAreNotStarved() {
+        final Map<Integer, Integer> probes = Maps.newHashMap();
+        HealthChecker<Integer> checker = HealthChecker.<Integer>builder()
+                .withProbe(new Func1<Integer, Observable<Long>>() {
+                    @Override
+                    public Observable<Long> call(Integer client) {
+                        Integer count = probes.get(client);
+                        probes.put(client, count == null ? 1 : count + 1);
+                        return Observable.timer(150, TimeUnit.MILLISECONDS, scheduler);
+                    }
+                })
+                .withMinInterval(1, TimeUnit.SECONDS)
+                .withBackoffFactor(1)
+                .withMaxConcurrentProbes(1)
+                .withScheduler(scheduler)
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            checker.call(i).subscribe(new TestSubscriber<Throwable>());
+        }
+
+        // Only a few probes fit in each interval but every client gets its turn
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(probes.containsKey(i));
+        }
+    }
+
+    private static List<Long> intervals(List<Long> times) {
+        List<Long> intervals = Lists.newArrayList();
+        for (int i = 1; i < times.size(); i++) {
+            intervals.add(times.get(i) - times.get(i - 1));
+        }
+        return intervals;
+    }
+
+    @Test
+    public void testProbesOnceForEverySubscriber() {
+        final AtomicBoolean healthy = new AtomicBoolean(true);
+        final List<Long> probes = Lists.newArrayList();
+        HealthChecker<String> checker = HealthChecker.<String>builder()
+                .withProbe(new Func1<String, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(String client) {
+                        probes.add(scheduler.now());
+                        return healthy.get() ? Observable.just(true) : Observable.<Boolean>error(new Exception("unhealthy"));
+                    }
+                })
+                .withMinInterval(1, TimeUnit.SECONDS)
+                .withMaxInterval(1, TimeUnit.SECONDS)
+                .withJitter(0)
+                .withScheduler(scheduler)
+                .build();
+
+        // The client is in two partitions
+        TestSubscriber<Throwable> first = new TestSubscriber<Throwable>();
+        TestSubscriber<Throwable> second = new TestSubscriber<Throwable>();
+        checker.call("a").subscribe(first);
+        checker.call("a").subscribe(second);
+
+        scheduler.advanceTimeBy(5100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(5, probes.size());
+
+        healthy.set(false);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(1, first.getOnNextEvents().size());
+        Assert.assertEquals(1, second.getOnNextEvents().size());
+
+        // Still probed after the first subscriber leaves
+        first.unsubscribe();
+        healthy.set(true);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        healthy.set(false);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(1, first.getOnNextEvents().size());
+        Assert.assertEquals(2, second.getOnNextEvents().size());
+
+        // and no longer once the last one leaves
+        second.unsubscribe();
+        probes.clear();
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        Assert.assertEquals(0, probes.size());
+    }
+
+    @Test
+    public void testPendingConnectsCompleteWhenProbingStops() {
+        final AtomicBoolean healthy = new AtomicBoolean(false);
+        HealthChecker<String> checker = HealthChecker.<String>builder()
+                .withProbe(new Func1<String, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(String client) {
+                        return healthy.get() ? Observable.just(true) : Observable.<Boolean>error(new Exception("unhealthy"));
+                    }
+                })
+                .withMinInterval(1, TimeUnit.SECONDS)
+                .withJitter(0)
+                .withScheduler(scheduler)
+                .build();
+
+        TestSubscriber<Throwable> failuresA = new TestSubscriber<Throwable>();
+        TestSubscriber<Throwable> failuresB = new TestSubscriber<Throwable>();
+        checker.call("a").subscribe(failuresA);
+        checker.call("b").subscribe(failuresB);
+        scheduler.advanceTimeBy(1100, TimeUnit.MILLISECONDS);
+
+        TestSubscriber<String> connectA = new TestSubscriber<String>();
+        TestSubscriber<String> connectB = new TestSubscriber<String>();
+        checker.connector().call("a").subscribe(connectA);
+        checker.connector().call("b").subscribe(connectB);
+        connectA.assertReceivedOnNext(Lists.<String>newArrayList());
+        connectB.assertReceivedOnNext(Lists.<String>newArrayList());
+
+        // Removing a client connects it like any other client that isn't probed
+        failuresA.unsubscribe();
+        connectA.assertReceivedOnNext(Lists.newArrayList("a"));
+        Assert.assertEquals(1, connectA.getOnCompletedEvents().size());
+
+        checker.shutdown();
+        connectB.assertReceivedOnNext(Lists.newArrayList("b"));
+        Assert.assertEquals(1, connectB.getOnCompletedEvents().size());
+    }
+
+    @Test
+    public void testReconnectsOnSuccessfulProbe() throws InterruptedException {
+        final AtomicBoolean healthy = new AtomicBoolean(true);
+        HealthChecker<String> checker = HealthChecker.<String>builder()
+                .withProbe(new Func1<String, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(String client) {
+                        return healthy.get() ? Observable.just(true) : Observable.<Boolean>error(new Exception("unhealthy"));
+                    }
+                })
+                .withMinInterval(1, TimeUnit.SECONDS)
+                .withMaxInterval(1, TimeUnit.SECONDS)
+                .withJitter(0)
+                .withScheduler(scheduler)
+                .build();
+
+        FailureDetectingInstanceFactory<String> factory = FailureDetectingInstanceFactory.<String>builder()
+                .withFailureDetector(checker)
+                .withClientConnector(checker.connector())
+                .withQuarantineStrategy(Delays.fixed(1, TimeUnit.MILLISECONDS))
+                .build();
+
+        TestSubscriber<Boolean> states = new TestSubscriber<Boolean>();
+        factory.call("a").subscribe(states);
+        Assert.assertEquals(Lists.newArrayList(true), states.getOnNextEvents());
+
+        healthy.set(false);
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        Assert.assertEquals(Lists.newArrayList(true, false), states.getOnNextEvents());
+
+        // The quarantine ends but the client stays out of rotation while its probes fail
+        Thread.sleep(100);
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        Assert.assertEquals(Lists.newArrayList(true, false), states.getOnNextEvents());
+
+        // Back once a probe succeeds
+        healthy.set(true);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(Lists.newArrayList(true, false, true), states.getOnNextEvents());
+
+        // and failures are reported again
+        healthy.set(false);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(Lists.newArrayList(true, false, true, false), states.getOnNextEvents());
+    }
+}
@@ -0,0 +1,187 @@
+package netflix.ocelli.failures;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import com.google.common.collect.Lists;
+
+public class OutlierDetectorTest {
+    private static final int CLIENTS = 10;
+
+    private final TestScheduler scheduler = new TestScheduler();
+
+    private OutlierDetector<Integer> create() {
+        return OutlierDetector.<Integer>builder()
+                .withInterval(10, TimeUnit.SECONDS)
+                .withEjectionTime(30, TimeUnit.SECONDS)
+                .withScheduler(scheduler)
+                .build();
+    }
+
+    private List<TestSubscriber<Throwable>> subscribe(OutlierDetector<Integer> detector) {
+        List<TestSubscriber<Throwable>> subscribers = Lists.newArrayList();
+        for (int i = 0; i < CLIENTS; i++) {
+            TestSubscriber<Throwable> subscriber = new TestSubscriber<Throwable>();
+            detector.call(i).subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        return subscribers;
+    }
+
+    private static void record(OutlierDetector<Integer> detector, int client, int requests, int failures, long latency) {
+        for (int i = 0; i < requests; i++) {
+            if (i < failures) {
+                detector.onFailure(client, new Exception(), latency);
+            }
+            else {
+                detector.onSuccess(client, latency);
+            }
+        }
+    }
+
+    private static int ejected(List<TestSubscriber<Throwable>> subscribers, int client) {
+        return subscribers.get(client).getOnNextEvents().size();
+    }
+
+    @Test
+    public void testEjectsSuccessRateOutlier() {
+        OutlierDetector<Integer> detector = create();
+        List<TestSubscriber<Throwable>> subscribers = subscribe(detector);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 100, i == 0 ? 50 : 1, 10);
+        }
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, ejected(subscribers, 0));
+        for (int i = 1; i < CLIENTS; i++) {
+            Assert.assertEquals(0, ejected(subscribers, i));
+        }
+        Assert.assertEquals(1, detector.getEjectedCount());
+
+        // Ejection expires
+        scheduler.advanceTimeBy(30, TimeUnit.SECONDS);
+        Assert.assertEquals(0, detector.getEjectedCount());
+    }
+
+    @Test
+    public void testEjectsLatencyOutlier() {
+        OutlierDetector<Integer> detector = create();
+        List<TestSubscriber<Throwable>> subscribers = subscribe(detector);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 100, 0, i == 3 ? 500 : 10 + i);
+        }
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            Assert.assertEquals(i == 3 ? 1 : 0, ejected(subscribers, i));
+        }
+    }
+
+    @Test
+    public void testIgnoresLowVolumeAndUniformClusters() {
+        OutlierDetector<Integer> detector = create();
+        List<TestSubscriber<Throwable>> subscribers = subscribe(detector);
+
+        // Too few requests to judge client 0
+        record(detector, 0, 5, 5, 10);
+        for (int i = 1; i < CLIENTS; i++) {
+            record(detector, i, 100, 10, 10);
+        }
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            Assert.assertEquals(0, ejected(subscribers, i));
+        }
+    }
+
+    @Test
+    public void testMaxEjected() {
+        OutlierDetector<Integer> detector = create();
+        List<TestSubscriber<Throwable>> subscribers = subscribe(detector);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 100, i < 2 ? 50 : 0, 10);
+        }
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, ejected(subscribers, 0) + ejected(subscribers, 1));
+
+        // The other outlier isn't ejected while the first is still counted
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 100, i < 2 ? 50 : 0, 10);
+        }
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, ejected(subscribers, 0) + ejected(subscribers, 1));
+    }
+
+    @Test
+    public void testRollingWindow() {
+        OutlierDetector<Integer> detector = create();
+        List<TestSubscriber<Throwable>> subscribers = subscribe(detector);
+
+        // Too few requests in any one bucket but enough over the window
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 6, i == 0 ? 3 : 0, 10);
+        }
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        Assert.assertEquals(0, ejected(subscribers, 0));
+
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 6, i == 0 ? 3 : 0, 10);
+        }
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        Assert.assertEquals(1, ejected(subscribers, 0));
+    }
+
+    @Test
+    public void testOldBucketsExpire() {
+        OutlierDetector<Integer> detector = create();
+        List<TestSubscriber<Throwable>> subscribers = subscribe(detector);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 6, i == 0 ? 3 : 0, 10);
+        }
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        // The first requests have left the window
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 6, i == 0 ? 3 : 0, 10);
+        }
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        Assert.assertEquals(0, ejected(subscribers, 0));
+    }
+
+    @Test
+    public void testEjectsToEverySubscriber() {
+        OutlierDetector<Integer> detector = create();
+        List<TestSubscriber<Throwable>> subscribers = subscribe(detector);
+
+        // Client 0 is also in a second partition
+        TestSubscriber<Throwable> second = new TestSubscriber<Throwable>();
+        detector.call(0).subscribe(second);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 100, i == 0 ? 50 : 1, 10);
+        }
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, ejected(subscribers, 0));
+        Assert.assertEquals(1, second.getOnNextEvents().size());
+
+        // Still tracked after the first subscriber leaves
+        subscribers.get(0).unsubscribe();
+        scheduler.advanceTimeBy(30, TimeUnit.SECONDS);
+        for (int i = 0; i < CLIENTS; i++) {
+            record(detector, i, 100, i == 0 ? 50 : 1, 10);
+        }
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, second.getOnNextEvents().size());
+    }
+}
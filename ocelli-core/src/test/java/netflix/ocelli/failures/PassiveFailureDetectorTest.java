@@ -0,0 +1,248 @@
+package netflix.ocelli.failures;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import netflix.ocelli.MembershipEvent;
+import netflix.ocelli.executor.BackupExecutor;
+import netflix.ocelli.executor.Executor;
+import netflix.ocelli.executor.ExecutorBuilder;
+import netflix.ocelli.executor.FallbackExecutor;
+import netflix.ocelli.executor.ReportingOperation;
+import netflix.ocelli.executor.SimpleExecutor;
+import netflix.ocelli.functions.Metrics;
+import netflix.ocelli.functions.Retrys;
+import netflix.ocelli.loadbalancer.RoundRobinLoadBalancer;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class PassiveFailureDetectorTest {
+    @Test
+    public void testConsecutiveFailures() {
+        PassiveFailureDetector<String> detector = PassiveFailureDetector.create(PassiveFailureDetector.consecutiveFailures(3));
+        TestSubscriber<Throwable> failures = new TestSubscriber<Throwable>();
+        detector.call("a").subscribe(failures);
+
+        detector.onFailure("a", new Exception(), 1);
+        detector.onFailure("a", new Exception(), 1);
+        detector.onSuccess("a", 1);
+        detector.onFailure("a", new Exception(), 1);
+        detector.onFailure("a", new Exception(), 1);
+        Assert.assertEquals(0, failures.getOnNextEvents().size());
+
+        detector.onFailure("a", new Exception(), 1);
+        Assert.assertEquals(1, failures.getOnNextEvents().size());
+
+        // Counting starts over after a failure
+        detector.onFailure("a", new Exception(), 1);
+        Assert.assertEquals(1, failures.getOnNextEvents().size());
+
+        // Unknown clients are ignored
+        detector.onFailure("b", new Exception(), 1);
+    }
+
+    @Test
+    public void testFailureRatio() {
+        PassiveFailureDetector<String> detector = PassiveFailureDetector.create(PassiveFailureDetector.failureRatio(0.5, 10, 4));
+        TestSubscriber<Throwable> failures = new TestSubscriber<Throwable>();
+        detector.call("a").subscribe(failures);
+
+        // Failures among the successes stay below the ratio
+        for (int i = 0; i < 10; i++) {
+            detector.onSuccess("a", 1);
+        }
+        for (int i = 0; i < 4; i++) {
+            detector.onFailure("a", new Exception(), 1);
+        }
+        Assert.assertEquals(0, failures.getOnNextEvents().size());
+
+        // Older successes roll out of the window
+        detector.onFailure("a", new Exception(), 1);
+        Assert.assertEquals(1, failures.getOnNextEvents().size());
+
+        // Not enough requests since the last failure
+        for (int i = 0; i < 3; i++) {
+            detector.onFailure("a", new Exception(), 1);
+        }
+        Assert.assertEquals(1, failures.getOnNextEvents().size());
+        detector.onFailure("a", new Exception(), 1);
+        Assert.assertEquals(2, failures.getOnNextEvents().size());
+    }
+
+    @Test
+    public void testFailsToEverySubscriber() {
+        PassiveFailureDetector<String> detector = PassiveFailureDetector.create(PassiveFailureDetector.consecutiveFailures(2));
+        TestSubscriber<Throwable> first = new TestSubscriber<Throwable>();
+        TestSubscriber<Throwable> second = new TestSubscriber<Throwable>();
+        detector.call("a").subscribe(first);
+
+        // The client is also in a second partition
+        detector.call("a").subscribe(second);
+
+        detector.onFailure("a", new Exception(), 1);
+        detector.onFailure("a", new Exception(), 1);
+        Assert.assertEquals(1, first.getOnNextEvents().size());
+        Assert.assertEquals(1, second.getOnNextEvents().size());
+
+        // Still tracked after the first subscriber leaves
+        first.unsubscribe();
+        detector.onFailure("a", new Exception(), 1);
+        detector.onFailure("a", new Exception(), 1);
+        Assert.assertEquals(1, first.getOnNextEvents().size());
+        Assert.assertEquals(2, second.getOnNextEvents().size());
+
+        // Outcomes are ignored once the last subscriber leaves
+        second.unsubscribe();
+        detector.onFailure("a", new Exception(), 1);
+        detector.onFailure("a", new Exception(), 1);
+        Assert.assertEquals(2, second.getOnNextEvents().size());
+    }
+
+    @Test
+    public void testReportedByExecutor() {
+        PassiveFailureDetector<String> detector = PassiveFailureDetector.create(PassiveFailureDetector.consecutiveFailures(2));
+        TestSubscriber<Throwable> failures = new TestSubscriber<Throwable>();
+        detector.call("a").subscribe(failures);
+
+        Executor<Boolean, String> executor = SimpleExecutor.create(
+                RoundRobinLoadBalancer.from(Observable.<List<String>>just(Lists.newArrayList("a"))),
+                ReportingOperation.create(new Func2<String, Boolean, Observable<String>>() {
+                    @Override
+                    public Observable<String> call(String client, Boolean fail) {
+                        return fail ? Observable.<String>error(new Exception("failed")) : Observable.just(client);
+                    }
+                }, detector));
+
+        executor.call(true).subscribe(new TestSubscriber<String>());
+        executor.call(false).subscribe(new TestSubscriber<String>());
+        executor.call(true).subscribe(new TestSubscriber<String>());
+        Assert.assertEquals(0, failures.getOnNextEvents().size());
+
+        executor.call(true).subscribe(new TestSubscriber<String>());
+        Assert.assertEquals(1, failures.getOnNextEvents().size());
+    }
+
+    private static class RecordingListener implements OutcomeListener<String> {
+        private final List<String> outcomes = Lists.newArrayList();
+
+        @Override
+        public synchronized void onSuccess(String client, long latency) {
+            outcomes.add(client + ":success");
+        }
+
+        @Override
+        public synchronized void onFailure(String client, Throwable error, long latency) {
+            outcomes.add(client + ":failure");
+        }
+    }
+
+    /**
+     * @return Operation that fails the first attempt and succeeds on every other
+     */
+    private static Func2<String, Boolean, Observable<String>> failFirst() {
+        final AtomicInteger attempts = new AtomicInteger();
+        return new Func2<String, Boolean, Observable<String>>() {
+            @Override
+            public Observable<String> call(String client, Boolean request) {
+                return attempts.getAndIncrement() == 0 ? Observable.<String>error(new Exception("failed")) : Observable.just(client);
+            }
+        };
+    }
+
+    @Test
+    public void testReportedByBackupExecutor() {
+        RecordingListener listener = new RecordingListener();
+        TestScheduler scheduler = new TestScheduler();
+
+        Executor<Boolean, String> executor = BackupExecutor.<String, Boolean, String>builder(
+                    RoundRobinLoadBalancer.from(Observable.<List<String>>just(Lists.newArrayList("a", "b"))))
+                .withTimeoutMetric(Metrics.memoize(10L))
+                .withScheduler(scheduler)
+                .withClientFunc(ReportingOperation.create(failFirst(), listener))
+                .build();
+
+        TestSubscriber<String> response = new TestSubscriber<String>();
+        executor.call(true).subscribe(response);
+        scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+
+        // Both the failed primary and the backup are reported
+        Assert.assertEquals(1, response.getOnNextEvents().size());
+        String backup = response.getOnNextEvents().get(0);
+        String primary = backup.equals("a") ? "b" : "a";
+        Assert.assertEquals(Lists.newArrayList(primary + ":failure", backup + ":success"), listener.outcomes);
+    }
+
+    @Test
+    public void testReportedByFallbackExecutor() {
+        RecordingListener listener = new RecordingListener();
+        Func2<String, Boolean, Observable<String>> operation = ReportingOperation.create(failFirst(), listener);
+
+        List<Executor<Boolean, String>> sequence = Lists.newArrayList();
+        sequence.add(SimpleExecutor.create(RoundRobinLoadBalancer.from(Observable.<List<String>>just(Lists.newArrayList("a"))), operation));
+        sequence.add(SimpleExecutor.create(RoundRobinLoadBalancer.from(Observable.<List<String>>just(Lists.newArrayList("b"))), operation));
+        Executor<Boolean, String> executor = new FallbackExecutor<Boolean, String>(sequence, Retrys.ALWAYS);
+
+        TestSubscriber<String> response = new TestSubscriber<String>();
+        executor.call(true).subscribe(response);
+
+        Assert.assertEquals(Lists.newArrayList("b"), response.getOnNextEvents());
+        Assert.assertEquals(Lists.newArrayList("a:failure", "b:success"), listener.outcomes);
+    }
+
+    @Test
+    public void testMergedWithFailureDetector() {
+        PublishSubject<MembershipEvent<String>> hosts = PublishSubject.create();
+        final PublishSubject<Throwable> manual = PublishSubject.create();
+
+        Executor<Boolean, String> executor = ExecutorBuilder.<String, String, Boolean, String>builder()
+                .withSourceEvent(hosts)
+                .withClientFactory(new Func1<String, String>() {
+                    @Override
+                    public String call(String host) {
+                        return host;
+                    }
+                })
+                .withFailureDetector(new Func1<String, Observable<Throwable>>() {
+                    @Override
+                    public Observable<Throwable> call(String client) {
+                        return client.equals("a") ? manual : Observable.<Throwable>never();
+                    }
+                })
+                .withPassiveFailureDetection(PassiveFailureDetector.consecutiveFailures(1))
+                .withRequestOperation(new Func2<String, Boolean, Observable<String>>() {
+                    @Override
+                    public Observable<String> call(String client, Boolean fail) {
+                        return fail ? Observable.<String>error(new Exception("failed")) : Observable.just(client);
+                    }
+                })
+                .build();
+
+        hosts.onNext(MembershipEvent.create("a", MembershipEvent.EventType.ADD));
+        hosts.onNext(MembershipEvent.create("b", MembershipEvent.EventType.ADD));
+
+        // The explicit failure detector still takes a client out of rotation
+        manual.onNext(new Exception("manual failure"));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("b", executor.call(false).toBlocking().single());
+        }
+
+        // and so does passive failure detection
+        executor.call(true).subscribe(new TestSubscriber<String>());
+        TestSubscriber<String> response = new TestSubscriber<String>();
+        executor.call(false).subscribe(response);
+        Assert.assertEquals(1, response.getOnErrorEvents().size());
+        Assert.assertTrue(response.getOnErrorEvents().get(0) instanceof NoSuchElementException);
+    }
+}
@@ -0,0 +1,160 @@
+package netflix.ocelli.failures;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Maps;
+
+public class PhiAccrualFailureDetectorTest {
+    private final TestScheduler scheduler = new TestScheduler();
+    private final Map<String, PublishSubject<Void>> heartbeats = Maps.newHashMap();
+
+    private PhiAccrualFailureDetector<String> create() {
+        return PhiAccrualFailureDetector.<String>builder()
+                .withCheckInterval(100, TimeUnit.MILLISECONDS)
+                .withHeartbeats(new Func1<String, Observable<Void>>() {
+                    @Override
+                    public Observable<Void> call(String client) {
+                        PublishSubject<Void> subject = PublishSubject.create();
+                        heartbeats.put(client, subject);
+                        return subject;
+                    }
+                })
+                .withScheduler(scheduler)
+                .build();
+    }
+
+    @Test
+    public void testPhi() {
+        Assert.assertTrue(PhiAccrualFailureDetector.phi(1000, 1000, 100) < 1);
+        Assert.assertTrue(PhiAccrualFailureDetector.phi(1600, 1000, 100) > 8);
+        Assert.assertTrue(PhiAccrualFailureDetector.phi(1500, 1000, 500) < 2);
+    }
+
+    @Test
+    public void testDetectsMissingHeartbeats() {
+        PhiAccrualFailureDetector<String> detector = create();
+        TestSubscriber<Throwable> failures = new TestSubscriber<Throwable>();
+        detector.call("a").subscribe(failures);
+
+        // Nothing is suspected before the first heartbeat
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(0, failures.getOnNextEvents().size());
+
+        for (int i = 0; i < 20; i++) {
+            heartbeats.get("a").onNext(null);
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(0, failures.getOnNextEvents().size());
+
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(1, failures.getOnNextEvents().size());
+
+        // Only one failure per resuspect interval
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, failures.getOnNextEvents().size());
+
+        // Suspected again if no heartbeat arrives by the end of the quarantine
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        Assert.assertEquals(2, failures.getOnNextEvents().size());
+
+        // A heartbeat clears the suspicion
+        detector.heartbeat("a");
+        Assert.assertTrue(detector.getPhi("a") < 1);
+    }
+
+    @Test
+    public void testToleratesNoisyHeartbeats() {
+        PhiAccrualFailureDetector<String> detector = create();
+        TestSubscriber<Throwable> regular = new TestSubscriber<Throwable>();
+        TestSubscriber<Throwable> noisy = new TestSubscriber<Throwable>();
+        detector.call("regular").subscribe(regular);
+        detector.call("noisy").subscribe(noisy);
+
+        // Noisy heartbeats alternate between intervals of 500 and 1500 msec
+        for (int i = 0; i < 20; i++) {
+            heartbeats.get("regular").onNext(null);
+            heartbeats.get("noisy").onNext(null);
+            scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+            heartbeats.get("noisy").onNext(null);
+            scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+            heartbeats.get("regular").onNext(null);
+            scheduler.advanceTimeBy(1000, TimeUnit.MILLISECONDS);
+        }
+
+        // Both have a mean interval of one second but only the regular client is suspected
+        // shortly after its heartbeats stop
+        Assert.assertEquals(0, regular.getOnNextEvents().size());
+        scheduler.advanceTimeBy(1000, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(1, regular.getOnNextEvents().size());
+        Assert.assertEquals(0, noisy.getOnNextEvents().size());
+    }
+
+    @Test
+    public void testOutageIsNotAnInterval() {
+        PhiAccrualFailureDetector<String> detector = create();
+        TestSubscriber<Throwable> failures = new TestSubscriber<Throwable>();
+        detector.call("a").subscribe(failures);
+
+        for (int i = 0; i < 20; i++) {
+            heartbeats.get("a").onNext(null);
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        }
+        scheduler.advanceTimeBy(30, TimeUnit.SECONDS);
+        Assert.assertTrue(failures.getOnNextEvents().size() > 0);
+
+        // Recovers with the same regular heartbeats
+        for (int i = 0; i < 5; i++) {
+            heartbeats.get("a").onNext(null);
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        }
+        int suspicions = failures.getOnNextEvents().size();
+
+        // and is suspected just as quickly when they stop again
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(suspicions + 1, failures.getOnNextEvents().size());
+    }
+
+    @Test
+    public void testSuspectsToEverySubscriber() {
+        PhiAccrualFailureDetector<String> detector = create();
+        TestSubscriber<Throwable> first = new TestSubscriber<Throwable>();
+        TestSubscriber<Throwable> second = new TestSubscriber<Throwable>();
+        detector.call("a").subscribe(first);
+        PublishSubject<Void> heartbeat = heartbeats.get("a");
+
+        // The client is also in a second partition and shares the same heartbeats
+        detector.call("a").subscribe(second);
+        Assert.assertSame(heartbeat, heartbeats.get("a"));
+
+        for (int i = 0; i < 20; i++) {
+            heartbeat.onNext(null);
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        }
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(1, first.getOnNextEvents().size());
+        Assert.assertEquals(1, second.getOnNextEvents().size());
+
+        // Still monitored after the first subscriber leaves
+        first.unsubscribe();
+        Assert.assertTrue(heartbeat.hasObservers());
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, first.getOnNextEvents().size());
+        Assert.assertEquals(2, second.getOnNextEvents().size());
+
+        // Heartbeats stop once the last subscriber leaves
+        second.unsubscribe();
+        Assert.assertFalse(heartbeat.hasObservers());
+        Assert.assertEquals(0.0, detector.getPhi("a"));
+    }
+}
@@ -1,6 +1,8 @@
 package netflix.ocelli.functions;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
 import netflix.ocelli.CloseableMember;
@@ -9,17 +11,23 @@ import netflix.ocelli.Instance;
 import netflix.ocelli.InstanceCollector;
 import netflix.ocelli.Member;
 import netflix.ocelli.MemberToInstance;
+import netflix.ocelli.topologies.DeterministicApertureTopology;
 import netflix.ocelli.topologies.RingTopology;
 import netflix.ocelli.util.RxUtil;
 
+import junit.framework.Assert;
+
 import org.junit.Test;
 
+import rx.Observable;
 import rx.functions.Action0;
 import rx.functions.Func1;
 import rx.functions.Func2;
 import rx.subjects.BehaviorSubject;
 import rx.subjects.PublishSubject;
 
+import com.google.common.collect.Sets;
+
 public class TopologiesTest {
     public static class HostWithId extends Host {
         private final Integer id;
@@ -90,4 +98,212 @@ public class TopologiesTest {
         m9.close();
         m8.close();
     }
+    
+    @Test
+    public void testDeterministicApertureIsEven() {
+        PublishSubject<Member<Integer>> members = PublishSubject.create();
+        
+        Func1<Integer, Integer> identity = new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t1) {
+                return t1;
+            }
+        };
+        
+        // 3 clients talking to 4 hosts with an aperture of 2
+        List<DeterministicApertureTopology<Integer, Integer>> topologies = new ArrayList<DeterministicApertureTopology<Integer, Integer>>();
+        for (int i = 0; i < 3; i++) {
+            DeterministicApertureTopology<Integer, Integer> topology = Topologies.deterministicAperture(i, 3, identity, Functions.memoize(2));
+            members.compose(topology).subscribe();
+            topologies.add(topology);
+        }
+        
+        for (int i = 0; i < 4; i++) {
+            members.onNext(CloseableMember.from(i));
+        }
+        
+        for (int host = 0; host < 4; host++) {
+            double total = 0;
+            for (DeterministicApertureTopology<Integer, Integer> topology : topologies) {
+                total += topology.getWeight().call(host);
+            }
+            Assert.assertEquals(2.0, total, 0.0001);
+        }
+        
+        // The second client covers [1/3, 1) so only host 1 is partially covered
+        Assert.assertEquals(2.0/3, topologies.get(1).getWeight().call(1), 0.0001);
+        Assert.assertEquals(1.0,   topologies.get(1).getWeight().call(2), 0.0001);
+        Assert.assertEquals(1.0,   topologies.get(1).getWeight().call(3), 0.0001);
+        Assert.assertEquals(0.0,   topologies.get(1).getWeight().call(0), 0.0001);
+    }
+    
+    @Test
+    public void testDeterministicApertureWithSingleClient() {
+        PublishSubject<Member<Integer>> members = PublishSubject.create();
+        
+        DeterministicApertureTopology<Integer, Integer> topology = Topologies.deterministicAperture(0, 1, new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t1) {
+                return t1;
+            }
+        }, Functions.memoize(3));
+        members.compose(topology).subscribe();
+        
+        for (int i = 0; i < 10; i++) {
+            members.onNext(CloseableMember.from(i));
+        }
+        
+        // A single client still only talks to the aperture
+        double total = 0;
+        int selected = 0;
+        for (int host = 0; host < 10; host++) {
+            double weight = topology.getWeight().call(host);
+            total += weight;
+            if (weight > 0) {
+                selected++;
+            }
+        }
+        Assert.assertEquals(3, selected);
+        Assert.assertEquals(3.0, total, 0.0001);
+    }
+    
+    @Test
+    public void testRingSelectsNextHosts() {
+        PublishSubject<Member<Integer>> members = PublishSubject.create();
+        RingTopology<Integer, Integer> topology = Topologies.ring(5, new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t1) {
+                return t1;
+            }
+        }, Functions.memoize(3));
+        
+        AtomicReference<List<Integer>> current = new AtomicReference<List<Integer>>();
+        members
+            .compose(topology)
+            .map(MemberToInstance.from(new Func2<Integer, Action0, Instance<Integer>>() {
+                @Override
+                public Instance<Integer> call(Integer key, Action0 shutdown) {
+                    return Instance.from(key, BehaviorSubject.create(true));
+                }
+            }))
+            .compose(new InstanceCollector<Integer>())
+            .subscribe(RxUtil.set(current));
+        
+        CloseableMember<Integer> m7 = CloseableMember.from(7);
+        members.onNext(CloseableMember.from(1));
+        members.onNext(CloseableMember.from(6));
+        members.onNext(m7);
+        members.onNext(CloseableMember.from(9));
+        Assert.assertEquals(Sets.newHashSet(6, 7, 9), Sets.newHashSet(current.get()));
+        
+        // Wraps around the ring
+        m7.close();
+        Assert.assertEquals(Sets.newHashSet(6, 9, 1), Sets.newHashSet(current.get()));
+    }
+    
+    @Test
+    public void testWeightedVirtualNodes() {
+        List<Member<Long>> hosts = new ArrayList<Member<Long>>();
+        for (long i = 0; i < 4; i++) {
+            hosts.add(CloseableMember.from(i));
+        }
+        
+        // Host 3 has 3 times as many points on the ring
+        Func1<Long, Integer> virtualNodes = new Func1<Long, Integer>() {
+            @Override
+            public Integer call(Long host) {
+                return host == 3 ? 300 : 100;
+            }
+        };
+        
+        int[] counts = new int[4];
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            RingTopology<Long, Long> topology = Topologies.ring(random.nextLong(), new Func1<Long, Long>() {
+                @Override
+                public Long call(Long t1) {
+                    return t1;
+                }
+            }, Functions.memoize(1), virtualNodes);
+            
+            // Members never complete so take the selection after the last host was added
+            AtomicReference<Member<Long>> selected = new AtomicReference<Member<Long>>();
+            Observable.from(hosts).compose(topology).subscribe(RxUtil.set(selected));
+            counts[selected.get().getValue().intValue()]++;
+        }
+        Assert.assertEquals(500, counts[3], 60);
+        Assert.assertEquals(167, counts[0], 40);
+    }
+
+    private static RingTopology<Long, Long> collidingRing(Func2<Long, Integer, Long> virtualNodeKey, AtomicReference<List<Long>> current, PublishSubject<Member<Long>> members) {
+        RingTopology<Long, Long> topology = new RingTopology<Long, Long>(0L, new Func1<Long, Long>() {
+            @Override
+            public Long call(Long t1) {
+                return t1;
+            }
+        }, Functions.memoize(10), new Func1<Long, Integer>() {
+            @Override
+            public Integer call(Long t1) {
+                return 1;
+            }
+        }, virtualNodeKey);
+        
+        members
+            .compose(topology)
+            .map(MemberToInstance.from(new Func2<Long, Action0, Instance<Long>>() {
+                @Override
+                public Instance<Long> call(Long key, Action0 shutdown) {
+                    return Instance.from(key, BehaviorSubject.create(true));
+                }
+            }))
+            .compose(new InstanceCollector<Long>())
+            .subscribe(RxUtil.set(current));
+        return topology;
+    }
+    
+    @Test
+    public void testRingKeyCollisionIsProbed() {
+        PublishSubject<Member<Long>> members = PublishSubject.create();
+        AtomicReference<List<Long>> current = new AtomicReference<List<Long>>();
+        
+        // The first point of every host collides and probes are spread out by index
+        collidingRing(new Func2<Long, Integer, Long>() {
+            @Override
+            public Long call(Long key, Integer index) {
+                return (long)index;
+            }
+        }, current, members);
+        
+        CloseableMember<Long> m1 = CloseableMember.from(1L);
+        members.onNext(CloseableMember.from(0L));
+        members.onNext(m1);
+        Assert.assertEquals(Sets.newHashSet(0L, 1L), Sets.newHashSet(current.get()));
+        
+        // Removing the second host doesn't take the first host's point with it
+        m1.close();
+        Assert.assertEquals(Sets.newHashSet(0L), Sets.newHashSet(current.get()));
+    }
+    
+    @Test
+    public void testRingKeyCollisionWaitsForOwner() {
+        PublishSubject<Member<Long>> members = PublishSubject.create();
+        AtomicReference<List<Long>> current = new AtomicReference<List<Long>>();
+        
+        // Every point of every host collides
+        collidingRing(new Func2<Long, Integer, Long>() {
+            @Override
+            public Long call(Long key, Integer index) {
+                return 0L;
+            }
+        }, current, members);
+        
+        CloseableMember<Long> m0 = CloseableMember.from(0L);
+        members.onNext(m0);
+        members.onNext(CloseableMember.from(1L));
+        Assert.assertEquals(Sets.newHashSet(0L), Sets.newHashSet(current.get()));
+        
+        // The waiting host takes over the point
+        m0.close();
+        Assert.assertEquals(Sets.newHashSet(1L), Sets.newHashSet(current.get()));
+    }
 }
@@ -0,0 +1,137 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import netflix.ocelli.Lease;
+
+import org.junit.Test;
+
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class ApertureLoadBalancerTest {
+    @Test
+    public void testStaysWithinMinimumWhenIdle() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ApertureLoadBalancer<Integer> lb = new ApertureLoadBalancer<Integer>(source, 2, 10, 0.5, 2.0, 0);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        Set<Integer> used = new HashSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            Lease<Integer> lease = lb.acquire();
+            used.add(lease.getClient());
+            lease.complete();
+        }
+        Assert.assertEquals(2, lb.getAperture());
+        Assert.assertEquals(2, used.size());
+    }
+
+    @Test
+    public void testGrowsAndShrinksWithLoad() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ApertureLoadBalancer<Integer> lb = new ApertureLoadBalancer<Integer>(source, 1, 5, 0.5, 2.0, 0, 1, TimeUnit.SECONDS, scheduler);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        List<Lease<Integer>> leases = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+            leases.add(lb.acquire());
+        }
+        Assert.assertEquals(5, lb.getAperture());
+
+        for (Lease<Integer> lease : leases) {
+            lease.complete();
+        }
+        for (int i = 0; i < 10; i++) {
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+            lb.acquire().complete();
+        }
+        Assert.assertEquals(1, lb.getAperture());
+    }
+
+    @Test
+    public void testChangesAtMostOncePerCooldown() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ApertureLoadBalancer<Integer> lb = new ApertureLoadBalancer<Integer>(source, 1, 5, 0.5, 2.0, 0, 1, TimeUnit.SECONDS, scheduler);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        List<Lease<Integer>> leases = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            leases.add(lb.acquire());
+        }
+        Assert.assertEquals(2, lb.getAperture());
+
+        // A burst of completions doesn't shrink the aperture right back
+        for (Lease<Integer> lease : leases) {
+            lease.complete();
+        }
+        scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++) {
+            lb.acquire().complete();
+        }
+        Assert.assertEquals(2, lb.getAperture());
+
+        scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        lb.acquire().complete();
+        Assert.assertEquals(1, lb.getAperture());
+    }
+
+    @Test
+    public void testRemovedClientsDontCountTowardsLoad() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ApertureLoadBalancer<Integer> lb = new ApertureLoadBalancer<Integer>(source, 1, 5, 0.5, 2.0, 0, 1, TimeUnit.SECONDS, scheduler);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        List<Lease<Integer>> leases = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            leases.add(lb.acquire());
+        }
+        Assert.assertEquals(2, lb.getAperture());
+
+        // Requests still outstanding on the old clients don't keep the aperture open
+        source.onNext(Lists.newArrayList(10, 11, 12, 13, 14, 15, 16, 17, 18, 19));
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        lb.acquire().complete();
+        Assert.assertEquals(1, lb.getAperture());
+
+        for (Lease<Integer> lease : leases) {
+            lease.complete();
+        }
+        for (int i = 10; i < 20; i++) {
+            Assert.assertEquals(0, lb.getOutstanding(i));
+        }
+    }
+
+    @Test
+    public void testSubsetStableAcrossMembershipChange() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ApertureLoadBalancer<Integer> lb = new ApertureLoadBalancer<Integer>(source, 3, 3, 0.5, 2.0, 42);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+        Set<Integer> before = new HashSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            before.add(lb.next());
+        }
+
+        // Reordering the list doesn't change the subset
+        source.onNext(Lists.newArrayList(9, 8, 7, 6, 5, 4, 3, 2, 1, 0));
+        Set<Integer> after = new HashSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            after.add(lb.next());
+        }
+        Assert.assertEquals(before, after);
+    }
+}
@@ -0,0 +1,128 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Assert;
+import netflix.ocelli.Lease;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class ChoiceOfKLoadBalancerTest {
+    private static Func1<Integer, Double> IDENTITY = new Func1<Integer, Double>() {
+        @Override
+        public Double call(Integer t1) {
+            return (double)t1;
+        }
+    };
+
+    /**
+     * Client 0 is idle and every other client has a score of 10
+     */
+    private static Func1<Integer, Double> ONE_IDLE = new Func1<Integer, Double>() {
+        @Override
+        public Double call(Integer t1) {
+            return t1 == 0 ? 0.0 : 10.0;
+        }
+    };
+
+    private static AtomicIntegerArray simulate(ChoiceOfKLoadBalancer<Integer> lb, int N, int count) {
+        AtomicIntegerArray counts = new AtomicIntegerArray(N);
+        for (int i = 0; i < count; i++) {
+            counts.incrementAndGet(lb.next());
+        }
+        return counts;
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void testEmpty() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ChoiceOfKLoadBalancer<Integer> lb = ChoiceOfKLoadBalancer.create(source, 3, IDENTITY);
+
+        source.onNext(Lists.<Integer>newArrayList());
+
+        Observable.create(lb).toBlocking().single();
+    }
+
+    @Test
+    public void testKLargerThanClientsScansAll() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ChoiceOfKLoadBalancer<Integer> lb = ChoiceOfKLoadBalancer.create(source, 5, IDENTITY);
+
+        source.onNext(Lists.newArrayList(3, 1, 2));
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(1, (int)lb.next());
+        }
+    }
+
+    @Test
+    public void testCandidatesAreDistinct() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ChoiceOfKLoadBalancer<Integer> lb = ChoiceOfKLoadBalancer.create(source, 4, IDENTITY);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4));
+
+        // With 4 distinct candidates out of 5 the worst client can never be chosen
+        AtomicIntegerArray counts = simulate(lb, 5, 10000);
+        Assert.assertEquals(0, counts.get(4));
+        Assert.assertTrue(counts.get(0) > counts.get(1));
+    }
+
+    @Test
+    public void testBoundedLoadUsesLiveOutstanding() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ChoiceOfKLoadBalancer<Integer> unbounded = ChoiceOfKLoadBalancer.create(source, 2, IDENTITY);
+        ChoiceOfKLoadBalancer<Integer> bounded = new ChoiceOfKLoadBalancer<Integer>(source, 2, IDENTITY, 0.25, true);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        // Hold every lease so that the outstanding counts only grow
+        List<Lease<Integer>> leases = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            leases.add(unbounded.acquire());
+            leases.add(bounded.acquire());
+        }
+
+        // Without a bound the lowest scoring client takes 19% of requests
+        Assert.assertTrue(unbounded.getOutstanding(0) > 150);
+
+        // With a bound no client has more than 1.25 times the mean of 100
+        long sum = 0;
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(bounded.getOutstanding(i) <= 125);
+            sum += bounded.getOutstanding(i);
+        }
+        Assert.assertEquals(1000, sum);
+
+        // Completed requests are reflected immediately
+        for (Lease<Integer> lease : leases) {
+            lease.complete();
+        }
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(0, bounded.getOutstanding(i));
+        }
+    }
+
+    @Test
+    public void testBoundedLoadByOutstanding() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ChoiceOfKLoadBalancer<Integer> lb = ChoiceOfKLoadBalancer.boundedLoad(source, 2, 0.1);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3));
+
+        for (int i = 0; i < 400; i++) {
+            lb.acquire();
+        }
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(lb.getOutstanding(i) <= 110);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.Assert;
+import netflix.ocelli.Lease;
+import netflix.ocelli.executor.KeyedExecutor;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class ConsistentHashLoadBalancerTest {
+    @Test(expected=NoSuchElementException.class)
+    public void testEmpty() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ConsistentHashLoadBalancer<String, Integer> lb = ConsistentHashLoadBalancer.create(source);
+
+        source.onNext(Lists.<Integer>newArrayList());
+
+        lb.next("a");
+    }
+
+    @Test
+    public void testKeysAreSticky() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ConsistentHashLoadBalancer<String, Integer> lb = ConsistentHashLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4));
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(lb.next("key-" + i), lb.next("key-" + i));
+        }
+    }
+
+    @Test
+    public void testOnlyKeysOfRemovedClientMove() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ConsistentHashLoadBalancer<String, Integer> lb = ConsistentHashLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4));
+
+        int[] before = new int[1000];
+        int[] counts = new int[5];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = lb.next("key-" + i);
+            counts[before[i]]++;
+        }
+
+        // Virtual nodes should spread keys reasonably evenly
+        for (int count : counts) {
+            Assert.assertTrue(count > 100 && count < 300);
+        }
+
+        source.onNext(Lists.newArrayList(0, 1, 3, 4));
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != 2) {
+                Assert.assertEquals(before[i], (int)lb.next("key-" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testBoundedLoadSpills() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ConsistentHashLoadBalancer<String, Integer> lb = ConsistentHashLoadBalancer.create(source, 0.25);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3));
+
+        // A single hot key can't push its client above (1+epsilon) of the average
+        int owner = lb.next("hot");
+        for (int i = 0; i < 100; i++) {
+            lb.acquire("hot");
+        }
+        Assert.assertTrue(lb.getOutstanding(owner) <= Math.ceil(1.25 * 100 / 4));
+        Assert.assertEquals(100, lb.getOutstanding(0) + lb.getOutstanding(1) + lb.getOutstanding(2) + lb.getOutstanding(3));
+    }
+
+    @Test
+    public void testReleasedLeasesReturnToOwner() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ConsistentHashLoadBalancer<String, Integer> lb = ConsistentHashLoadBalancer.create(source, 0.25);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3));
+
+        int owner = lb.next("hot");
+        for (int i = 0; i < 100; i++) {
+            Lease<Integer> lease = lb.acquire("hot");
+            Assert.assertEquals(owner, (int)lease.getClient());
+            lease.complete();
+        }
+    }
+
+    @Test
+    public void testExecutorRoutesByKey() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        ConsistentHashLoadBalancer<String, Integer> lb = ConsistentHashLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4));
+
+        KeyedExecutor<String, Integer, String, Integer> executor = KeyedExecutor.create(lb,
+            new Func1<String, String>() {
+                @Override
+                public String call(String request) {
+                    return request.split(":")[0];
+                }
+            },
+            new Func2<Integer, String, Observable<Integer>>() {
+                @Override
+                public Observable<Integer> call(Integer client, String request) {
+                    return Observable.just(client);
+                }
+            });
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(lb.next("key-" + i), executor.call("key-" + i + ":" + i).toBlocking().single());
+        }
+    }
+}
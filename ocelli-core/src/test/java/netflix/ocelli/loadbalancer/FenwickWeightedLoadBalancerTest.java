@@ -0,0 +1,155 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class FenwickWeightedLoadBalancerTest {
+    private static AtomicIntegerArray simulate(FenwickWeightedLoadBalancer<Integer> lb, int N, int count) {
+        AtomicIntegerArray counts = new AtomicIntegerArray(N);
+        for (int i = 0; i < count; i++) {
+            counts.incrementAndGet(Observable.create(lb).toBlocking().single());
+        }
+        return counts;
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void testEmpty() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        FenwickWeightedLoadBalancer<Integer> lb = FenwickWeightedLoadBalancer.create(source);
+
+        source.onNext(Lists.<Integer>newArrayList());
+
+        Observable.create(lb).toBlocking().single();
+    }
+
+    @Test
+    public void testSetWeight() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        FenwickWeightedLoadBalancer<Integer> lb = FenwickWeightedLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4));
+
+        lb.setWeight(0, 0);
+        lb.setWeight(2, 0);
+        lb.setWeight(4, 0);
+
+        AtomicIntegerArray counts = simulate(lb, 5, 1000);
+        Assert.assertEquals(0, counts.get(0));
+        Assert.assertEquals(0, counts.get(2));
+        Assert.assertEquals(0, counts.get(4));
+        Assert.assertEquals(1000, counts.get(1) + counts.get(3));
+
+        lb.setWeight(1, 0);
+        counts = simulate(lb, 5, 1000);
+        Assert.assertEquals(1000, counts.get(3));
+    }
+
+    @Test
+    public void testProportionalWeights() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        FenwickWeightedLoadBalancer<Integer> lb = FenwickWeightedLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2));
+        lb.setWeight(0, 0.5);
+        lb.setWeight(1, 1.5);
+        lb.setWeight(2, 2.0);
+
+        AtomicIntegerArray counts = simulate(lb, 3, 40000);
+        Assert.assertEquals(0.125, counts.get(0) / 40000.0, 0.02);
+        Assert.assertEquals(0.375, counts.get(1) / 40000.0, 0.02);
+        Assert.assertEquals(0.5,   counts.get(2) / 40000.0, 0.02);
+    }
+
+    @Test
+    public void testWeightsSurviveMembershipChange() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        FenwickWeightedLoadBalancer<Integer> lb = FenwickWeightedLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2));
+        lb.setWeight(1, 5);
+
+        source.onNext(Lists.newArrayList(1, 2, 3));
+        Assert.assertEquals(5.0, lb.getWeight(1), 0.0001);
+        Assert.assertEquals(1.0, lb.getWeight(3), 0.0001);
+        Assert.assertEquals(0.0, lb.getWeight(0), 0.0001);
+    }
+
+    @Test
+    public void testWeightSetDuringMembershipChange() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        final List<FenwickWeightedLoadBalancer<Integer>> holder = Lists.newArrayList();
+        FenwickWeightedLoadBalancer<Integer> lb = FenwickWeightedLoadBalancer.create(source, new Func1<Integer, Double>() {
+            @Override
+            public Double call(Integer client) {
+                // Update another client's weight while the new tree is being built
+                if (client == 3) {
+                    holder.get(0).setWeight(1, 7);
+                }
+                return 1.0;
+            }
+        });
+        holder.add(lb);
+
+        source.onNext(Lists.newArrayList(0, 1, 2));
+        lb.setWeight(1, 5);
+        lb.setWeight(0, 3);
+
+        source.onNext(Lists.newArrayList(1, 2, 3));
+        Assert.assertEquals(7.0, lb.getWeight(1), 0.0001);
+
+        // Removed clients start over with their initial weight
+        source.onNext(Lists.newArrayList(0, 1, 2));
+        Assert.assertEquals(1.0, lb.getWeight(0), 0.0001);
+        Assert.assertEquals(7.0, lb.getWeight(1), 0.0001);
+    }
+
+    /**
+     * Client that swaps in a new membership list the next time setWeight looks it up,
+     * so the rebuild completes between setWeight reading the tree and writing to it
+     */
+    private static class RebuildingClient {
+        private final PublishSubject<List<RebuildingClient>> source;
+        private List<RebuildingClient> pending;
+
+        RebuildingClient(PublishSubject<List<RebuildingClient>> source) {
+            this.source = source;
+        }
+
+        @Override
+        public int hashCode() {
+            List<RebuildingClient> next = pending;
+            if (next != null) {
+                pending = null;
+                source.onNext(next);
+            }
+            return super.hashCode();
+        }
+    }
+
+    @Test
+    public void testWeightSetDuringRebuild() {
+        PublishSubject<List<RebuildingClient>> source = PublishSubject.create();
+        FenwickWeightedLoadBalancer<RebuildingClient> lb = FenwickWeightedLoadBalancer.create(source);
+
+        RebuildingClient client1 = new RebuildingClient(source);
+        RebuildingClient client2 = new RebuildingClient(source);
+        source.onNext(Lists.newArrayList(client1));
+
+        client1.pending = Lists.newArrayList(client1, client2);
+        lb.setWeight(client1, 5);
+
+        Assert.assertEquals(5.0, lb.getWeight(client1), 0.0001);
+        Assert.assertEquals(1.0, lb.getWeight(client2), 0.0001);
+    }
+}
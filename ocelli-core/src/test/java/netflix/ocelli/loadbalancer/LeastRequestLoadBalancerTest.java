@@ -0,0 +1,120 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.Assert;
+import netflix.ocelli.Lease;
+import netflix.ocelli.executor.SimpleExecutor;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class LeastRequestLoadBalancerTest {
+    @Test(expected=NoSuchElementException.class)
+    public void testEmpty() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        LeastRequestLoadBalancer<Integer> lb = LeastRequestLoadBalancer.create(source);
+
+        source.onNext(Lists.<Integer>newArrayList());
+
+        lb.acquire();
+    }
+
+    @Test
+    public void testLeaseTracksOutstanding() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        LeastRequestLoadBalancer<Integer> lb = LeastRequestLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0));
+
+        Lease<Integer> lease1 = lb.acquire();
+        Lease<Integer> lease2 = lb.acquire();
+        Assert.assertEquals(2, lb.getOutstanding(0));
+
+        lease1.complete();
+        lease1.complete();
+        Assert.assertEquals(1, lb.getOutstanding(0));
+
+        lease2.fail(new Exception());
+        Assert.assertEquals(0, lb.getOutstanding(0));
+    }
+
+    @Test
+    public void testPicksLeastOutstanding() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        LeastRequestLoadBalancer<Integer> lb = LeastRequestLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1));
+
+        // Leases are never completed so the two clients must alternate
+        for (int i = 0; i < 100; i++) {
+            lb.acquire();
+            Assert.assertTrue(Math.abs(lb.getOutstanding(0) - lb.getOutstanding(1)) <= 1);
+        }
+        Assert.assertEquals(50, lb.getOutstanding(0));
+    }
+
+    @Test
+    public void testWeighted() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        LeastRequestLoadBalancer<Integer> lb = LeastRequestLoadBalancer.create(source, new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t1) {
+                return t1 == 0 ? 3 : 1;
+            }
+        });
+
+        source.onNext(Lists.newArrayList(0, 1));
+
+        for (int i = 0; i < 100; i++) {
+            lb.acquire();
+        }
+        Assert.assertEquals(75, lb.getOutstanding(0), 1);
+    }
+
+    @Test
+    public void testCountersSurviveMembershipChange() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        LeastRequestLoadBalancer<Integer> lb = LeastRequestLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0));
+        Lease<Integer> lease = lb.acquire();
+
+        source.onNext(Lists.newArrayList(0, 1));
+        Assert.assertEquals(1, lb.getOutstanding(0));
+
+        lease.complete();
+        Assert.assertEquals(0, lb.getOutstanding(0));
+    }
+
+    @Test
+    public void testExecutorCompletesLease() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        LeastRequestLoadBalancer<Integer> lb = LeastRequestLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0));
+
+        final PublishSubject<String> response = PublishSubject.create();
+        SimpleExecutor<Integer, String, String> executor = SimpleExecutor.create(lb, new Func2<Integer, String, Observable<String>>() {
+            @Override
+            public Observable<String> call(Integer client, String request) {
+                return response;
+            }
+        });
+
+        executor.call("a").subscribe();
+        Assert.assertEquals(1, lb.getOutstanding(0));
+        response.onCompleted();
+        Assert.assertEquals(0, lb.getOutstanding(0));
+
+        executor.call("b").subscribe().unsubscribe();
+        Assert.assertEquals(0, lb.getOutstanding(0));
+    }
+}
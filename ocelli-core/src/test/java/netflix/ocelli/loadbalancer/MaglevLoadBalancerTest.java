@@ -0,0 +1,78 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class MaglevLoadBalancerTest {
+    @Test(expected=NoSuchElementException.class)
+    public void testEmpty() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        MaglevLoadBalancer<Integer, Integer> lb = MaglevLoadBalancer.create(source);
+
+        source.onNext(Lists.<Integer>newArrayList());
+
+        lb.next(1);
+    }
+
+    @Test
+    public void testTableSizeIsPrime() {
+        Assert.assertEquals(65537, MaglevLoadBalancer.nextPrime(65537));
+        Assert.assertEquals(101, MaglevLoadBalancer.nextPrime(100));
+        Assert.assertEquals(2, MaglevLoadBalancer.nextPrime(1));
+    }
+
+    @Test
+    public void testBalancedAndIndependentOfOrder() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        MaglevLoadBalancer<Integer, Integer> lb = MaglevLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        int[] before = new int[10000];
+        int[] counts = new int[10];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = lb.next(i);
+            counts[before[i]]++;
+        }
+        for (int count : counts) {
+            Assert.assertEquals(1000, count, 150);
+        }
+
+        source.onNext(Lists.newArrayList(9, 8, 7, 6, 5, 4, 3, 2, 1, 0));
+        for (int i = 0; i < before.length; i++) {
+            Assert.assertEquals(before[i], (int)lb.next(i));
+        }
+    }
+
+    @Test
+    public void testMinimalDisruption() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        MaglevLoadBalancer<Integer, Integer> lb = MaglevLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        int[] before = new int[10000];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = lb.next(i);
+        }
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8));
+
+        int moved = 0;
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != 9 && before[i] != lb.next(i)) {
+                moved++;
+            }
+        }
+        // Only a small fraction of keys not owned by the removed client should move
+        Assert.assertTrue("Moved " + moved, moved < before.length / 20);
+    }
+}
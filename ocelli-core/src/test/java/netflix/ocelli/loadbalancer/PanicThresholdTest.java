@@ -0,0 +1,67 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+import netflix.ocelli.Instance;
+import netflix.ocelli.TieredInstanceCollector;
+import netflix.ocelli.util.RxUtil;
+
+import org.junit.Test;
+
+import rx.functions.Func1;
+import rx.subjects.BehaviorSubject;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Sets;
+
+public class PanicThresholdTest {
+    @Test
+    public void testPanicAcrossAllInstances() {
+        PublishSubject<Instance<Integer>> source = PublishSubject.create();
+        PanicThreshold<Integer> panic = new PanicThreshold<Integer>(0.5, 0.25);
+
+        AtomicReference<List<Integer>> clients = new AtomicReference<List<Integer>>();
+        source
+            .compose(new TieredInstanceCollector<Integer>())
+            .compose(panic)
+            .subscribe(RxUtil.set(clients));
+
+        List<BehaviorSubject<Boolean>> states = new ArrayList<BehaviorSubject<Boolean>>();
+        for (int i = 0; i < 4; i++) {
+            BehaviorSubject<Boolean> state = BehaviorSubject.create(true);
+            states.add(state);
+            source.onNext(Instance.from(i, state));
+        }
+        Assert.assertEquals(Sets.newHashSet(0, 1, 2, 3), new HashSet<Integer>(clients.get()));
+
+        // Half are still healthy so the down instances are excluded
+        states.get(0).onNext(false);
+        states.get(1).onNext(false);
+        Assert.assertFalse(panic.isPanic());
+        Assert.assertEquals(Sets.newHashSet(2, 3), new HashSet<Integer>(clients.get()));
+
+        // Below the threshold everything is used, with less weight on the down instances
+        states.get(2).onNext(false);
+        Assert.assertTrue(panic.isPanic());
+        Assert.assertEquals(Sets.newHashSet(0, 1, 2, 3), new HashSet<Integer>(clients.get()));
+
+        Func1<Integer, Double> weight = panic.getWeight();
+        Assert.assertEquals(0.25, weight.call(0));
+        Assert.assertEquals(1.0, weight.call(3));
+
+        // Removed instances are gone from both tiers
+        states.get(0).onCompleted();
+        Assert.assertEquals(Sets.newHashSet(1, 2, 3), new HashSet<Integer>(clients.get()));
+
+        // Recovery ends panic mode
+        states.get(1).onNext(true);
+        states.get(2).onNext(true);
+        Assert.assertFalse(panic.isPanic());
+        Assert.assertEquals(Sets.newHashSet(1, 2, 3), new HashSet<Integer>(clients.get()));
+        Assert.assertEquals(1.0, weight.call(1));
+    }
+}
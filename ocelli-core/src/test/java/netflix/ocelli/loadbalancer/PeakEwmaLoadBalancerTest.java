@@ -0,0 +1,135 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Assert;
+import netflix.ocelli.stats.PeakEwma;
+
+import org.junit.Test;
+
+import rx.functions.Func1;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class PeakEwmaLoadBalancerTest {
+    static class TestHost {
+        final PeakEwma latency;
+        final AtomicInteger pending = new AtomicInteger();
+
+        TestHost(TestScheduler scheduler) {
+            latency = new PeakEwma(10, TimeUnit.SECONDS, scheduler);
+        }
+    }
+
+    private static final Func1<TestHost, Double> LATENCY = PeakEwmaLoadBalancer.latency(new Func1<TestHost, PeakEwma>() {
+        @Override
+        public PeakEwma call(TestHost t1) {
+            return t1.latency;
+        }
+    });
+
+    private static final Func1<TestHost, Integer> PENDING = new Func1<TestHost, Integer>() {
+        @Override
+        public Integer call(TestHost t1) {
+            return t1.pending.get();
+        }
+    };
+
+    @Test
+    public void testPeakIsImmediate() {
+        TestScheduler scheduler = new TestScheduler();
+        PeakEwma ewma = new PeakEwma(10, TimeUnit.SECONDS, scheduler);
+
+        ewma.add(10L);
+        Assert.assertEquals(10, (long)ewma.get());
+
+        ewma.add(1000L);
+        Assert.assertEquals(1000, (long)ewma.get());
+
+        // A fast sample right after the peak barely moves the average
+        ewma.add(10L);
+        Assert.assertEquals(1000, (long)ewma.get());
+    }
+
+    @Test
+    public void testDecaysOverTime() {
+        TestScheduler scheduler = new TestScheduler();
+        PeakEwma ewma = new PeakEwma(10, TimeUnit.SECONDS, scheduler);
+
+        ewma.add(1000L);
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(368, (long)ewma.get());
+
+        ewma.add(0L);
+        Assert.assertEquals(368, (long)ewma.get());
+    }
+
+    @Test
+    public void testAvoidsSlowHost() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<List<TestHost>> source = PublishSubject.create();
+        PeakEwmaLoadBalancer<TestHost> lb = PeakEwmaLoadBalancer.create(source, LATENCY, PENDING);
+
+        List<TestHost> hosts = Lists.newArrayList(new TestHost(scheduler), new TestHost(scheduler), new TestHost(scheduler));
+        source.onNext(hosts);
+
+        hosts.get(0).latency.add(10L);
+        hosts.get(1).latency.add(10L);
+        hosts.get(2).latency.add(500L);
+
+        AtomicIntegerArray counts = new AtomicIntegerArray(3);
+        for (int i = 0; i < 1000; i++) {
+            counts.incrementAndGet(hosts.indexOf(lb.next()));
+        }
+        Assert.assertEquals(0, counts.get(2));
+    }
+
+    @Test
+    public void testOutstandingRequestsIncreaseCost() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<List<TestHost>> source = PublishSubject.create();
+        PeakEwmaLoadBalancer<TestHost> lb = PeakEwmaLoadBalancer.create(source, LATENCY, PENDING);
+
+        List<TestHost> hosts = Lists.newArrayList(new TestHost(scheduler), new TestHost(scheduler));
+        source.onNext(hosts);
+
+        hosts.get(0).latency.add(10L);
+        hosts.get(1).latency.add(20L);
+        Assert.assertSame(hosts.get(0), lb.next());
+
+        hosts.get(0).pending.set(2);
+        Assert.assertSame(hosts.get(1), lb.next());
+    }
+
+    @Test
+    public void testNoSamplesIsNotZeroLatency() {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<List<TestHost>> source = PublishSubject.create();
+        PeakEwmaLoadBalancer<TestHost> lb = PeakEwmaLoadBalancer.create(source, LATENCY, PENDING);
+
+        List<TestHost> hosts = Lists.newArrayList(new TestHost(scheduler), new TestHost(scheduler));
+        source.onNext(hosts);
+
+        // A new host with a request outstanding is penalized until its first response
+        hosts.get(0).pending.set(1);
+        hosts.get(1).latency.add(10L);
+        hosts.get(1).pending.set(3);
+        Assert.assertSame(hosts.get(1), lb.next());
+
+        // A sub millisecond host is not
+        hosts.get(0).latency.add(0L);
+        Assert.assertSame(hosts.get(0), lb.next());
+
+        // Nor is a host whose latency decayed while idle
+        hosts.get(0).latency.add(100L);
+        scheduler.advanceTimeBy(10, TimeUnit.MINUTES);
+        hosts.get(1).latency.add(10L);
+        Assert.assertEquals(0, (long)hosts.get(0).latency.get());
+        Assert.assertSame(hosts.get(0), lb.next());
+    }
+}
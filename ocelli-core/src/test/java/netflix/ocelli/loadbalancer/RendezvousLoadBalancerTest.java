@@ -0,0 +1,79 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import rx.functions.Func1;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class RendezvousLoadBalancerTest {
+    @Test
+    public void testOnlyKeysOfRemovedClientMove() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        RendezvousLoadBalancer<Integer, Integer> lb = RendezvousLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4));
+
+        int[] before = new int[1000];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = lb.next(i);
+        }
+
+        source.onNext(Lists.newArrayList(0, 1, 3, 4));
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != 2) {
+                Assert.assertEquals(before[i], (int)lb.next(i));
+            }
+            else {
+                Assert.assertTrue(lb.next(i) != 2);
+            }
+        }
+    }
+
+    @Test
+    public void testWeighted() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        RendezvousLoadBalancer<Integer, Integer> lb = RendezvousLoadBalancer.create(source, new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t1) {
+                return t1 + 1;
+            }
+        });
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3));
+
+        int[] counts = new int[4];
+        for (int i = 0; i < 10000; i++) {
+            counts[lb.next(i)]++;
+        }
+        Assert.assertEquals(1000, counts[0], 150);
+        Assert.assertEquals(2000, counts[1], 150);
+        Assert.assertEquals(3000, counts[2], 150);
+        Assert.assertEquals(4000, counts[3], 150);
+    }
+
+    @Test
+    public void testTopK() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        RendezvousLoadBalancer<Integer, Integer> lb = RendezvousLoadBalancer.create(source);
+
+        source.onNext(Lists.newArrayList(0, 1, 2, 3, 4));
+
+        Integer[] result = new Integer[3];
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(3, lb.next(i, result));
+            Assert.assertEquals(lb.next(i), result[0]);
+            Assert.assertTrue(!result[0].equals(result[1]) && !result[1].equals(result[2]) && !result[0].equals(result[2]));
+        }
+
+        // Asking for more clients than exist returns them all
+        Integer[] all = new Integer[7];
+        Assert.assertEquals(5, lb.next(1, all));
+        Assert.assertNull(all[5]);
+    }
+}
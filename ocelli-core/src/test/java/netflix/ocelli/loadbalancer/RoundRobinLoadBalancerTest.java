@@ -0,0 +1,91 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class RoundRobinLoadBalancerTest {
+    @Test(expected=NoSuchElementException.class)
+    public void testNextWhenEmpty() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        RoundRobinLoadBalancer<Integer> lb = RoundRobinLoadBalancer.from(source);
+        
+        source.onNext(Lists.<Integer>newArrayList());
+        
+        lb.next();
+    }
+    
+    @Test
+    public void testNext() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        RoundRobinLoadBalancer<Integer> lb = RoundRobinLoadBalancer.from(source);
+        
+        source.onNext(Lists.newArrayList(0,1));
+        
+        Assert.assertEquals(0, (int)lb.next());
+        Assert.assertEquals(1, (int)Observable.create(lb).toBlocking().single());
+        Assert.assertEquals(0, (int)lb.next());
+    }
+    
+    @Test
+    public void testSeedPosition() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        RoundRobinLoadBalancer<Integer> lb = RoundRobinLoadBalancer.from(source, 1);
+        
+        source.onNext(Lists.newArrayList(0,1,2,3));
+        
+        Assert.assertEquals(2, (int)Observable.create(lb).toBlocking().single());
+        Assert.assertEquals(3, (int)Observable.create(lb).toBlocking().single());
+        Assert.assertEquals(0, (int)Observable.create(lb).toBlocking().single());
+    }
+    
+    @Test
+    public void testOverflow() {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        RoundRobinLoadBalancer<Integer> lb = RoundRobinLoadBalancer.from(source, Integer.MAX_VALUE - 1);
+        
+        source.onNext(Lists.newArrayList(0,1,2));
+        
+        for (int i = 0; i < 10; i++) {
+            Observable.create(lb).toBlocking().single();
+        }
+    }
+    
+    @Test
+    public void testStripedIsEven() throws InterruptedException {
+        PublishSubject<List<Integer>> source = PublishSubject.create();
+        final StripedRoundRobinLoadBalancer<Integer> lb = StripedRoundRobinLoadBalancer.from(source, -1, 10);
+        
+        source.onNext(Lists.newArrayList(0,1,2,3,4));
+        
+        final AtomicIntegerArray counts = new AtomicIntegerArray(5);
+        final CountDownLatch latch = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Each thread consumes whole blocks
+                    for (int j = 0; j < 1000; j++) {
+                        counts.incrementAndGet(Observable.create(lb).toBlocking().single());
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        
+        for (int i = 0; i < counts.length(); i++) {
+            Assert.assertEquals(800, counts.get(i));
+        }
+    }
+}
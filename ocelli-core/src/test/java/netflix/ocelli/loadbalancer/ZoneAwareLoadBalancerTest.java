@@ -0,0 +1,148 @@
+package netflix.ocelli.loadbalancer;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.Assert;
+import netflix.ocelli.Host;
+import netflix.ocelli.Lease;
+
+import org.junit.Test;
+
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class ZoneAwareLoadBalancerTest {
+    private static Host host(String name, String zone) {
+        return new Host(name, 80, ImmutableMap.of(Host.ZONE_ATTRIBUTE, zone));
+    }
+
+    private static ZoneAwareLoadBalancer<Host> create(PublishSubject<List<Host>> source) {
+        return ZoneAwareLoadBalancer.create(source, Host.byAttribute(Host.ZONE_ATTRIBUTE, "unknown"), "a");
+    }
+
+    private static int countRemote(ZoneAwareLoadBalancer<Host> lb, int count) {
+        int remote = 0;
+        for (int i = 0; i < count; i++) {
+            Host host = lb.next();
+            if (!"a".equals(host.getAttributes(Host.ZONE_ATTRIBUTE, null))) {
+                remote++;
+            }
+        }
+        return remote;
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void testEmpty() {
+        PublishSubject<List<Host>> source = PublishSubject.create();
+        ZoneAwareLoadBalancer<Host> lb = create(source);
+        lb.next();
+    }
+
+    @Test
+    public void testStaysLocal() {
+        PublishSubject<List<Host>> source = PublishSubject.create();
+        ZoneAwareLoadBalancer<Host> lb = create(source);
+
+        source.onNext(Lists.newArrayList(host("a1", "a"), host("a2", "a"), host("b1", "b"), host("b2", "b"), host("c1", "c")));
+
+        Assert.assertEquals(0.0, lb.getSpillover());
+        Assert.assertEquals(0, countRemote(lb, 1000));
+    }
+
+    @Test
+    public void testSpillsOverWithoutLocalCapacity() {
+        PublishSubject<List<Host>> source = PublishSubject.create();
+        PublishSubject<List<Host>> known = PublishSubject.create();
+        ZoneAwareLoadBalancer<Host> lb = ZoneAwareLoadBalancer.create(source, known, Host.byAttribute(Host.ZONE_ATTRIBUTE, "unknown"), "a");
+
+        known.onNext(Lists.newArrayList(host("a1", "a"), host("a2", "a"), host("a3", "a"), host("a4", "a"), host("b1", "b"), host("b2", "b")));
+
+        // Local zone has lost half of its clients
+        source.onNext(Lists.newArrayList(host("a1", "a"), host("a2", "a"), host("b1", "b"), host("b2", "b")));
+        double expected = 1 - 0.5 / ZoneAwareLoadBalancer.DEFAULT_MIN_LOCAL_CAPACITY;
+        Assert.assertEquals(expected, lb.getSpillover(), 0.0001);
+
+        int remote = countRemote(lb, 10000);
+        Assert.assertTrue(Math.abs(remote / 10000.0 - expected) < 0.03);
+
+        // No local clients at all
+        source.onNext(Lists.newArrayList(host("b1", "b"), host("b2", "b")));
+        Assert.assertEquals(1000, countRemote(lb, 1000));
+
+        // Local zone recovered
+        source.onNext(Lists.newArrayList(host("a1", "a"), host("a2", "a"), host("a3", "a"), host("b1", "b"), host("b2", "b")));
+        Assert.assertEquals(0.0, lb.getSpillover());
+    }
+
+    @Test
+    public void testSmallHealthyZoneStaysLocal() {
+        PublishSubject<List<Host>> source = PublishSubject.create();
+        PublishSubject<List<Host>> known = PublishSubject.create();
+        ZoneAwareLoadBalancer<Host> lb = ZoneAwareLoadBalancer.create(source, known, Host.byAttribute(Host.ZONE_ATTRIBUTE, "unknown"), "a");
+
+        List<Host> hosts = Lists.newArrayList(host("a1", "a"), host("b1", "b"), host("b2", "b"), host("b3", "b"), host("c1", "c"), host("c2", "c"));
+        known.onNext(hosts);
+        source.onNext(hosts);
+
+        Assert.assertEquals(0.0, lb.getSpillover());
+        Assert.assertEquals(0, countRemote(lb, 1000));
+    }
+
+    @Test
+    public void testLargeZoneLosingHostsSpillsOver() {
+        PublishSubject<List<Host>> source = PublishSubject.create();
+        PublishSubject<List<Host>> known = PublishSubject.create();
+        ZoneAwareLoadBalancer<Host> lb = ZoneAwareLoadBalancer.create(source, known, Host.byAttribute(Host.ZONE_ATTRIBUTE, "unknown"), "a");
+
+        List<Host> hosts = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            hosts.add(host("a" + i, "a"));
+        }
+        hosts.add(host("b1", "b"));
+        hosts.add(host("c1", "c"));
+        known.onNext(hosts);
+
+        // Only 3 of 10 local clients are healthy, still more than any other zone
+        source.onNext(Lists.newArrayList(host("a0", "a"), host("a1", "a"), host("a2", "a"), host("b1", "b"), host("c1", "c")));
+        Assert.assertEquals(1 - 0.3 / ZoneAwareLoadBalancer.DEFAULT_MIN_LOCAL_CAPACITY, lb.getSpillover(), 0.0001);
+    }
+
+    @Test
+    public void testWithoutKnownSpillsOverOnlyWhenLocalIsEmpty() {
+        PublishSubject<List<Host>> source = PublishSubject.create();
+        ZoneAwareLoadBalancer<Host> lb = create(source);
+
+        source.onNext(Lists.newArrayList(host("a1", "a"), host("b1", "b"), host("b2", "b"), host("b3", "b")));
+        Assert.assertEquals(0.0, lb.getSpillover());
+
+        source.onNext(Lists.newArrayList(host("b1", "b"), host("b2", "b")));
+        Assert.assertEquals(1.0, lb.getSpillover());
+    }
+
+    @Test
+    public void testSpillsOverUnderLoad() {
+        PublishSubject<List<Host>> source = PublishSubject.create();
+        ZoneAwareLoadBalancer<Host> lb = create(source);
+
+        source.onNext(Lists.newArrayList(host("a1", "a"), host("a2", "a"), host("b1", "b"), host("b2", "b")));
+
+        List<Lease<Host>> leases = Lists.newArrayList();
+        for (int i = 0; i < 40; i++) {
+            leases.add(lb.acquire());
+        }
+
+        long local  = lb.getOutstanding(host("a1", "a")) + lb.getOutstanding(host("a2", "a"));
+        long remote = lb.getOutstanding(host("b1", "b")) + lb.getOutstanding(host("b2", "b"));
+        Assert.assertEquals(40, local + remote);
+        Assert.assertTrue(remote > 0);
+        Assert.assertTrue((local - remote) / 2.0 <= ZoneAwareLoadBalancer.DEFAULT_LOAD_MARGIN + 1);
+
+        for (Lease<Host> lease : leases) {
+            lease.complete();
+        }
+        Assert.assertEquals(0, countRemote(lb, 1000));
+    }
+}
@@ -0,0 +1,123 @@
+package netflix.ocelli.loadbalancer.weighting;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Assert;
+import netflix.ocelli.loadbalancer.AliasWeightedLoadBalancer;
+import netflix.ocelli.retry.RetryFailedTestRule;
+import netflix.ocelli.retry.RetryFailedTestRule.Retry;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import rx.functions.Func1;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class AliasWeightedLoadBalancerTest extends BaseWeightingStrategyTest {
+
+    @Rule
+    public RetryFailedTestRule retryRule = new RetryFailedTestRule();
+
+    @Test(expected=NoSuchElementException.class)
+    public void testEmptyClients() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        AliasWeightedLoadBalancer<IntClientAndMetrics> selector = AliasWeightedLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        List<IntClientAndMetrics> clients = create();
+        subject.onNext(clients);
+
+        simulate(selector, clients.size(), 1000);
+    }
+
+    @Test
+    public void testOneClient() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        AliasWeightedLoadBalancer<IntClientAndMetrics> selector = AliasWeightedLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        List<IntClientAndMetrics> clients = create(10);
+        subject.onNext(clients);
+
+        List<Integer> counts = Arrays.<Integer>asList(simulate(selector, clients.size(), 1000));
+        Assert.assertEquals(Lists.newArrayList(1000), counts);
+    }
+
+    @Test
+    @Retry(5)
+    public void testEqualsWeights() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        AliasWeightedLoadBalancer<IntClientAndMetrics> selector = AliasWeightedLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        List<IntClientAndMetrics> clients = create(1,1,1,1);
+        subject.onNext(clients);
+
+        List<Integer> counts = Arrays.<Integer>asList(roundToNearest(simulate(selector, clients.size(), 4000), 100));
+        Assert.assertEquals(Lists.newArrayList(1000, 1000, 1000, 1000), counts);
+    }
+
+    @Test
+    @Retry(5)
+    public void testDifferentWeights() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        AliasWeightedLoadBalancer<IntClientAndMetrics> selector = AliasWeightedLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        List<IntClientAndMetrics> clients = create(1,2,3,4);
+        subject.onNext(clients);
+
+        List<Integer> counts = Arrays.<Integer>asList(roundToNearest(simulate(selector, clients.size(), 4000), 100));
+        Assert.assertEquals(Lists.newArrayList(400, 800, 1200, 1600), counts);
+    }
+
+    @Test
+    public void testZeroWeight() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        AliasWeightedLoadBalancer<IntClientAndMetrics> selector = AliasWeightedLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        List<IntClientAndMetrics> clients = create(0,5,0,5);
+        subject.onNext(clients);
+
+        Integer[] counts = simulate(selector, clients.size(), 4000);
+        Assert.assertEquals(0, (int)counts[0]);
+        Assert.assertEquals(0, (int)counts[2]);
+    }
+
+    @Test
+    public void testWeightsRefreshedOnInterval() throws Throwable {
+        final AtomicIntegerArray metrics = new AtomicIntegerArray(new int[]{1, 0});
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        AliasWeightedLoadBalancer<IntClientAndMetrics> selector = new AliasWeightedLoadBalancer<IntClientAndMetrics>(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(new Func1<IntClientAndMetrics, Integer>() {
+                    @Override
+                    public Integer call(IntClientAndMetrics t1) {
+                        return metrics.get(t1.getClient());
+                    }
+                }), 1, TimeUnit.SECONDS, scheduler);
+
+        List<IntClientAndMetrics> clients = create(0, 0);
+        subject.onNext(clients);
+
+        Assert.assertEquals(Lists.newArrayList(100, 0), Arrays.<Integer>asList(simulate(selector, clients.size(), 100)));
+
+        // Weights are only resampled once the refresh interval elapses
+        metrics.set(0, 0);
+        metrics.set(1, 1);
+        Assert.assertEquals(Lists.newArrayList(100, 0), Arrays.<Integer>asList(simulate(selector, clients.size(), 100)));
+
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        Assert.assertEquals(Lists.newArrayList(0, 100), Arrays.<Integer>asList(simulate(selector, clients.size(), 100)));
+
+        selector.shutdown();
+    }
+}
@@ -40,10 +40,10 @@ public class BaseWeightingStrategyTest {
      * @param caw
      * @return
      */
-    static int[] getWeights(ClientsAndWeights<IntClientAndMetrics> caw) {
-        int[] weights = new int[caw.size()];
+    static double[] getWeights(ClientsAndWeights<IntClientAndMetrics> caw) {
+        double[] weights = new double[caw.size()];
         for (int i = 0; i < caw.size(); i++) {
-            weights[i] = caw.getWeight(i);
+            weights[i] = caw.getCumulativeWeight(i);
         }
         return weights;
     }
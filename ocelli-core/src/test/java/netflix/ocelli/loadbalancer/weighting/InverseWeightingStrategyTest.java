@@ -0,0 +1,41 @@
+package netflix.ocelli.loadbalancer.weighting;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import rx.functions.Func1;
+
+import com.google.common.collect.Lists;
+
+public class InverseWeightingStrategyTest {
+    private static final Func1<Double, Double> IDENTITY = new Func1<Double, Double>() {
+        @Override
+        public Double call(Double value) {
+            return value;
+        }
+    };
+
+    @Test
+    public void testValuesBelowOne() {
+        // Latencies in seconds
+        List<Double> clients = Lists.newArrayList(0.01, 0.02, 0.04);
+        ClientsAndWeights<Double> caw = new InverseWeightingStrategy<Double>(IDENTITY).call(clients);
+
+        Assert.assertEquals(100.0, caw.getCumulativeWeight(0), 0.0001);
+        Assert.assertEquals(150.0, caw.getCumulativeWeight(1), 0.0001);
+        Assert.assertEquals(175.0, caw.getCumulativeWeight(2), 0.0001);
+    }
+
+    @Test
+    public void testMin() {
+        List<Double> clients = Lists.newArrayList(0.0, 0.5, 2.0);
+        ClientsAndWeights<Double> caw = new InverseWeightingStrategy<Double>(IDENTITY, 1.0).call(clients);
+
+        Assert.assertEquals(1.0, caw.getCumulativeWeight(0), 0.0001);
+        Assert.assertEquals(2.0, caw.getCumulativeWeight(1), 0.0001);
+        Assert.assertEquals(2.5, caw.getCumulativeWeight(2), 0.0001);
+    }
+}
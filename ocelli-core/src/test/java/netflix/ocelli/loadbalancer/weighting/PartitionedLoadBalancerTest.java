@@ -1,7 +1,12 @@
 package netflix.ocelli.loadbalancer.weighting;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import junit.framework.Assert;
 import netflix.ocelli.FailureDetectingInstanceFactory;
@@ -15,6 +20,9 @@ import netflix.ocelli.client.Behaviors;
 import netflix.ocelli.client.Connects;
 import netflix.ocelli.client.ManualFailureDetector;
 import netflix.ocelli.client.TestClient;
+import netflix.ocelli.executor.Executor;
+import netflix.ocelli.executor.ExecutorBuilder;
+import netflix.ocelli.loadbalancer.PanicThreshold;
 import netflix.ocelli.loadbalancer.RoundRobinLoadBalancer;
 import netflix.ocelli.util.RxUtil;
 
@@ -26,9 +34,12 @@ import rx.Observable;
 import rx.Observable.OnSubscribe;
 import rx.Subscriber;
 import rx.functions.Func1;
+import rx.functions.Func2;
 import rx.observables.GroupedObservable;
+import rx.schedulers.TestScheduler;
 import rx.subjects.PublishSubject;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 public class PartitionedLoadBalancerTest {
@@ -38,6 +49,23 @@ public class PartitionedLoadBalancerTest {
     
     private ManualFailureDetector failureDetector = new ManualFailureDetector();
     
+    /**
+     * @return Function converting each partition of members to a partition of instances
+     */
+    private static Func1<GroupedObservable<String, Member<TestClient>>, GroupedObservable<String, Instance<TestClient>>> toInstances(final FailureDetectingInstanceFactory<TestClient> factory) {
+        return new Func1<GroupedObservable<String, Member<TestClient>>, GroupedObservable<String, Instance<TestClient>>>() {
+            @Override
+            public GroupedObservable<String, Instance<TestClient>> call(final GroupedObservable<String, Member<TestClient>> group) {
+                return GroupedObservable.create(group.getKey(), new OnSubscribe<Instance<TestClient>>() {
+                    @Override
+                    public void call(Subscriber<? super Instance<TestClient>> t1) {
+                        group.map(TestClient.memberToInstance(factory)).subscribe(t1);
+                    }
+                });
+            }
+        };
+    }
+    
     @Test
     public void testVip() throws InterruptedException {
         PublishSubject<MembershipEvent<TestClient>> hostSource = PublishSubject.create();
@@ -57,18 +85,7 @@ public class PartitionedLoadBalancerTest {
         hostSource
             .compose(new MembershipEventToMember<TestClient>())
             .compose(Member.partitionBy(TestClient.byVip()))
-            .map(new Func1<GroupedObservable<String,Member<TestClient>>, GroupedObservable<String, Instance<TestClient>>>() {
-                @Override
-                public GroupedObservable<String, Instance<TestClient>> call(final GroupedObservable<String, Member<TestClient>> group) {
-                    return GroupedObservable.create(group.getKey(), new OnSubscribe<Instance<TestClient>>() {
-                        @Override
-                        public void call(Subscriber<? super Instance<TestClient>> t1) {
-                            group.map(TestClient.memberToInstance(factory)).subscribe(t1);
-                        }
-                    });
-                }
-                
-            })
+            .map(toInstances(factory))
             .subscribe(plb);
         
         //////////////////////////
@@ -149,18 +166,7 @@ public class PartitionedLoadBalancerTest {
         hostSource
             .compose(new MembershipEventToMember<TestClient>())
             .compose(Member.partitionBy(TestClient.byVip()))
-            .map(new Func1<GroupedObservable<String,Member<TestClient>>, GroupedObservable<String, Instance<TestClient>>>() {
-                @Override
-                public GroupedObservable<String, Instance<TestClient>> call(final GroupedObservable<String, Member<TestClient>> group) {
-                    return GroupedObservable.create(group.getKey(), new OnSubscribe<Instance<TestClient>>() {
-                        @Override
-                        public void call(Subscriber<? super Instance<TestClient>> t1) {
-                            group.map(TestClient.memberToInstance(factory)).subscribe(t1);
-                        }
-                    });
-                }
-                
-            })
+            .map(toInstances(factory))
             .subscribe(plb);
         
         //////////////////////////
@@ -212,18 +218,7 @@ public class PartitionedLoadBalancerTest {
         hostSource
             .compose(new MembershipEventToMember<TestClient>())
             .compose(Member.partitionBy(TestClient.byRack()))
-            .map(new Func1<GroupedObservable<String,Member<TestClient>>, GroupedObservable<String, Instance<TestClient>>>() {
-                @Override
-                public GroupedObservable<String, Instance<TestClient>> call(final GroupedObservable<String, Member<TestClient>> group) {
-                    return GroupedObservable.create(group.getKey(), new OnSubscribe<Instance<TestClient>>() {
-                        @Override
-                        public void call(Subscriber<? super Instance<TestClient>> t1) {
-                            group.map(TestClient.memberToInstance(factory)).subscribe(t1);
-                        }
-                    });
-                }
-                
-            })
+            .map(toInstances(factory))
             .subscribe(plb);
 
         
@@ -257,7 +252,247 @@ public class PartitionedLoadBalancerTest {
     
     @Test
     public void testShard() {
+        PublishSubject<MembershipEvent<TestClient>> hostSource = PublishSubject.create();
+        
+        TestClient h1 = TestClient.create("h1", Connects.immediate(), Behaviors.immediate()).withRack("us-east-1a");
+        TestClient h2 = TestClient.create("h2", Connects.immediate(), Behaviors.immediate()).withRack("us-east-1c");
+        
+        Executor<String, String> executor = ExecutorBuilder.<TestClient, TestClient, String, String>builder()
+            .withSourceEvent(hostSource)
+            .withClientFactory(new Func1<TestClient, TestClient>() {
+                @Override
+                public TestClient call(TestClient client) {
+                    return client;
+                }
+            })
+            .withRequestOperation(new Func2<TestClient, String, Observable<String>>() {
+                @Override
+                public Observable<String> call(TestClient client, String request) {
+                    return Observable.just(client.rack());
+                }
+            })
+            .buildPartitioned(TestClient.byRack(), new Func1<String, String>() {
+                @Override
+                public String call(String request) {
+                    return request;
+                }
+            }, Lists.newArrayList("us-east-1c"));
+        
+        hostSource.onNext(MembershipEvent.create(h1, MembershipEvent.EventType.ADD));
+        hostSource.onNext(MembershipEvent.create(h2, MembershipEvent.EventType.ADD));
+        
+        Assert.assertEquals("us-east-1a", executor.call("us-east-1a").toBlocking().single());
+        Assert.assertEquals("us-east-1c", executor.call("us-east-1c").toBlocking().single());
+        
+        // Unknown partition goes to the fallback
+        Assert.assertEquals("us-east-1c", executor.call("us-east-1b").toBlocking().single());
+        
+        // Empty partition goes to the fallback
+        hostSource.onNext(MembershipEvent.create(h1, MembershipEvent.EventType.REMOVE));
+        Assert.assertEquals("us-east-1c", executor.call("us-east-1a").toBlocking().single());
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testPartitionedRejectsPanicThreshold() {
+        ExecutorBuilder.<TestClient, TestClient, String, String>builder()
+            .withSourceEvent(PublishSubject.<MembershipEvent<TestClient>>create())
+            .withPanicThreshold(PanicThreshold.<TestClient>create())
+            .buildPartitioned(TestClient.byRack(), new Func1<String, String>() {
+                @Override
+                public String call(String request) {
+                    return request;
+                }
+            }, Collections.<String>emptyList());
+    }
+    
+    @Test
+    public void testFallbackChain() {
+        final FailureDetectingInstanceFactory<TestClient> factory =
+                FailureDetectingInstanceFactory.<TestClient>builder()
+                .withFailureDetector(failureDetector)
+                .build();
+        
+        PublishSubject<MembershipEvent<TestClient>> hostSource = PublishSubject.create();
+        
+        TestClient h1 = TestClient.create("h1", Connects.immediate(), Behaviors.immediate()).withVip("a");
+        TestClient h2 = TestClient.create("h2", Connects.immediate(), Behaviors.immediate()).withVip("a").withVip("b");
+        TestClient h3 = TestClient.create("h3", Connects.immediate(), Behaviors.immediate()).withVip("c");
+        
+        PartitionedLoadBalancer<String, TestClient> plb = new PartitionedLoadBalancer<String, TestClient>(
+                RoundRobinLoadBalancer.<TestClient>factory(), Lists.newArrayList("b", "c"));
+        
+        hostSource
+            .compose(new MembershipEventToMember<TestClient>())
+            .compose(Member.partitionBy(TestClient.byVip()))
+            .map(toInstances(factory))
+            .subscribe(plb);
+        
+        hostSource.onNext(MembershipEvent.create(h1, MembershipEvent.EventType.ADD));
+        hostSource.onNext(MembershipEvent.create(h2, MembershipEvent.EventType.ADD));
+        hostSource.onNext(MembershipEvent.create(h3, MembershipEvent.EventType.ADD));
+        
+        // Clients in more than one partition are only listed once
+        Assert.assertEquals(3, (int)plb.all().count().toBlocking().single());
+        
+        Assert.assertTrue(Sets.newHashSet(h1, h2).contains(plb.next("a")));
+        Assert.assertEquals(h3, plb.next("c"));
+        Assert.assertEquals(h2, plb.next("d"));
+        Assert.assertEquals(h2, plb.next());
         
+        // Falls through to the second fallback once the first is empty
+        hostSource.onNext(MembershipEvent.create(h2, MembershipEvent.EventType.REMOVE));
+        Assert.assertEquals(h3, plb.next("b"));
+        Assert.assertEquals(h3, plb.next("d"));
+        
+        hostSource.onNext(MembershipEvent.create(h3, MembershipEvent.EventType.REMOVE));
+        Assert.assertEquals(h1, plb.next("a"));
+        try {
+            plb.next("d");
+            Assert.fail("Expected NoSuchElementException");
+        }
+        catch (NoSuchElementException e) {
+            // Expected
+        }
+    }
+    
+    @Test(expected=NoSuchElementException.class)
+    public void testKeylessWithoutFallbacks() {
+        PartitionedLoadBalancer<String, TestClient> plb = new PartitionedLoadBalancer<String, TestClient>();
+        plb.next();
+    }
+    
+    @Test(expected=NoSuchElementException.class)
+    public void testKeylessAcquireWithoutFallbacks() {
+        PartitionedLoadBalancer<String, TestClient> plb = new PartitionedLoadBalancer<String, TestClient>();
+        plb.acquire();
+    }
+    
+    @Test
+    public void testEviction() {
+        final FailureDetectingInstanceFactory<TestClient> factory =
+                FailureDetectingInstanceFactory.<TestClient>builder()
+                .withFailureDetector(failureDetector)
+                .build();
+        
+        PublishSubject<MembershipEvent<TestClient>> hostSource = PublishSubject.create();
+        TestScheduler scheduler = new TestScheduler();
+        
+        TestClient h1 = TestClient.create("h1", Connects.immediate(), Behaviors.immediate()).withVip("a");
+        TestClient h2 = TestClient.create("h2", Connects.immediate(), Behaviors.immediate()).withVip("b");
+        
+        PartitionedLoadBalancer<String, TestClient> plb = new PartitionedLoadBalancer<String, TestClient>(
+                RoundRobinLoadBalancer.<TestClient>factory(), Collections.<String>emptyList(), 10, TimeUnit.SECONDS, scheduler);
+        
+        hostSource
+            .compose(new MembershipEventToMember<TestClient>())
+            .compose(Member.partitionBy(TestClient.byVip()))
+            .map(toInstances(factory))
+            .subscribe(plb);
+        
+        hostSource.onNext(MembershipEvent.create(h1, MembershipEvent.EventType.ADD));
+        hostSource.onNext(MembershipEvent.create(h2, MembershipEvent.EventType.ADD));
+        
+        // Load balancers are only created once used.  All hosts are also in the "*" vip.
+        Assert.assertEquals(3, plb.getPartitionCount());
+        Assert.assertEquals(0, plb.getActivePartitionCount());
+        Assert.assertEquals(h1, plb.next("a"));
+        Assert.assertEquals(1, plb.getActivePartitionCount());
+        
+        // Unused load balancers are shut down but the partition remains
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, plb.getActivePartitionCount());
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(0, plb.getActivePartitionCount());
+        Assert.assertEquals(3, plb.getPartitionCount());
+        Assert.assertEquals(h1, plb.next("a"));
+        
+        // Empty partitions are removed
+        hostSource.onNext(MembershipEvent.create(h1, MembershipEvent.EventType.REMOVE));
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, plb.getPartitionCount());
+        Assert.assertEquals(0, plb.getActivePartitionCount());
+        
+        // and created again when a client shows up
+        hostSource.onNext(MembershipEvent.create(h1, MembershipEvent.EventType.ADD));
+        Assert.assertEquals(3, plb.getPartitionCount());
+        Assert.assertEquals(h1, plb.get("a").next());
+        
+        plb.shutdown();
+        Assert.assertEquals(0, plb.getPartitionCount());
+    }
+    
+    @Test
+    public void testDeactivatedLoadBalancerShutsDownOnceUnused() {
+        final FailureDetectingInstanceFactory<TestClient> factory =
+                FailureDetectingInstanceFactory.<TestClient>builder()
+                .withFailureDetector(failureDetector)
+                .build();
+        
+        PublishSubject<MembershipEvent<TestClient>> hostSource = PublishSubject.create();
+        final TestScheduler scheduler = new TestScheduler();
+        
+        TestClient h1 = TestClient.create("h1", Connects.immediate(), Behaviors.immediate()).withVip("a");
+        
+        final List<LoadBalancer<TestClient>> created = Lists.newArrayList();
+        final Set<LoadBalancer<TestClient>> shutdown = Sets.newHashSet();
+        final AtomicBoolean evictDuringSelection = new AtomicBoolean();
+        final AtomicBoolean shutdownDuringSelection = new AtomicBoolean();
+        PartitionedLoadBalancer<String, TestClient> plb = new PartitionedLoadBalancer<String, TestClient>(
+                new Func1<Observable<List<TestClient>>, LoadBalancer<TestClient>>() {
+                    @Override
+                    public LoadBalancer<TestClient> call(Observable<List<TestClient>> source) {
+                        final LoadBalancer<TestClient> delegate = RoundRobinLoadBalancer.from(source);
+                        LoadBalancer<TestClient> lb = new LoadBalancer<TestClient>() {
+                            @Override
+                            public TestClient next() {
+                                if (evictDuringSelection.compareAndSet(true, false)) {
+                                    scheduler.advanceTimeBy(20, TimeUnit.SECONDS);
+                                    shutdownDuringSelection.set(shutdown.contains(this));
+                                }
+                                return delegate.next();
+                            }
+
+                            @Override
+                            public Observable<TestClient> all() {
+                                return delegate.all();
+                            }
+
+                            @Override
+                            public void shutdown() {
+                                delegate.shutdown();
+                                shutdown.add(this);
+                            }
+                        };
+                        created.add(lb);
+                        return lb;
+                    }
+                }, Collections.<String>emptyList(), 10, TimeUnit.SECONDS, scheduler);
+        
+        hostSource
+            .compose(new MembershipEventToMember<TestClient>())
+            .compose(Member.partitionBy(TestClient.byVip()))
+            .map(toInstances(factory))
+            .subscribe(plb);
+        
+        hostSource.onNext(MembershipEvent.create(h1, MembershipEvent.EventType.ADD));
+        Assert.assertEquals(h1, plb.next("a"));
+        Assert.assertEquals(1, created.size());
+        
+        // Deactivated and shut down right away once unused
+        scheduler.advanceTimeBy(20, TimeUnit.SECONDS);
+        Assert.assertEquals(0, plb.getActivePartitionCount());
+        Assert.assertEquals(Collections.singleton(created.get(0)), shutdown);
+        
+        // A new load balancer is created for the next request
+        Assert.assertEquals(h1, plb.next("a"));
+        Assert.assertEquals(2, created.size());
+        
+        // Deactivated while a request is selecting from it but only shut down once it's done
+        evictDuringSelection.set(true);
+        Assert.assertEquals(h1, plb.next("a"));
+        Assert.assertFalse(shutdownDuringSelection.get());
+        Assert.assertEquals(0, plb.getActivePartitionCount());
+        Assert.assertEquals(Sets.<LoadBalancer<TestClient>>newHashSet(created), shutdown);
     }
     
     @Test
@@ -0,0 +1,177 @@
+package netflix.ocelli.loadbalancer.weighting;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import netflix.ocelli.functions.Weightings;
+import netflix.ocelli.loadbalancer.ChoiceOfTwoLoadBalancer;
+import netflix.ocelli.loadbalancer.PeakEwmaLoadBalancer;
+
+import org.junit.Test;
+
+import rx.functions.Func1;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class SlowStartTest {
+    @Test
+    public void testLinearRamp() {
+        TestScheduler clock = new TestScheduler();
+        SlowStart<String> slowStart = new SlowStart<String>(10, TimeUnit.SECONDS, false, 0.1, clock);
+
+        slowStart.update(Lists.newArrayList("a"));
+        Assert.assertEquals(0.1, slowStart.getFactor("a"), 0.0001);
+
+        clock.advanceTimeBy(5, TimeUnit.SECONDS);
+        Assert.assertEquals(0.55, slowStart.getFactor("a"), 0.0001);
+
+        clock.advanceTimeBy(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1.0, slowStart.getFactor("a"), 0.0001);
+
+        // Unknown clients are not ramped
+        Assert.assertEquals(1.0, slowStart.getFactor("b"), 0.0001);
+    }
+
+    @Test
+    public void testExponentialRamp() {
+        TestScheduler clock = new TestScheduler();
+        SlowStart<String> slowStart = new SlowStart<String>(10, TimeUnit.SECONDS, true, 0.01, clock);
+
+        slowStart.update(Lists.newArrayList("a"));
+        Assert.assertEquals(0.01, slowStart.getFactor("a"), 0.0001);
+
+        clock.advanceTimeBy(5, TimeUnit.SECONDS);
+        Assert.assertEquals(0.1, slowStart.getFactor("a"), 0.0001);
+
+        clock.advanceTimeBy(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1.0, slowStart.getFactor("a"), 0.0001);
+    }
+
+    @Test
+    public void testRecoveredClientRampsAgain() {
+        TestScheduler clock = new TestScheduler();
+        SlowStart<String> slowStart = new SlowStart<String>(10, TimeUnit.SECONDS, false, 0.1, clock);
+        PublishSubject<List<String>> source = PublishSubject.create();
+        source.compose(slowStart).subscribe();
+
+        source.onNext(Lists.newArrayList("a", "b"));
+        clock.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1.0, slowStart.getFactor("a"), 0.0001);
+
+        // Removed while down and added back once up
+        source.onNext(Lists.newArrayList("b"));
+        source.onNext(Lists.newArrayList("a", "b"));
+        Assert.assertEquals(0.1, slowStart.getFactor("a"), 0.0001);
+        Assert.assertEquals(1.0, slowStart.getFactor("b"), 0.0001);
+    }
+
+    @Test
+    public void testWeighting() {
+        TestScheduler clock = new TestScheduler();
+        SlowStart<Integer> slowStart = new SlowStart<Integer>(10, TimeUnit.SECONDS, false, 0.1, clock);
+        WeightingStrategy<Integer> strategy = slowStart.weighting(Weightings.identity(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer weight) {
+                return weight;
+            }
+        }));
+
+        strategy.call(Lists.newArrayList(10, 20));
+        clock.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        // New client with a weight of 30 starts at 10% of its weight
+        ClientsAndWeights<Integer> caw = strategy.call(Lists.newArrayList(10, 20, 30));
+        Assert.assertEquals(33.0, caw.getTotalWeight(), 0.0001);
+
+        clock.advanceTimeBy(10, TimeUnit.SECONDS);
+        caw = strategy.call(Lists.newArrayList(10, 20, 30));
+        Assert.assertEquals(60.0, caw.getTotalWeight(), 0.0001);
+    }
+
+    @Test
+    public void testScore() {
+        TestScheduler clock = new TestScheduler();
+        SlowStart<String> slowStart = new SlowStart<String>(10, TimeUnit.SECONDS, false, 0.5, clock);
+        Func1<String, Double> score = slowStart.score(new Func1<String, Double>() {
+            @Override
+            public Double call(String client) {
+                return 0.0;
+            }
+        });
+
+        slowStart.update(Lists.newArrayList("a"));
+        Assert.assertEquals(1.0, score.call("a"), 0.0001);
+        Assert.assertEquals(0.0, score.call("b"), 0.0001);
+    }
+
+    @Test
+    public void testChoiceOfTwo() {
+        TestScheduler clock = new TestScheduler();
+        SlowStart<String> slowStart = new SlowStart<String>(10, TimeUnit.SECONDS, false, 0.1, clock);
+        PublishSubject<List<String>> source = PublishSubject.create();
+        ChoiceOfTwoLoadBalancer<String> lb = ChoiceOfTwoLoadBalancer.create(source.compose(slowStart),
+                ChoiceOfTwoLoadBalancer.lowest(slowStart.score(new Func1<String, Double>() {
+                    @Override
+                    public Double call(String client) {
+                        return 0.0;
+                    }
+                })));
+
+        source.onNext(Lists.newArrayList("a"));
+        clock.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        // Ramping client loses every comparison against an idle client with the same score
+        source.onNext(Lists.newArrayList("a", "b"));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("a", lb.next());
+        }
+
+        clock.advanceTimeBy(10, TimeUnit.SECONDS);
+        Set<String> chosen = Sets.newHashSet();
+        for (int i = 0; i < 100; i++) {
+            chosen.add(lb.next());
+        }
+        Assert.assertEquals(Sets.newHashSet("a", "b"), chosen);
+    }
+
+    @Test
+    public void testPeakEwma() {
+        TestScheduler clock = new TestScheduler();
+        SlowStart<String> slowStart = new SlowStart<String>(10, TimeUnit.SECONDS, false, 0.1, clock);
+        PublishSubject<List<String>> source = PublishSubject.create();
+        final Map<String, Double> latencies = Maps.newHashMap();
+        PeakEwmaLoadBalancer<String> lb = PeakEwmaLoadBalancer.create(source.compose(slowStart),
+                new Func1<String, Double>() {
+                    @Override
+                    public Double call(String client) {
+                        return latencies.get(client);
+                    }
+                },
+                new Func1<String, Integer>() {
+                    @Override
+                    public Integer call(String client) {
+                        return 0;
+                    }
+                },
+                slowStart.scoring());
+
+        latencies.put("a", 20.0);
+        latencies.put("b", 10.0);
+        source.onNext(Lists.newArrayList("a"));
+        clock.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        // Faster client isn't chosen while its cost is scaled up by the ramp
+        source.onNext(Lists.newArrayList("a", "b"));
+        Assert.assertEquals("a", lb.next());
+
+        clock.advanceTimeBy(10, TimeUnit.SECONDS);
+        Assert.assertEquals("b", lb.next());
+    }
+}
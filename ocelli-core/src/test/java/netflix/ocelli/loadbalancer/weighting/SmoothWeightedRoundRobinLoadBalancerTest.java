@@ -0,0 +1,105 @@
+package netflix.ocelli.loadbalancer.weighting;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.Assert;
+import netflix.ocelli.loadbalancer.SmoothWeightedRoundRobinLoadBalancer;
+
+import org.junit.Test;
+
+import rx.functions.Func1;
+import rx.subjects.PublishSubject;
+
+import com.google.common.collect.Lists;
+
+public class SmoothWeightedRoundRobinLoadBalancerTest extends BaseWeightingStrategyTest {
+
+    @Test(expected=NoSuchElementException.class)
+    public void testEmptyClients() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        SmoothWeightedRoundRobinLoadBalancer<IntClientAndMetrics> selector = SmoothWeightedRoundRobinLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        subject.onNext(create());
+
+        selector.next();
+    }
+
+    @Test
+    public void testInterleaved() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        SmoothWeightedRoundRobinLoadBalancer<IntClientAndMetrics> selector = SmoothWeightedRoundRobinLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        subject.onNext(create(5, 1, 1));
+
+        List<Integer> sequence = Lists.newArrayList();
+        for (int i = 0; i < 14; i++) {
+            sequence.add(selector.next().getClient());
+        }
+        Assert.assertEquals(Lists.newArrayList(0, 0, 1, 0, 2, 0, 0, 0, 0, 1, 0, 2, 0, 0), sequence);
+    }
+
+    @Test
+    public void testExactOverShortWindow() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        SmoothWeightedRoundRobinLoadBalancer<IntClientAndMetrics> selector = SmoothWeightedRoundRobinLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        // Canary with 1% of traffic
+        subject.onNext(create(33, 33, 33, 1));
+
+        List<Integer> counts = Arrays.<Integer>asList(simulate(selector, 4, 100));
+        Assert.assertEquals(Lists.newArrayList(33, 33, 33, 1), counts);
+    }
+
+    @Test
+    public void testZeroWeight() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        SmoothWeightedRoundRobinLoadBalancer<IntClientAndMetrics> selector = SmoothWeightedRoundRobinLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        subject.onNext(create(0, 2, 0, 4));
+
+        List<Integer> counts = Arrays.<Integer>asList(simulate(selector, 4, 300));
+        Assert.assertEquals(Lists.newArrayList(0, 100, 0, 200), counts);
+    }
+
+    @Test
+    public void testExactFractionalWeights() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        SmoothWeightedRoundRobinLoadBalancer<IntClientAndMetrics> selector = SmoothWeightedRoundRobinLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(new Func1<IntClientAndMetrics, Double>() {
+                    @Override
+                    public Double call(IntClientAndMetrics t1) {
+                        return t1.getMetrics() / 100.0;
+                    }
+                }));
+
+        // Canary with 0.01% of traffic
+        subject.onNext(create(3333, 3333, 3333, 1));
+
+        List<Integer> counts = Arrays.<Integer>asList(simulate(selector, 4, 10000));
+        Assert.assertEquals(Lists.newArrayList(3333, 3333, 3333, 1), counts);
+    }
+
+    @Test
+    public void testManyClientsWithFewDistinctWeights() throws Throwable {
+        PublishSubject<List<IntClientAndMetrics>> subject = PublishSubject.create();
+        SmoothWeightedRoundRobinLoadBalancer<IntClientAndMetrics> selector = SmoothWeightedRoundRobinLoadBalancer.create(subject,
+                new LinearWeightingStrategy<IntClientAndMetrics>(IntClientAndMetrics.BY_METRIC));
+
+        Integer[] weights = new Integer[5000];
+        Arrays.fill(weights, 2);
+        weights[0] = 1;
+        subject.onNext(create(weights));
+
+        Integer[] counts = simulate(selector, 5000, 9999);
+        Assert.assertEquals(1, (int)counts[0]);
+        for (int i = 1; i < 5000; i++) {
+            Assert.assertEquals(2, (int)counts[i]);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package netflix.ocelli.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import netflix.ocelli.LoadBalancer;
+import netflix.ocelli.loadbalancer.RoundRobinLoadBalancer;
+import netflix.ocelli.loadbalancer.StripedRoundRobinLoadBalancer;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Compare selection throughput of the shared counter and striped round robin 
+ * load balancers with all cores selecting concurrently.  Contention only shows up
+ * with multiple cores so results from a single core machine say nothing about 
+ * the striped load balancer.  The number of threads can be overridden with
+ * -Dthreads=N.
+ */
+public class RoundRobinPerfTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RoundRobinPerfTest.class);
+    
+    private static final int NUM_HOSTS   = 100;
+    private static final int NUM_THREADS = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+    private static final long DURATION   = TimeUnit.SECONDS.toNanos(5);
+    
+    private static Observable<List<Integer>> source() {
+        List<Integer> hosts = new ArrayList<Integer>();
+        for (int i = 0; i < NUM_HOSTS; i++) {
+            hosts.add(i);
+        }
+        return Observable.<List<Integer>>just(hosts);
+    }
+    
+    private static long run(final LoadBalancer<Integer> lb) throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final CountDownLatch latch = new CountDownLatch(NUM_THREADS);
+        
+        for (int i = 0; i < NUM_THREADS; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Subscriber<Integer> s = new Subscriber<Integer>() {
+                        @Override
+                        public void onCompleted() {
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                        }
+
+                        @Override
+                        public void onNext(Integer t) {
+                        }
+                    };
+                    
+                    long count = 0;
+                    long end = System.nanoTime() + DURATION;
+                    while (System.nanoTime() < end) {
+                        for (int j = 0; j < 1000; j++) {
+                            lb.call(s);
+                        }
+                        count += 1000;
+                    }
+                    total.addAndGet(count);
+                    latch.countDown();
+                }
+            }).start();
+        }
+        
+        latch.await();
+        lb.shutdown();
+        return total.get() * TimeUnit.SECONDS.toNanos(1) / DURATION;
+    }
+    
+    @Test
+    @Ignore
+    public void perf() throws InterruptedException {
+        if (Runtime.getRuntime().availableProcessors() < 2) {
+            LOG.warn("Only one core available, results will not reflect contention on the shared counter");
+        }
+        
+        // Warm up
+        run(RoundRobinLoadBalancer.from(source()));
+        run(StripedRoundRobinLoadBalancer.from(source()));
+        
+        LOG.info("{} threads, shared counter : {} selects / sec", NUM_THREADS, run(RoundRobinLoadBalancer.from(source())));
+        LOG.info("{} threads, striped        : {} selects / sec", NUM_THREADS, run(StripedRoundRobinLoadBalancer.from(source())));
+    }
+}